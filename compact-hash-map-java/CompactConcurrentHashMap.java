@@ -0,0 +1,679 @@
+/* 
+ * Compact hash map
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+/**
+ * A thread-safe version of {@link CompactHashMap}, with the same memory layout of one byte array per entry.
+ * The map is split into segments by the high bits of the key hash, and each segment is a separate
+ * hash table guarded by its own {@link StampedLock}. Lookups first try an optimistic read without
+ * locking, so they scale with the number of cores and never block each other; updates lock one segment.
+ * <p>Null keys and values are not allowed. The methods {@code compute}, {@code computeIfAbsent},
+ * {@code computeIfPresent} and {@code merge} are atomic, and call the function while holding the segment's
+ * lock, so the function must be short and must not access this map. Iterators are weakly consistent: each
+ * segment is copied when the iterator reaches it, and no {@code ConcurrentModificationException} is thrown.</p>
+ * <p>Because an optimistic read can observe a segment that is being modified, the translator's
+ * {@code keyEquals()} may be called on an entry that is no longer current; any exception it throws
+ * in that case is discarded and the lookup is retried under the lock.</p>
+ */
+public final class CompactConcurrentHashMap<K,V> extends AbstractMap<K,V> implements ConcurrentMap<K,V> {
+	
+	/* Fields */
+	
+	private final Segment[] segments;  // Length is a power of 2
+	private final int segmentShift;    // 32 - log2(segments.length)
+	private final int segmentMask;     // segments.length - 1
+	private final CompactMapTranslator<K,V> translator;
+	
+	
+	
+	/* Constructors */
+	
+	public CompactConcurrentHashMap(CompactMapTranslator<K,V> trans) {
+		this(trans, DEFAULT_CONCURRENCY_LEVEL);
+	}
+	
+	
+	// The concurrency level is the expected number of threads updating the map at the same time,
+	// which is rounded up to a power of 2 to give the number of segments.
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public CompactConcurrentHashMap(CompactMapTranslator<K,V> trans, int concurrencyLevel) {
+		if (trans == null)
+			throw new NullPointerException();
+		if (concurrencyLevel <= 0 || concurrencyLevel > MAX_SEGMENTS)
+			throw new IllegalArgumentException("Invalid concurrency level");
+		this.translator = trans;
+		int numSegments = Integer.highestOneBit(concurrencyLevel);
+		if (numSegments < concurrencyLevel)
+			numSegments *= 2;
+		segments = new CompactConcurrentHashMap.Segment[numSegments];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment();
+		segmentShift = 32 - Integer.bitCount(numSegments - 1);
+		segmentMask = numSegments - 1;
+	}
+	
+	
+	
+	/* Basic methods */
+	
+	public void clear() {
+		for (Segment seg : segments) {
+			long stamp = seg.lock.writeLock();
+			try {
+				seg.clear();
+			} finally {
+				seg.lock.unlockWrite(stamp);
+			}
+		}
+	}
+	
+	
+	// Note: The result is only a snapshot if no other thread is modifying the map.
+	public int size() {
+		long result = 0;
+		for (Segment seg : segments)
+			result += seg.size;
+		return (int)Math.min(result, Integer.MAX_VALUE);
+	}
+	
+	
+	public boolean containsKey(Object key) {
+		return getPacked(key) != null;
+	}
+	
+	
+	public V get(Object key) {
+		byte[] packed = getPacked(key);
+		return packed != null ? translator.deserializeValue(packed) : null;
+	}
+	
+	
+	public V put(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			return seg.put(key, hash, value, false);
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V remove(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		K k = (K)key;
+		int hash = translator.getHash(k);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, k, hash);
+			if (index < 0)
+				return null;
+			V result = translator.deserializeValue(seg.table[index]);
+			seg.removeAt(index);
+			return result;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	
+	/* Atomic methods */
+	
+	public V putIfAbsent(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			return seg.put(key, hash, value, true);
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public boolean remove(Object key, Object value) {
+		if (key == null)
+			throw new NullPointerException();
+		if (value == null || !translator.isKeyInstance(key))
+			return false;
+		@SuppressWarnings("unchecked")
+		K k = (K)key;
+		int hash = translator.getHash(k);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, k, hash);
+			if (index < 0 || !value.equals(translator.deserializeValue(seg.table[index])))
+				return false;
+			seg.removeAt(index);
+			return true;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (key == null || oldValue == null || newValue == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index < 0 || !oldValue.equals(translator.deserializeValue(seg.table[index])))
+				return false;
+			seg.table[index] = translator.serialize(key, newValue);
+			return true;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V replace(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index < 0)
+				return null;
+			V result = translator.deserializeValue(seg.table[index]);
+			seg.table[index] = translator.serialize(key, value);
+			return result;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V computeIfAbsent(K key, Function<? super K,? extends V> func) {
+		if (key == null || func == null)
+			throw new NullPointerException();
+		V result = get(key);  // Fast path without locking
+		if (result != null)
+			return result;
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index >= 0)
+				return translator.deserializeValue(seg.table[index]);
+			result = func.apply(key);
+			if (result != null)
+				seg.insertAt(~index, translator.serialize(key, result));
+			return result;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V computeIfPresent(K key, BiFunction<? super K,? super V,? extends V> func) {
+		if (key == null || func == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index < 0)
+				return null;
+			return seg.update(index, key, func.apply(key, translator.deserializeValue(seg.table[index])));
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V compute(K key, BiFunction<? super K,? super V,? extends V> func) {
+		if (key == null || func == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index >= 0)
+				return seg.update(index, key, func.apply(key, translator.deserializeValue(seg.table[index])));
+			V result = func.apply(key, null);
+			if (result != null)
+				seg.insertAt(~index, translator.serialize(key, result));
+			return result;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	public V merge(K key, V value, BiFunction<? super V,? super V,? extends V> func) {
+		if (key == null || value == null || func == null)
+			throw new NullPointerException();
+		int hash = translator.getHash(key);
+		Segment seg = segmentFor(hash);
+		long stamp = seg.lock.writeLock();
+		try {
+			int index = seg.probe(seg.table, key, hash);
+			if (index >= 0)
+				return seg.update(index, key, func.apply(translator.deserializeValue(seg.table[index]), value));
+			seg.insertAt(~index, translator.serialize(key, value));
+			return value;
+		} finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+	
+	
+	
+	/* Helper methods */
+	
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> segmentShift) & segmentMask];  // Shifting by 32 is a no-op, but then the mask is 0
+	}
+	
+	
+	// Returns the packed entry for the given key, or null if absent. Tries an optimistic read first.
+	private byte[] getPacked(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		K k = (K)key;
+		int hash = translator.getHash(k);
+		Segment seg = segmentFor(hash);
+		
+		long stamp = seg.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				byte[][] tab = seg.table;
+				int index = seg.probe(tab, k, hash);
+				byte[] result = index >= 0 ? tab[index] : null;
+				if (seg.lock.validate(stamp))
+					return result;
+			} catch (RuntimeException e) {
+				if (seg.lock.validate(stamp))
+					throw e;
+			}
+		}
+		
+		stamp = seg.lock.readLock();
+		try {
+			int index = seg.probe(seg.table, k, hash);
+			return index >= 0 ? seg.table[index] : null;
+		} finally {
+			seg.lock.unlockRead(stamp);
+		}
+	}
+	
+	
+	
+	/* Advanced methods */
+	
+	// Note: The returned entry set's iterator supports {@code remove()}, and the returned map entries
+	// support {@code setValue()}, both of which write through to this map.
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new EntrySet();
+	}
+	
+	
+	// For unit tests. Must not be called while other threads are modifying the map.
+	void checkStructure() {
+		if (translator == null || Integer.bitCount(segments.length) != 1 || segmentMask != segments.length - 1)
+			throw new AssertionError();
+		for (int i = 0; i < segments.length; i++)
+			segments[i].checkStructure(i);
+	}
+	
+	
+	// Special placeholder reference for deleted slots. Note that even if the translator returns a
+	// 0-length array, the tombstone is considered to be distinct from it, so no confusion can occur.
+	private static final byte[] TOMBSTONE = new byte[0];
+	
+	private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+	
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	private static final int MAX_SEGMENTS = 1 << 16;
+	
+	
+	
+	/* Helper classes */
+	
+	// One independent hash table, using the same probing scheme as CompactHashMap. The lock protects all other fields;
+	// the size is also volatile so that size() can read it without locking.
+	private final class Segment {
+		
+		public final StampedLock lock = new StampedLock();
+		public byte[][] table;  // Length is always a power of 2. Each element is either null, tombstone, or data. At least one element must be null.
+		public volatile int size;  // Number of items stored in hash table
+		public int filled;      // Items plus tombstones; 0 <= size <= filled < table.length
+		private final double loadFactor = 0.5;  // 0 < loadFactor < 1
+		
+		
+		public Segment() {
+			clear();
+		}
+		
+		
+		public void clear() {
+			size = 0;
+			table = null;
+			resize(1);
+		}
+		
+		
+		// Returns either a match index (non-negative) or the bitwise complement of the first empty slot index (negative).
+		// The table is passed in so that an optimistic reader sees a consistent length even if the segment is resized.
+		public int probe(byte[][] tab, K key, int hash) {
+			final int lengthMask = tab.length - 1;
+			final int initIndex = hash & lengthMask;
+			
+			int emptyIndex = -1;
+			byte[] item = tab[initIndex];
+			if (item == null)
+				return ~initIndex;
+			else if (item == TOMBSTONE)
+				emptyIndex = initIndex;
+			else if (translator.keyEquals(key, item))
+				return initIndex;
+			
+			int increment = Math.max((hash >>> Integer.bitCount(lengthMask)) & lengthMask, 1);
+			int index = (initIndex + increment) & lengthMask;
+			int start = index;
+			while (true) {
+				item = tab[index];
+				if (item == null) {
+					if (emptyIndex != -1)
+						return ~emptyIndex;
+					else
+						return ~index;
+				} else if (item == TOMBSTONE) {
+					if (emptyIndex == -1)
+						emptyIndex = index;
+				} else if (translator.keyEquals(key, item))
+					return index;
+				index = (index + 1) & lengthMask;
+				if (index == start)  // Only possible when reading without the lock, which the caller will detect
+					throw new IllegalStateException("Concurrent modification");
+			}
+		}
+		
+		
+		// Puts the key-value pair, or only looks up the existing value if onlyIfAbsent is true. Returns the previous value or null.
+		public V put(K key, int hash, V value, boolean onlyIfAbsent) {
+			int index = probe(table, key, hash);
+			if (index >= 0) {
+				V result = translator.deserializeValue(table[index]);
+				if (!onlyIfAbsent)
+					table[index] = translator.serialize(key, value);
+				return result;
+			}
+			insertAt(~index, translator.serialize(key, value));
+			return null;
+		}
+		
+		
+		// Stores a new entry at the given free slot (null or tombstone), which was returned by probe().
+		public void insertAt(int index, byte[] packed) {
+			if (size == MAX_TABLE_LEN - 1)  // Because table.length is a power of 2, and at least one slot must be free
+				throw new IllegalStateException("Maximum size reached");
+			if (table[index] != TOMBSTONE)
+				filled++;
+			table[index] = packed;
+			size++;
+			if (table.length < MAX_TABLE_LEN && (double)filled / table.length > loadFactor) {  // Refresh or expand hash table
+				int newLen = table.length;
+				while (newLen < MAX_TABLE_LEN && (double)size / newLen > loadFactor)
+					newLen *= 2;
+				resize(newLen);
+			} else if (filled == MAX_TABLE_LEN)
+				resize(table.length);
+		}
+		
+		
+		// Replaces the value at the given occupied slot, or removes the entry if the new value is null. Returns the new value.
+		public V update(int index, K key, V value) {
+			if (value != null)
+				table[index] = translator.serialize(key, value);
+			else
+				removeAt(index);
+			return value;
+		}
+		
+		
+		public void removeAt(int index) {
+			table[index] = TOMBSTONE;
+			size--;
+			int newLen = table.length;
+			while (newLen >= 2 && (double)size / newLen < loadFactor / 4 && size < newLen / 2)
+				newLen /= 2;
+			if (newLen < table.length)
+				resize(newLen);
+		}
+		
+		
+		// Builds the new table completely before publishing it, so that optimistic readers never see it half-filled.
+		private void resize(int newLen) {
+			if (newLen <= size)
+				throw new AssertionError();
+			byte[][] oldTable = table;
+			byte[][] newTable = new byte[newLen][];
+			if (oldTable != null) {
+				for (byte[] item : oldTable) {
+					if (item != null && item != TOMBSTONE) {
+						K key = translator.deserializeKey(item);
+						int index = probe(newTable, key, translator.getHash(key));
+						if (index >= 0)
+							throw new AssertionError();
+						newTable[~index] = item;
+					}
+				}
+			}
+			table = newTable;
+			filled = size;
+		}
+		
+		
+		// Returns a copy of the table, taken under the read lock.
+		public byte[][] snapshot() {
+			long stamp = lock.readLock();
+			try {
+				return table.clone();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		
+		public void checkStructure(int segIndex) {
+			if (table == null || Integer.bitCount(table.length) != 1)
+				throw new AssertionError();
+			if (!(0 <= size && size <= filled && filled < table.length) || loadFactor <= 0 || loadFactor >= 1 || Double.isNaN(loadFactor))
+				throw new AssertionError();
+			if (table.length < MAX_TABLE_LEN && (double)filled / table.length > loadFactor)
+				throw new AssertionError();
+			
+			int count = 0;
+			int occupied = 0;
+			boolean hasNull = false;
+			for (int i = 0; i < table.length; i++) {
+				byte[] item = table[i];
+				hasNull |= item == null;
+				if (item != null) {
+					occupied++;
+					if (item != TOMBSTONE) {
+						count++;
+						K key = translator.deserializeKey(item);
+						int hash = translator.getHash(key);
+						if (segments[(hash >>> segmentShift) & segmentMask] != this || probe(table, key, hash) != i)
+							throw new AssertionError();
+					}
+				}
+			}
+			if (!hasNull || count != size || occupied != filled || segments[segIndex] != this)
+				throw new AssertionError();
+		}
+		
+	}
+	
+	
+	
+	// For the entrySet() method.
+	private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		
+		public int size() {
+			return CompactConcurrentHashMap.this.size();
+		}
+		
+		
+		public boolean contains(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				return false;
+			Map.Entry<?,?> entry = (Map.Entry<?,?>)obj;
+			Object key = entry.getKey();
+			Object val = entry.getValue();
+			return key != null && val != null && val.equals(get(key));
+		}
+		
+		
+		public boolean remove(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				return false;
+			Map.Entry<?,?> entry = (Map.Entry<?,?>)obj;
+			return entry.getKey() != null && CompactConcurrentHashMap.this.remove(entry.getKey(), entry.getValue());
+		}
+		
+		
+		public void clear() {
+			CompactConcurrentHashMap.this.clear();
+		}
+		
+		
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new Iter();
+		}
+		
+		
+		// Weakly consistent: each segment is copied when the iteration reaches it.
+		private final class Iter implements Iterator<Map.Entry<K,V>> {
+			
+			private int segmentIndex;  // Index of the next segment to copy
+			private byte[][] current;  // Copy of the previous segment's table
+			private int nextIndex;     // Index into current
+			private K lastKey;         // Set by next(), cleared by remove()
+			
+			
+			public Iter() {
+				segmentIndex = 0;
+				current = new byte[0][];
+				nextIndex = 0;
+			}
+			
+			
+			public boolean hasNext() {
+				while (true) {
+					for (; nextIndex < current.length; nextIndex++) {
+						if (current[nextIndex] != null && current[nextIndex] != TOMBSTONE)
+							return true;
+					}
+					if (segmentIndex >= segments.length)
+						return false;
+					current = segments[segmentIndex].snapshot();
+					segmentIndex++;
+					nextIndex = 0;
+				}
+			}
+			
+			
+			public Map.Entry<K,V> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				byte[] packed = current[nextIndex];
+				nextIndex++;
+				lastKey = translator.deserializeKey(packed);
+				return new WriteThroughEntry(lastKey, translator.deserializeValue(packed));
+			}
+			
+			
+			public void remove() {
+				if (lastKey == null)
+					throw new IllegalStateException();
+				CompactConcurrentHashMap.this.remove(lastKey);
+				lastKey = null;
+			}
+			
+		}
+		
+	}
+	
+	
+	
+	// A map entry returned by the iterator, whose setValue() puts the new value into the map.
+	private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K,V> {
+		
+		private static final long serialVersionUID = 0;
+		
+		
+		public WriteThroughEntry(K key, V value) {
+			super(key, value);
+		}
+		
+		
+		public V setValue(V value) {
+			if (value == null)
+				throw new NullPointerException();
+			V result = super.setValue(value);
+			put(getKey(), value);
+			return result;
+		}
+		
+	}
+	
+}
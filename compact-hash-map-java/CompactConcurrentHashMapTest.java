@@ -0,0 +1,262 @@
+/* 
+ * Compact concurrent hash map test
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+
+public final class CompactConcurrentHashMapTest {
+	
+	/* Test cases */
+	
+	@Test public void testPut() {
+		CompactConcurrentHashMap<String,Integer> map = new CompactConcurrentHashMap<String,Integer>(TRANSLATOR);
+		assertEquals(null, map.put("a", 9));
+		assertEquals(null, map.put("b", 8));
+		assertEquals(null, map.put("c", 7));
+		assertEquals(null, map.put("d", 6));
+		map.checkStructure();
+		assertEquals((Integer)9, map.put("a", 0));
+		assertEquals((Integer)8, map.put("b", 1));
+		assertEquals((Integer)7, map.put("c", 2));
+		assertEquals((Integer)6, map.put("d", 3));
+		map.checkStructure();
+		assertEquals(4, map.size());
+	}
+	
+	
+	@Test public void testAtomicOperations() {
+		CompactConcurrentHashMap<String,Integer> map = new CompactConcurrentHashMap<String,Integer>(TRANSLATOR);
+		assertNull(map.putIfAbsent("a", 1));
+		assertEquals((Integer)1, map.putIfAbsent("a", 2));
+		assertFalse(map.replace("a", 2, 3));
+		assertTrue(map.replace("a", 1, 3));
+		assertEquals((Integer)3, map.replace("a", 4));
+		assertNull(map.replace("b", 4));
+		assertFalse(map.remove("a", 3));
+		assertTrue(map.remove("a", 4));
+		assertFalse(map.containsKey("a"));
+		
+		assertEquals((Integer)5, map.computeIfAbsent("c", k -> 5));
+		assertEquals((Integer)5, map.computeIfAbsent("c", k -> 6));
+		assertNull(map.computeIfAbsent("d", k -> null));
+		assertFalse(map.containsKey("d"));
+		assertEquals((Integer)10, map.computeIfPresent("c", (k, v) -> v * 2));
+		assertNull(map.computeIfPresent("d", (k, v) -> 1));
+		assertNull(map.computeIfPresent("c", (k, v) -> null));
+		assertFalse(map.containsKey("c"));
+		assertEquals((Integer)7, map.compute("e", (k, v) -> v == null ? 7 : v + 1));
+		assertEquals((Integer)8, map.compute("e", (k, v) -> v == null ? 7 : v + 1));
+		assertEquals((Integer)1, map.merge("f", 1, Integer::sum));
+		assertEquals((Integer)3, map.merge("f", 2, Integer::sum));
+		assertNull(map.merge("f", 0, (a, b) -> null));
+		assertEquals(1, map.size());
+		map.checkStructure();
+	}
+	
+	
+	@Test public void testMediumSeesaw() {
+		Map<String,Integer> map0 = new HashMap<String,Integer>();
+		CompactConcurrentHashMap<String,Integer> map1 = new CompactConcurrentHashMap<String,Integer>(TRANSLATOR, 4);
+		for (int i = 0; i < 30; i++) {
+			// Generate random data
+			int n = rand.nextInt(30000);
+			String[] keys = new String[n];
+			Integer[] values = new Integer[n];
+			for (int j = 0; j < n; j++) {
+				keys[j] = Integer.toString(rand.nextInt(100000), 36);  // Can produce duplicates
+				values[j] = rand.nextInt();
+			}
+			
+			// Do all insertions
+			for (int j = 0; j < n; j++) {
+				assertEquals(map0.put(keys[j], values[j]), map1.put(keys[j], values[j]));
+				String query = Integer.toString(rand.nextInt(100000), 36);
+				assertTrue(map0.containsKey(query) == map1.containsKey(query));
+				assertEquals(map0.get(query), map1.get(query));
+				if (rand.nextDouble() < 0.001)
+					map1.checkStructure();
+			}
+			assertEquals(map0.size(), map1.size());  // May be less than n due to duplicate keys
+			
+			// Do all removals
+			for (int j = 0; j < n; j++) {
+				assertEquals(map0.remove(keys[j]), map1.remove(keys[j]));
+				String query = Integer.toString(rand.nextInt(100000), 36);
+				assertTrue(map0.containsKey(query) == map1.containsKey(query));
+				assertEquals(map0.get(query), map1.get(query));
+				if (rand.nextDouble() < 0.001)
+					map1.checkStructure();
+			}
+			assertEquals(0, map0.size());
+			assertEquals(0, map1.size());
+		}
+	}
+	
+	
+	@Test public void testIteratorModifyRemove() {
+		for (int i = 0; i < 30; i++) {
+			Map<String,Integer> map0 = new HashMap<String,Integer>();
+			CompactConcurrentHashMap<String,Integer> map1 = new CompactConcurrentHashMap<String,Integer>(TRANSLATOR);
+			int n = rand.nextInt(30000);
+			for (int j = 0; j < n; j++) {
+				String key = Integer.toString(rand.nextInt(100000), 36);
+				int val = rand.nextInt();
+				map0.put(key, val);
+				map1.put(key, val);
+			}
+			
+			// Do iterator removals and map entry modifications
+			double deleteProb = rand.nextDouble();
+			for (Iterator<Map.Entry<String,Integer>> iter = map1.entrySet().iterator(); iter.hasNext(); ) {
+				Map.Entry<String,Integer> entry = iter.next();
+				if (rand.nextDouble() < deleteProb) {
+					iter.remove();
+					map0.remove(entry.getKey());
+				} else if (rand.nextDouble() < 0.2) {
+					int value = rand.nextInt();
+					entry.setValue(value);
+					map0.put(entry.getKey(), value);
+				}
+			}
+			map1.checkStructure();
+			assertEquals(map0.size(), map1.size());
+			
+			// Check remaining contents for sameness
+			for (Map.Entry<String,Integer> entry : map1.entrySet())
+				assertEquals(map0.remove(entry.getKey()), entry.getValue());
+			assertEquals(0, map0.size());
+		}
+	}
+	
+	
+	@Test public void testMultithreaded() throws InterruptedException {
+		final CompactConcurrentHashMap<String,Integer> map = new CompactConcurrentHashMap<String,Integer>(TRANSLATOR, 8);
+		final int numThreads = 8;
+		final int numKeys = 20000;
+		for (int i = 0; i < numKeys; i++)
+			map.put("r" + i, i);  // Read-only keys, always present
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			final int id = i;
+			threads.add(new Thread() {
+				public void run() {
+					Random r = new Random(id);
+					for (int j = 0; j < 200000; j++) {
+						int k = r.nextInt(numKeys);
+						if (!((Integer)k).equals(map.get("r" + k)))
+							errors.incrementAndGet();
+						String key = "w" + id + "," + r.nextInt(5000);  // Keys written only by this thread
+						if (r.nextBoolean())
+							map.put(key, k);
+						else
+							map.remove(key);
+						map.merge("counter", 1, Integer::sum);
+					}
+				}
+			});
+		}
+		for (Thread th : threads)
+			th.start();
+		for (Thread th : threads)
+			th.join();
+		assertEquals(0, errors.get());
+		assertEquals((Integer)(numThreads * 200000), map.get("counter"));
+		map.checkStructure();
+	}
+	
+	
+	/* Utilities */
+	
+	private static Random rand = new Random();
+	
+	
+	// Serialization format: (String s, int n) -> [s as bytes in UTF-8] + [n as 4 bytes in big endian].
+	private static final CompactMapTranslator<String,Integer> TRANSLATOR = new CompactMapTranslator<String,Integer>() {
+		
+		public boolean isKeyInstance(Object obj) {
+			return obj instanceof String;
+		}
+		
+		
+		public int getHash(String key) {
+			int state = 0;
+			for (int i = 0; i < key.length(); i++) {
+				state += key.charAt(i);
+				for (int j = 0; j < 4; j++) {
+					state *= 0x7C824F73;
+					state ^= 0x5C12FE83;
+					state = Integer.rotateLeft(state, 5);
+				}
+			}
+			return state;
+		}
+		
+		
+		public byte[] serialize(String key, Integer value) {
+			try {
+				byte[] packed = key.getBytes("UTF-8");
+				int off = packed.length;
+				packed = Arrays.copyOf(packed, off + 4);
+				int val = value;
+				packed[off + 0] = (byte)(val >>> 24);
+				packed[off + 1] = (byte)(val >>> 16);
+				packed[off + 2] = (byte)(val >>>  8);
+				packed[off + 3] = (byte)(val >>>  0);
+				return packed;
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		
+		public String deserializeKey(byte[] packed) {
+			try {
+				return new String(packed, 0, packed.length - 4, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		
+		public Integer deserializeValue(byte[] packed) {
+			int n = packed.length;
+			return (packed[n - 1] & 0xFF) | (packed[n - 2] & 0xFF) << 8 | (packed[n - 3] & 0xFF) << 16 | packed[n - 4] << 24;
+		}
+	};
+	
+}
@@ -22,6 +22,9 @@
  *   Software.
  */
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.ConcurrentModificationException;
@@ -40,6 +43,7 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 	/* Fields */
 	
 	private byte[][] table;  // Length is always a power of 2. Each element is either null, tombstone, or data. At least one element must be null.
+	private byte[] fragments;  // Same length as table. For each data element, the top 8 bits of its key's hash; otherwise unspecified.
 	private int lengthBits;  // Equal to log2(table.length)
 	private int size;        // Number of items stored in hash table
 	private int filled;      // Items plus tombstones; 0 <= size <= filled < table.length
@@ -82,7 +86,8 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 			throw new NullPointerException();
 		if (!translator.isKeyInstance(key))
 			return false;
-		return probe((K)key) >= 0;
+		K k = (K)key;
+		return probe(k, translator.getHash(k)) >= 0;
 	}
 	
 	
@@ -92,7 +97,8 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 		if (!translator.isKeyInstance(key))
 			return null;
 		@SuppressWarnings("unchecked")
-		int index = probe((K)key);
+		K k = (K)key;
+		int index = probe(k, translator.getHash(k));
 		if (index >= 0)
 			return translator.deserializeValue(table[index]);
 		else
@@ -104,7 +110,8 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 		if (key == null)
 			throw new NullPointerException();
 		version++;
-		int index = probe(key);
+		int hash = translator.getHash(key);
+		int index = probe(key, hash);
 		boolean isNew = index < 0;
 		V result = isNew ? null : translator.deserializeValue(table[index]);
 		if (isNew) {
@@ -116,6 +123,7 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 			}
 		}
 		table[index] = translator.serialize(key, value);
+		fragments[index] = (byte)(hash >>> 24);
 		if (isNew) {
 			incrementSize();
 			if (filled == MAX_TABLE_LEN)
@@ -131,7 +139,8 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 		if (!translator.isKeyInstance(key))
 			return null;
 		@SuppressWarnings("unchecked")
-		int index = probe((K)key);
+		K k = (K)key;
+		int index = probe(k, translator.getHash(k));
 		if (index >= 0) {
 			V result = translator.deserializeValue(table[index]);
 			version++;
@@ -146,10 +155,11 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 	/* Helper methods */
 	
 	// Returns either a match index (non-negative) or the bitwise complement of the first empty slot index (negative).
-	private int probe(K key) {
+	// The hash must be translator.getHash(key). Slots whose hash fragment differs are skipped without comparing keys.
+	private int probe(K key, int hash) {
 		final int lengthMask = table.length - 1;
-		final int hash = translator.getHash(key);
 		final int initIndex = hash & lengthMask;
+		final byte fragment = (byte)(hash >>> 24);
 		
 		int emptyIndex = -1;
 		byte[] item = table[initIndex];
@@ -157,7 +167,7 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 			return ~initIndex;
 		else if (item == TOMBSTONE)
 			emptyIndex = initIndex;
-		else if (key.equals(translator.deserializeKey(item)))
+		else if (fragments[initIndex] == fragment && translator.keyEquals(key, item))
 			return initIndex;
 		
 		int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
@@ -173,7 +183,7 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 			} else if (item == TOMBSTONE) {
 				if (emptyIndex == -1)
 					emptyIndex = index;
-			} else if (key.equals(translator.deserializeKey(item)))
+			} else if (fragments[index] == fragment && translator.keyEquals(key, item))
 				return index;
 			index = (index + 1) & lengthMask;
 			if (index == start)
@@ -208,6 +218,7 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 			throw new AssertionError();
 		byte[][] oldTable = table;
 		table = new byte[newLen][];
+		fragments = new byte[newLen];
 		lengthBits = Integer.bitCount(newLen - 1);
 		filled = size;
 		if (oldTable == null)
@@ -215,10 +226,13 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 		
 		for (byte[] item : oldTable) {
 			if (item != null && item != TOMBSTONE) {
-				int index = probe(translator.deserializeKey(item));
+				K key = translator.deserializeKey(item);
+				int hash = translator.getHash(key);
+				int index = probe(key, hash);
 				if (index >= 0)
 					throw new AssertionError();
 				table[~index] = item;
+				fragments[~index] = (byte)(hash >>> 24);
 			}
 		}
 	}
@@ -234,9 +248,60 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 	}
 	
 	
+	/**
+	 * Writes a binary snapshot of this map's table to the specified stream, which can be read back by
+	 * {@link #load(InputStream, CompactMapTranslator)} or memory-mapped by {@link MappedCompactHashMap}.
+	 * The stream is flushed but not closed.
+	 * @param out the output stream to write to
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public void save(OutputStream out) throws IOException {
+		CompactHashSnapshot.write(table, TOMBSTONE, fragments, size, filled, out);
+	}
+	
+	
+	/**
+	 * Reads a snapshot written by {@link #save(OutputStream)} and returns a new map with the same contents.
+	 * Each entry is put back into the slot it was saved from, so no keys are deserialized or rehashed (except
+	 * for a small sample that is checked). This requires the translator to compute the same hashes as the one
+	 * used when saving. The stream is not closed.
+	 * @param in the input stream to read from
+	 * @param trans the translator for the new map
+	 * @return a new map with the saved contents
+	 * @throws NullPointerException if the stream or translator is {@code null}
+	 * @throws IllegalArgumentException if the data is not a valid map snapshot, or does not match the translator
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public static <K,V> CompactHashMap<K,V> load(InputStream in, CompactMapTranslator<K,V> trans) throws IOException {
+		CompactHashMap<K,V> result = new CompactHashMap<K,V>(trans);
+		CompactHashSnapshot snap = CompactHashSnapshot.read(in, TOMBSTONE, true);
+		if (snap.table.length < MAX_TABLE_LEN && (double)snap.filled / snap.table.length > result.loadFactor)
+			throw new IllegalArgumentException("Invalid snapshot");
+		result.table = snap.table;
+		result.fragments = snap.fragments;
+		result.lengthBits = Integer.bitCount(snap.table.length - 1);
+		result.size = snap.size;
+		result.filled = snap.filled;
+		
+		// Spot-check that entries are where this translator's hash function would look for them
+		int step = result.size / 16 + 1;
+		int count = 0;
+		for (int i = 0; i < result.table.length; i++) {
+			byte[] item = result.table[i];
+			if (item != null && item != TOMBSTONE && count++ % step == 0) {
+				K key = trans.deserializeKey(item);
+				int hash = trans.getHash(key);
+				if (result.fragments[i] != (byte)(hash >>> 24) || result.probe(key, hash) != i)
+					throw new IllegalArgumentException("Snapshot does not match translator");
+			}
+		}
+		return result;
+	}
+	
+	
 	// For unit tests.
 	void checkStructure() {
-		if (translator == null || table == null || Integer.bitCount(table.length) != 1 || lengthBits != Integer.bitCount(table.length - 1))
+		if (translator == null || table == null || fragments == null || fragments.length != table.length || Integer.bitCount(table.length) != 1 || lengthBits != Integer.bitCount(table.length - 1))
 			throw new AssertionError();
 		if (!(0 <= size && size <= filled && filled < table.length) || loadFactor <= 0 || loadFactor >= 1 || Double.isNaN(loadFactor))
 			throw new AssertionError();
@@ -254,7 +319,9 @@ public final class CompactHashMap<K,V> extends AbstractMap<K,V> {
 				occupied++;
 				if (item != TOMBSTONE) {
 					count++;
-					if (probe(translator.deserializeKey(item)) != i)
+					K key = translator.deserializeKey(item);
+					int hash = translator.getHash(key);
+					if (fragments[i] != (byte)(hash >>> 24) || probe(key, hash) != i)
 						throw new AssertionError();
 				}
 			}
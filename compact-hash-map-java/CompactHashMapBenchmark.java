@@ -0,0 +1,183 @@
+/* 
+ * Compact hash map benchmark
+ * 
+ * This program measures the speed and the heap allocation per call of get()
+ * on a CompactHashMap, with and without a translator that overrides keyEquals().
+ * With the override, a lookup should allocate nothing (given values that Java
+ * caches as boxed Integers), so the allocation rate should print as 0.00 bytes per op.
+ * 
+ * Usage: java CompactHashMapBenchmark [NumEntries]
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public final class CompactHashMapBenchmark {
+	
+	public static void main(String[] args) {
+		// Handle arguments
+		if (args.length > 1) {
+			System.out.println("Usage: java CompactHashMapBenchmark [NumEntries]");
+			System.exit(1);
+		}
+		int numEntries = args.length == 1 ? Integer.parseInt(args[0]) : 1000000;
+		
+		// Generate keys, half of which will be present
+		Random r = new Random();
+		String[] keys = new String[numEntries * 2];
+		for (int i = 0; i < keys.length; i++) {
+			char[] keyChars = new char[10];
+			for (int j = 0; j < keyChars.length; j++)
+				keyChars[j] = (char)(r.nextInt(94) + 33);  // Printable ASCII
+			keys[i] = new String(keyChars);
+		}
+		
+		for (CompactMapTranslator<String,Integer> trans : Arrays.asList(TRANSLATOR, FAST_TRANSLATOR)) {
+			CompactHashMap<String,Integer> map = new CompactHashMap<String,Integer>(trans);
+			for (int i = 0; i < numEntries; i++)
+				map.put(keys[i * 2], i % 128);  // Boxed by Integer.valueOf() without allocating
+			System.out.println(trans == TRANSLATOR ? "Default keyEquals():" : "Overridden keyEquals():");
+			for (int i = 0; i < 5; i++)  // The first rounds include JIT compilation
+				runGets(map, keys);
+		}
+	}
+	
+	
+	private static void runGets(CompactHashMap<String,Integer> map, String[] keys) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long startBytes = bean.getThreadAllocatedBytes(threadId);
+		long startTime = System.nanoTime();
+		long sum = 0;
+		for (String key : keys) {
+			Integer val = map.get(key);
+			if (val != null)
+				sum += val;
+		}
+		long time = System.nanoTime() - startTime;
+		long bytes = bean.getThreadAllocatedBytes(threadId) - startBytes;
+		System.out.printf("    %.1f ns/op, %.2f bytes/op (checksum %d)%n", (double)time / keys.length, (double)bytes / keys.length, sum);
+	}
+	
+	
+	// Serialization format: (String s, int n) -> [s as bytes in UTF-8] + [n as 4 bytes in big endian].
+	private static final CompactMapTranslator<String,Integer> TRANSLATOR = new CompactMapTranslator<String,Integer>() {
+		
+		public boolean isKeyInstance(Object obj) {
+			return obj instanceof String;
+		}
+		
+		
+		public int getHash(String key) {
+			int state = 0;
+			for (int i = 0; i < key.length(); i++) {
+				state += key.charAt(i);
+				for (int j = 0; j < 4; j++) {
+					state *= 0x7C824F73;
+					state ^= 0x5C12FE83;
+					state = Integer.rotateLeft(state, 5);
+				}
+			}
+			return state;
+		}
+		
+		
+		public byte[] serialize(String key, Integer value) {
+			try {
+				byte[] packed = key.getBytes("UTF-8");
+				int off = packed.length;
+				packed = Arrays.copyOf(packed, off + 4);
+				int val = value;
+				packed[off + 0] = (byte)(val >>> 24);
+				packed[off + 1] = (byte)(val >>> 16);
+				packed[off + 2] = (byte)(val >>>  8);
+				packed[off + 3] = (byte)(val >>>  0);
+				return packed;
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		
+		public String deserializeKey(byte[] packed) {
+			try {
+				return new String(packed, 0, packed.length - 4, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+		
+		
+		public Integer deserializeValue(byte[] packed) {
+			int n = packed.length;
+			return (packed[n - 1] & 0xFF) | (packed[n - 2] & 0xFF) << 8 | (packed[n - 3] & 0xFF) << 16 | packed[n - 4] << 24;
+		}
+	};
+	
+	
+	// Same as TRANSLATOR, but compares keys without deserializing them.
+	private static final CompactMapTranslator<String,Integer> FAST_TRANSLATOR = new CompactMapTranslator<String,Integer>() {
+		
+		public boolean isKeyInstance(Object obj) {
+			return TRANSLATOR.isKeyInstance(obj);
+		}
+		
+		
+		public int getHash(String key) {
+			return TRANSLATOR.getHash(key);
+		}
+		
+		
+		public byte[] serialize(String key, Integer value) {
+			return TRANSLATOR.serialize(key, value);
+		}
+		
+		
+		public String deserializeKey(byte[] packed) {
+			return TRANSLATOR.deserializeKey(packed);
+		}
+		
+		
+		public Integer deserializeValue(byte[] packed) {
+			return TRANSLATOR.deserializeValue(packed);
+		}
+		
+		
+		// An ASCII prefix of the key is encoded in UTF-8 as the same bytes, so it can be compared directly.
+		public boolean keyEquals(String key, byte[] packed) {
+			int n = packed.length - 4;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (c >= 0x80)
+					return key.equals(deserializeKey(packed));
+				if (i >= n || packed[i] != c)
+					return false;
+			}
+			return key.length() == n;
+		}
+	};
+	
+}
@@ -4,7 +4,7 @@
  * This program tests how many (String, Integer) entries can be stored
  * in a map until the JVM runs out of memory and terminates the process.
  * 
- * Usage: java CompactHashMapDemo regular|compact
+ * Usage: java CompactHashMapDemo regular|compact|offheap|robinhood
  * 
  * Copyright (c) 2015 Project Nayuki
  * http://www.nayuki.io/page/compact-hash-map-java
@@ -39,7 +39,7 @@ public final class CompactHashMapDemo {
 	public static void main(String[] args) {
 		// Handle arguments
 		if (args.length != 1) {
-			System.out.println("Usage: java CompactHashMapDemo regular|compact");
+			System.out.println("Usage: java CompactHashMapDemo regular|compact|offheap|robinhood");
 			System.exit(1);
 		}
 		Map<String,Integer> map;
@@ -47,6 +47,10 @@ public final class CompactHashMapDemo {
 			map = new HashMap<String,Integer>();
 		else if (args[0].equals("compact"))
 			map = new CompactHashMap<String,Integer>(TRANSLATOR);
+		else if (args[0].equals("offheap"))  // Heap usage stays small; limit native memory with -XX:MaxDirectMemorySize
+			map = new OffHeapCompactHashMap<String,Integer>(TRANSLATOR);
+		else if (args[0].equals("robinhood"))
+			map = new RobinHoodCompactHashMap<String,Integer>(TRANSLATOR);
 		else
 			throw new IllegalArgumentException();
 		
@@ -25,6 +25,12 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -235,6 +241,118 @@ public final class CompactHashMapTest {
 	}
 	
 	
+	@Test public void testKeyEqualsOverride() {
+		final int[] deserializeCount = {0};
+		CompactMapTranslator<String,Integer> trans = new CompactMapTranslator<String,Integer>() {
+			public boolean isKeyInstance(Object obj) {
+				return TRANSLATOR.isKeyInstance(obj);
+			}
+			
+			
+			public int getHash(String key) {
+				return TRANSLATOR.getHash(key);
+			}
+			
+			
+			public byte[] serialize(String key, Integer value) {
+				return TRANSLATOR.serialize(key, value);
+			}
+			
+			
+			public String deserializeKey(byte[] packed) {
+				deserializeCount[0]++;
+				return TRANSLATOR.deserializeKey(packed);
+			}
+			
+			
+			public Integer deserializeValue(byte[] packed) {
+				return TRANSLATOR.deserializeValue(packed);
+			}
+			
+			
+			public boolean keyEquals(String key, byte[] packed) {
+				byte[] b = TRANSLATOR.serialize(key, 0);
+				return b.length == packed.length && Arrays.equals(Arrays.copyOf(b, b.length - 4), Arrays.copyOf(packed, packed.length - 4));
+			}
+		};
+		
+		Map<String,Integer> map0 = new HashMap<String,Integer>();
+		CompactHashMap<String,Integer> map1 = new CompactHashMap<String,Integer>(trans);
+		for (int i = 0; i < 10000; i++) {
+			String key = Integer.toString(rand.nextInt(30000), 36);
+			int val = rand.nextInt();
+			assertEquals(map0.put(key, val), map1.put(key, val));
+		}
+		map1.checkStructure();
+		
+		int count = deserializeCount[0];
+		for (int i = 0; i < 10000; i++) {
+			String query = Integer.toString(rand.nextInt(30000), 36);
+			assertEquals(map0.get(query), map1.get(query));
+			assertTrue(map0.containsKey(query) == map1.containsKey(query));
+		}
+		assertEquals(count, deserializeCount[0]);  // Lookups never deserialize keys
+	}
+	
+	
+	@Test public void testSnapshot() throws IOException {
+		// Build a map that also has tombstones
+		Map<String,Integer> map0 = new HashMap<String,Integer>();
+		CompactHashMap<String,Integer> map1 = new CompactHashMap<String,Integer>(TRANSLATOR);
+		for (int i = 0; i < 30000; i++) {
+			String key = Integer.toString(rand.nextInt(100000), 36);
+			if (rand.nextInt(4) != 0) {
+				int val = rand.nextInt();
+				map0.put(key, val);
+				map1.put(key, val);
+			} else {
+				map0.remove(key);
+				map1.remove(key);
+			}
+		}
+		
+		// Round trip through a stream
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		map1.save(bout);
+		CompactHashMap<String,Integer> map2 = CompactHashMap.load(new ByteArrayInputStream(bout.toByteArray()), TRANSLATOR);
+		map2.checkStructure();
+		assertEquals(map0, map2);
+		map2.put("extra", 1);  // Still mutable
+		map2.checkStructure();
+		
+		// Memory-mapped access
+		File file = File.createTempFile("CompactHashMapTest", ".bin");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bout.toByteArray());
+			} finally {
+				out.close();
+			}
+			MappedCompactHashMap<String,Integer> map3 = new MappedCompactHashMap<String,Integer>(file, TRANSLATOR);
+			assertEquals(map0.size(), map3.size());
+			assertEquals(map0, map3);
+			for (int i = 0; i < 10000; i++) {
+				String query = Integer.toString(rand.nextInt(100000), 36);
+				assertTrue(map0.containsKey(query) == map3.containsKey(query));
+				assertEquals(map0.get(query), map3.get(query));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testSnapshotWrongType() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		new CompactHashMap<String,Integer>(TRANSLATOR).save(bout);
+		byte[] b = bout.toByteArray();
+		b[11] = 0;  // Clear the flag that distinguishes a map from a set
+		CompactHashMap.load(new ByteArrayInputStream(b), TRANSLATOR);
+	}
+	
+	
 	/* Utilities */
 	
 	private static Random rand = new Random();
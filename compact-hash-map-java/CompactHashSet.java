@@ -22,6 +22,9 @@
  *   Software.
  */
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.AbstractSet;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
@@ -208,6 +211,52 @@ public final class CompactHashSet<E> extends AbstractSet<E> {
 	}
 	
 	
+	/**
+	 * Writes a binary snapshot of this set's table to the specified stream, which can be read back by
+	 * {@link #load(InputStream, CompactSetTranslator)} or memory-mapped by {@link MappedCompactHashSet}.
+	 * The stream is flushed but not closed.
+	 * @param out the output stream to write to
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public void save(OutputStream out) throws IOException {
+		CompactHashSnapshot.write(table, TOMBSTONE, null, size, filled, out);
+	}
+	
+	
+	/**
+	 * Reads a snapshot written by {@link #save(OutputStream)} and returns a new set with the same contents.
+	 * Each element is put back into the slot it was saved from, so no elements are deserialized or rehashed (except
+	 * for a small sample that is checked). This requires the translator to compute the same hashes as the one
+	 * used when saving. The stream is not closed.
+	 * @param in the input stream to read from
+	 * @param trans the translator for the new set
+	 * @return a new set with the saved contents
+	 * @throws NullPointerException if the stream or translator is {@code null}
+	 * @throws IllegalArgumentException if the data is not a valid set snapshot, or does not match the translator
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public static <E> CompactHashSet<E> load(InputStream in, CompactSetTranslator<E> trans) throws IOException {
+		CompactHashSet<E> result = new CompactHashSet<E>(trans);
+		CompactHashSnapshot snap = CompactHashSnapshot.read(in, TOMBSTONE, false);
+		if (snap.table.length < MAX_TABLE_LEN && (double)snap.filled / snap.table.length > result.loadFactor)
+			throw new IllegalArgumentException("Invalid snapshot");
+		result.table = snap.table;
+		result.lengthBits = Integer.bitCount(snap.table.length - 1);
+		result.size = snap.size;
+		result.filled = snap.filled;
+		
+		// Spot-check that elements are where this translator's hash function would look for them
+		int step = result.size / 16 + 1;
+		int count = 0;
+		for (int i = 0; i < result.table.length; i++) {
+			byte[] item = result.table[i];
+			if (item != null && item != TOMBSTONE && count++ % step == 0 && result.probe(trans.deserialize(item)) != i)
+				throw new IllegalArgumentException("Snapshot does not match translator");
+		}
+		return result;
+	}
+	
+	
 	// For unit tests.
 	void checkStructure() {
 		if (translator == null || table == null || Integer.bitCount(table.length) != 1 || lengthBits != Integer.bitCount(table.length - 1))
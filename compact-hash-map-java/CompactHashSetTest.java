@@ -25,6 +25,12 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -208,6 +214,50 @@ public final class CompactHashSetTest {
 	}
 	
 	
+	@Test public void testSnapshot() throws IOException {
+		// Build a set that also has tombstones
+		Set<String> set0 = new HashSet<String>();
+		CompactHashSet<String> set1 = new CompactHashSet<String>(TRANSLATOR);
+		for (int i = 0; i < 30000; i++) {
+			String obj = Integer.toString(rand.nextInt(100000), 36);
+			if (rand.nextInt(4) != 0) {
+				set0.add(obj);
+				set1.add(obj);
+			} else {
+				set0.remove(obj);
+				set1.remove(obj);
+			}
+		}
+		
+		// Round trip through a stream
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		set1.save(bout);
+		CompactHashSet<String> set2 = CompactHashSet.load(new ByteArrayInputStream(bout.toByteArray()), TRANSLATOR);
+		set2.checkStructure();
+		assertEquals(set0, set2);
+		
+		// Memory-mapped access
+		File file = File.createTempFile("CompactHashSetTest", ".bin");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bout.toByteArray());
+			} finally {
+				out.close();
+			}
+			MappedCompactHashSet<String> set3 = new MappedCompactHashSet<String>(file, TRANSLATOR);
+			assertEquals(set0.size(), set3.size());
+			assertEquals(set0, set3);
+			for (int i = 0; i < 10000; i++) {
+				String query = Integer.toString(rand.nextInt(100000), 36);
+				assertTrue(set0.contains(query) == set3.contains(query));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
 	/* Utilities */
 	
 	private static Random rand = new Random();
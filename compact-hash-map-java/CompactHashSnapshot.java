@@ -0,0 +1,270 @@
+/* 
+ * Compact hash map
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/* 
+ * The binary snapshot format of CompactHashMap and CompactHashSet, which preserves the table layout so that
+ * loading needs no rehashing, and which can be memory-mapped and probed in place. All integers are big-endian.
+ *   Offset  0: int32 magic number 0x43485354 ("CHST")
+ *   Offset  4: int32 format version, currently 1
+ *   Offset  8: int32 flags, where bit 0 means the snapshot is of a map and has hash fragments
+ *   Offset 12: int32 table length, a power of 2
+ *   Offset 16: int32 size (number of entries)
+ *   Offset 20: int32 filled (number of entries plus tombstones)
+ *   Offset 24: int64[table length] slots, each 0 for empty, -1 for a tombstone, or the file offset of the entry's record
+ *   Next:      uint8[table length] hash fragments, only if flag bit 0 is set
+ *   Next:      the records in increasing slot order, each being an int32 length followed by the packed bytes
+ */
+final class CompactHashSnapshot {
+	
+	/* Fields */
+	
+	public byte[][] table;     // Tombstones are represented by the reference passed to read()
+	public byte[] fragments;   // Null if the snapshot has none
+	public int size;
+	public int filled;
+	
+	
+	
+	/* Reading and writing streams */
+	
+	// Writes the given table to the given stream, and flushes it but does not close it.
+	public static void write(byte[][] table, byte[] tombstone, byte[] fragments, int size, int filled, OutputStream out) throws IOException {
+		if (out == null)
+			throw new NullPointerException();
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		dout.writeInt(MAGIC);
+		dout.writeInt(VERSION);
+		dout.writeInt(fragments != null ? FLAG_FRAGMENTS : 0);
+		dout.writeInt(table.length);
+		dout.writeInt(size);
+		dout.writeInt(filled);
+		
+		long offset = getRecordsOffset(table.length, fragments != null);
+		for (byte[] item : table) {
+			if (item == null)
+				dout.writeLong(EMPTY);
+			else if (item == tombstone)
+				dout.writeLong(TOMBSTONE);
+			else {
+				dout.writeLong(offset);
+				offset += 4 + item.length;
+			}
+		}
+		if (fragments != null)
+			dout.write(fragments);
+		for (byte[] item : table) {
+			if (item != null && item != tombstone) {
+				dout.writeInt(item.length);
+				dout.write(item);
+			}
+		}
+		dout.flush();
+	}
+	
+	
+	// Reads a snapshot written by write(), checking that all the values are consistent. Tombstone slots are set
+	// to the given reference. Does not close the stream, but may buffer data beyond the end of the snapshot.
+	public static CompactHashSnapshot read(InputStream in, byte[] tombstone, boolean isMap) throws IOException {
+		if (in == null)
+			throw new NullPointerException();
+		DataInputStream din = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+		int len = readHeader(din, isMap);
+		CompactHashSnapshot result = new CompactHashSnapshot();
+		result.size = din.readInt();
+		result.filled = din.readInt();
+		if (!(0 <= result.size && result.size <= result.filled && result.filled < len))
+			throw new IllegalArgumentException("Invalid snapshot");
+		
+		// Read the slots in blocks, then the fragments, then the records
+		long[] slots = new long[len];
+		byte[] buf = new byte[1 << 16];
+		for (int i = 0; i < len; ) {
+			int n = Math.min(len - i, buf.length / 8);
+			din.readFully(buf, 0, n * 8);
+			ByteBuffer.wrap(buf, 0, n * 8).asLongBuffer().get(slots, i, n);
+			i += n;
+		}
+		if (isMap) {
+			result.fragments = new byte[len];
+			din.readFully(result.fragments);
+		}
+		
+		result.table = new byte[len][];
+		long offset = getRecordsOffset(len, isMap);
+		int count = 0;
+		int occupied = 0;
+		for (int i = 0; i < len; i++) {
+			long slot = slots[i];
+			if (slot == EMPTY)
+				continue;
+			occupied++;
+			if (slot == TOMBSTONE)
+				result.table[i] = tombstone;
+			else {
+				int n = din.readInt();
+				if (slot != offset || n < 0)
+					throw new IllegalArgumentException("Invalid snapshot");
+				byte[] item = new byte[n];
+				din.readFully(item);
+				result.table[i] = item;
+				offset += 4 + n;
+				count++;
+			}
+		}
+		if (count != result.size || occupied != result.filled)
+			throw new IllegalArgumentException("Invalid snapshot");
+		return result;
+	}
+	
+	
+	// Reads and checks the fields before the size, and returns the table length.
+	private static int readHeader(DataInputStream in, boolean isMap) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IllegalArgumentException("Invalid snapshot");
+		int flags = in.readInt();
+		if (flags != (isMap ? FLAG_FRAGMENTS : 0))
+			throw new IllegalArgumentException(isMap ? "Snapshot is not of a map" : "Snapshot is not of a set");
+		int len = in.readInt();
+		if (len <= 0 || Integer.bitCount(len) != 1 || len > MAX_TABLE_LEN)
+			throw new IllegalArgumentException("Invalid snapshot");
+		return len;
+	}
+	
+	
+	private static long getRecordsOffset(int tableLength, boolean hasFragments) {
+		return HEADER_LEN + (long)tableLength * (hasFragments ? 9 : 8);
+	}
+	
+	
+	public static final long EMPTY = 0;
+	public static final long TOMBSTONE = -1;
+	
+	private static final int MAGIC = 0x43485354;
+	private static final int VERSION = 1;
+	private static final int FLAG_FRAGMENTS = 1;
+	private static final int HEADER_LEN = 24;
+	private static final int MAX_TABLE_LEN = 0x40000000;
+	
+	
+	
+	/* Memory-mapped access */
+	
+	// A read-only mapping of a snapshot file, whose slots and records are read on demand.
+	// The file can be of any length, because it is mapped in several pieces if needed.
+	public static final class Mapped {
+		
+		public final int tableLength;
+		public final int size;
+		private final boolean hasFragments;
+		private final long fileLength;
+		private final ByteBuffer[] chunks;  // Each maps CHUNK_SIZE bytes, except the last which may map fewer
+		
+		
+		public Mapped(File file, boolean isMap) throws IOException {
+			if (file == null)
+				throw new NullPointerException();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				byte[] header = new byte[HEADER_LEN];
+				raf.readFully(header);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+				tableLength = readHeader(in, isMap);
+				size = in.readInt();
+				int filled = in.readInt();
+				if (!(0 <= size && size <= filled && filled < tableLength))
+					throw new IllegalArgumentException("Invalid snapshot");
+				hasFragments = isMap;
+				
+				FileChannel channel = raf.getChannel();
+				fileLength = channel.size();
+				if (fileLength < getRecordsOffset(tableLength, hasFragments) + 4L * size)
+					throw new IllegalArgumentException("Snapshot is truncated");
+				chunks = new ByteBuffer[(int)((fileLength + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+				for (int i = 0; i < chunks.length; i++) {
+					long off = (long)i * CHUNK_SIZE;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, off, Math.min(fileLength - off, CHUNK_SIZE));
+				}
+			} finally {
+				raf.close();
+			}
+		}
+		
+		
+		// Returns EMPTY, TOMBSTONE, or a record offset.
+		public long getSlot(int index) {
+			long pos = HEADER_LEN + (long)index * 8;  // 8-byte aligned, so never split across chunks
+			return chunks[(int)(pos / CHUNK_SIZE)].getLong((int)(pos % CHUNK_SIZE));
+		}
+		
+		
+		public byte getFragment(int index) {
+			long pos = HEADER_LEN + (long)tableLength * 8 + index;
+			return chunks[(int)(pos / CHUNK_SIZE)].get((int)(pos % CHUNK_SIZE));
+		}
+		
+		
+		// Returns a copy of the packed bytes of the record at the given offset.
+		public byte[] getRecord(long offset) {
+			byte[] len = new byte[4];
+			read(offset, len);
+			int n = (len[0] & 0xFF) << 24 | (len[1] & 0xFF) << 16 | (len[2] & 0xFF) << 8 | (len[3] & 0xFF);
+			if (n < 0 || n > fileLength - offset - 4)
+				throw new IllegalStateException("Invalid record");
+			byte[] result = new byte[n];
+			read(offset + 4, result);
+			return result;
+		}
+		
+		
+		private void read(long pos, byte[] dest) {
+			for (int off = 0; off < dest.length; ) {
+				ByteBuffer chunk = chunks[(int)(pos / CHUNK_SIZE)].duplicate();
+				chunk.position((int)(pos % CHUNK_SIZE));
+				int n = Math.min(chunk.remaining(), dest.length - off);
+				chunk.get(dest, off, n);
+				off += n;
+				pos += n;
+			}
+		}
+		
+		
+		private static final int CHUNK_SIZE = 1 << 30;  // A multiple of 8
+		
+	}
+	
+}
@@ -85,4 +85,19 @@ public interface CompactMapTranslator<K,V> {
 	 */
 	public V deserializeValue(byte[] packed);
 	
+	
+	/**
+	 * Tests whether the specified key is equal to the key stored in the specified packed array. This is
+	 * called for every candidate entry during a lookup, so overriding it to compare the bytes directly
+	 * (instead of deserializing a new key object) makes lookups free of allocations.
+	 * <p>The default implementation returns {@code key.equals(deserializeKey(packed))}, and an
+	 * override must always give the same result as that.</p>
+	 * @param key the key object to compare, which is not {@code null}
+	 * @param packed the packed key-value pair byte array
+	 * @return whether the key equals the stored key
+	 */
+	public default boolean keyEquals(K key, byte[] packed) {
+		return key.equals(deserializeKey(packed));
+	}
+	
 }
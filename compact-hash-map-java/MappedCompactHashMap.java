@@ -0,0 +1,167 @@
+/* 
+ * Compact hash map
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A read-only map that serves lookups directly from a memory-mapped snapshot file written by
+ * {@link CompactHashMap#save(java.io.OutputStream)}. Opening the file takes constant time regardless of its size,
+ * because nothing is read or rehashed up front; the operating system pages in the table and entries as they are probed.
+ * The translator must compute the same hashes as the one used when saving. All mutating methods throw
+ * {@code UnsupportedOperationException}. Instances are immutable and can be used by multiple threads.
+ */
+public final class MappedCompactHashMap<K,V> extends AbstractMap<K,V> {
+	
+	/* Fields */
+	
+	private final CompactHashSnapshot.Mapped snapshot;
+	private final int lengthBits;  // Equal to log2(table length)
+	private final CompactMapTranslator<K,V> translator;
+	
+	
+	
+	/* Constructors */
+	
+	/**
+	 * Maps the specified snapshot file for reading.
+	 * @param file the snapshot file
+	 * @param trans the translator for the entries
+	 * @throws NullPointerException if the file or translator is {@code null}
+	 * @throws IllegalArgumentException if the file does not start with a valid map snapshot header, or is too short
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public MappedCompactHashMap(File file, CompactMapTranslator<K,V> trans) throws IOException {
+		if (trans == null)
+			throw new NullPointerException();
+		snapshot = new CompactHashSnapshot.Mapped(file, true);
+		lengthBits = Integer.bitCount(snapshot.tableLength - 1);
+		translator = trans;
+	}
+	
+	
+	
+	/* Basic methods */
+	
+	public int size() {
+		return snapshot.size;
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		return translator.isKeyInstance(key) && probe((K)key) != null;
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		byte[] packed = probe((K)key);
+		return packed != null ? translator.deserializeValue(packed) : null;
+	}
+	
+	
+	/* Helper methods */
+	
+	// Returns the packed entry for the key, or null if absent. Follows the same probe sequence as CompactHashMap.
+	private byte[] probe(K key) {
+		final int lengthMask = snapshot.tableLength - 1;
+		final int hash = translator.getHash(key);
+		final byte fragment = (byte)(hash >>> 24);
+		int index = hash & lengthMask;
+		int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+		for (int i = 0; i <= lengthMask; i++) {  // Stops at an empty slot, but is bounded in case the file is corrupt
+			long slot = snapshot.getSlot(index);
+			if (slot == CompactHashSnapshot.EMPTY)
+				return null;
+			if (slot != CompactHashSnapshot.TOMBSTONE && snapshot.getFragment(index) == fragment) {
+				byte[] packed = snapshot.getRecord(slot);
+				if (translator.keyEquals(key, packed))
+					return packed;
+			}
+			index = (index + (i == 0 ? increment : 1)) & lengthMask;
+		}
+		return null;
+	}
+	
+	
+	/* Advanced methods */
+	
+	// Note: The returned entry set and its entries are read-only.
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new AbstractSet<Map.Entry<K,V>>() {
+			
+			public int size() {
+				return snapshot.size;
+			}
+			
+			
+			public Iterator<Map.Entry<K,V>> iterator() {
+				return new Iterator<Map.Entry<K,V>>() {
+					
+					private int nextIndex = 0;
+					
+					
+					public boolean hasNext() {
+						while (nextIndex < snapshot.tableLength) {
+							long slot = snapshot.getSlot(nextIndex);
+							if (slot != CompactHashSnapshot.EMPTY && slot != CompactHashSnapshot.TOMBSTONE)
+								return true;
+							nextIndex++;
+						}
+						return false;
+					}
+					
+					
+					public Map.Entry<K,V> next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						byte[] packed = snapshot.getRecord(snapshot.getSlot(nextIndex));
+						nextIndex++;
+						return new AbstractMap.SimpleImmutableEntry<K,V>(translator.deserializeKey(packed), translator.deserializeValue(packed));
+					}
+					
+					
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+}
@@ -0,0 +1,563 @@
+/* 
+ * Compact hash map
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A hash map like {@link CompactHashMap}, but which stores the serialized entries outside the Java heap. The entries are packed
+ * one after another into large direct byte buffers (slabs), and the hash table holds the {@code long} address of each entry.
+ * So the heap holds only one {@code long} per table slot, regardless of the entry sizes, and the garbage collector has nothing
+ * per entry to scan. Each packed entry is stored together with its hash code, so that the table can be resized without
+ * deserializing any keys, and most mismatching slots can be skipped during a lookup without deserializing.
+ * <p>Replacing or removing an entry leaves its old bytes as dead space in the slabs. When the dead space exceeds the live data
+ * (and at least one slab's worth), the live entries are copied into fresh slabs, which can also be requested by {@link #compact()}.</p>
+ */
+public final class OffHeapCompactHashMap<K,V> extends AbstractMap<K,V> {
+	
+	/* Fields */
+	
+	private long[] table;  // Length is always a power of 2. Each element is EMPTY, TOMBSTONE, or an entry address. At least one element must be EMPTY.
+	private int lengthBits;  // Equal to log2(table.length)
+	private int size;        // Number of items stored in hash table
+	private int filled;      // Items plus tombstones; 0 <= size <= filled < table.length
+	private int version;
+	private final double loadFactor = 0.5;  // 0 < loadFactor < 1
+	private final CompactMapTranslator<K,V> translator;
+	
+	// Each entry occupies a record of [hash as int32][length as int32][packed bytes] in a slab.
+	// An address is (slab index << 32 | byte offset). New records are appended to the last slab.
+	private final int slabSize;
+	private ByteBuffer[] slabs;
+	private int numSlabs;
+	private int slabUsed;    // Number of bytes used in the last slab
+	private long liveBytes;  // Total length of records referenced by the table
+	private long deadBytes;  // Total length of unreferenced records and unusable slab tails
+	
+	
+	
+	/* Constructors */
+	
+	public OffHeapCompactHashMap(CompactMapTranslator<K,V> trans) {
+		this(trans, DEFAULT_SLAB_SIZE);
+	}
+	
+	
+	// Records longer than slabSize bytes are each given a slab of their own.
+	public OffHeapCompactHashMap(CompactMapTranslator<K,V> trans, int slabSize) {
+		if (trans == null)
+			throw new NullPointerException();
+		if (slabSize < RECORD_HEADER_LEN)
+			throw new IllegalArgumentException("Slab size too small");
+		this.translator = trans;
+		this.slabSize = slabSize;
+		version = -1;
+		clear();
+	}
+	
+	
+	
+	/* Basic methods */
+	
+	public void clear() {
+		size = 0;
+		table = null;
+		slabs = new ByteBuffer[1];
+		numSlabs = 0;
+		slabUsed = 0;
+		liveBytes = 0;
+		deadBytes = 0;
+		version++;
+		resize(1);
+	}
+	
+	
+	public int size() {
+		return size;
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return false;
+		return probe((K)key) >= 0;
+	}
+	
+	
+	public V get(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		int index = probe((K)key);
+		if (index >= 0)
+			return translator.deserializeValue(readPacked(table[index]));
+		else
+			return null;
+	}
+	
+	
+	public V put(K key, V value) {
+		if (key == null)
+			throw new NullPointerException();
+		version++;
+		int index = probe(key);
+		boolean isNew = index < 0;
+		V result = null;
+		if (isNew && size == MAX_TABLE_LEN - 1)  // Because table.length is a power of 2, and at least one slot must be free
+			throw new IllegalStateException("Maximum size reached");
+		long addr = appendRecord(translator.getHash(key), translator.serialize(key, value));  // Before any other change, in case it fails
+		if (isNew) {
+			index = ~index;
+			if (table[index] != TOMBSTONE)
+				filled++;
+		} else {
+			result = translator.deserializeValue(readPacked(table[index]));
+			killRecord(table[index]);
+		}
+		table[index] = addr;
+		if (isNew) {
+			incrementSize();
+			if (filled == MAX_TABLE_LEN)
+				resize(table.length);
+		}
+		compactIfWasteful();
+		return result;
+	}
+	
+	
+	public V remove(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		int index = probe((K)key);
+		if (index >= 0) {
+			V result = translator.deserializeValue(readPacked(table[index]));
+			version++;
+			killRecord(table[index]);
+			table[index] = TOMBSTONE;
+			decrementSize();
+			compactIfWasteful();
+			return result;
+		} else
+			return null;
+	}
+	
+	
+	/**
+	 * Copies all live entries into fresh slabs, releasing the dead space. This does not change the
+	 * contents of the map or invalidate iterators.
+	 */
+	public void compact() {
+		ByteBuffer[] oldSlabs = slabs;
+		slabs = new ByteBuffer[1];
+		numSlabs = 0;
+		slabUsed = 0;
+		liveBytes = 0;
+		deadBytes = 0;
+		for (int i = 0; i < table.length; i++) {
+			long addr = table[i];
+			if (addr != EMPTY && addr != TOMBSTONE) {
+				ByteBuffer src = oldSlabs[(int)(addr >>> 32)].duplicate();
+				int off = (int)addr;
+				int len = RECORD_HEADER_LEN + src.getInt(off + 4);
+				src.limit(off + len).position(off);
+				long newAddr = allocateRecord(len);
+				ByteBuffer dest = slabs[(int)(newAddr >>> 32)].duplicate();
+				dest.position((int)newAddr);
+				dest.put(src);
+				table[i] = newAddr;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the total capacity of the slabs holding the packed entries, in bytes.
+	 * @return the number of bytes of off-heap memory in use
+	 */
+	public long getOffHeapBytes() {
+		long result = 0;
+		for (int i = 0; i < numSlabs; i++)
+			result += slabs[i].capacity();
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the number of bytes in the slabs that are not occupied by live entries (including unused space
+	 * at the ends of slabs), which {@link #compact()} would release.
+	 * @return the number of dead bytes
+	 */
+	public long getDeadBytes() {
+		return deadBytes + (numSlabs > 0 ? slabs[numSlabs - 1].capacity() - slabUsed : 0);
+	}
+	
+	
+	/* Helper methods */
+	
+	// Returns either a match index (non-negative) or the bitwise complement of the first empty slot index (negative).
+	private int probe(K key) {
+		final int lengthMask = table.length - 1;
+		final int hash = translator.getHash(key);
+		final int initIndex = hash & lengthMask;
+		
+		int emptyIndex = -1;
+		long addr = table[initIndex];
+		if (addr == EMPTY)
+			return ~initIndex;
+		else if (addr == TOMBSTONE)
+			emptyIndex = initIndex;
+		else if (keyMatches(key, hash, addr))
+			return initIndex;
+		
+		int increment = Math.max((hash >>> lengthBits) & lengthMask, 1);
+		int index = (initIndex + increment) & lengthMask;
+		int start = index;
+		while (true) {
+			addr = table[index];
+			if (addr == EMPTY) {
+				if (emptyIndex != -1)
+					return ~emptyIndex;
+				else
+					return ~index;
+			} else if (addr == TOMBSTONE) {
+				if (emptyIndex == -1)
+					emptyIndex = index;
+			} else if (keyMatches(key, hash, addr))
+				return index;
+			index = (index + 1) & lengthMask;
+			if (index == start)
+				throw new AssertionError();
+		}
+	}
+	
+	
+	private boolean keyMatches(K key, int hash, long addr) {
+		return slabs[(int)(addr >>> 32)].getInt((int)addr) == hash
+			&& translator.keyEquals(key, readPacked(addr));
+	}
+	
+	
+	private void incrementSize() {
+		size++;
+		if (table.length < MAX_TABLE_LEN && (double)filled / table.length > loadFactor) {  // Refresh or expand hash table
+			int newLen = table.length;
+			while (newLen < MAX_TABLE_LEN && (double)size / newLen > loadFactor)
+				newLen *= 2;
+			resize(newLen);
+		}
+	}
+	
+	
+	private void decrementSize() {
+		size--;
+		int newLen = table.length;
+		while (newLen >= 2 && (double)size / newLen < loadFactor / 4 && size < newLen / 2)
+			newLen /= 2;
+		if (newLen < table.length)
+			resize(newLen);
+	}
+	
+	
+	// Moves the addresses into a new table, using the stored hashes so that no keys are deserialized.
+	private void resize(int newLen) {
+		if (newLen <= size)
+			throw new AssertionError();
+		long[] oldTable = table;
+		table = new long[newLen];
+		Arrays.fill(table, EMPTY);
+		lengthBits = Integer.bitCount(newLen - 1);
+		filled = size;
+		if (oldTable == null)
+			return;
+		
+		final int lengthMask = newLen - 1;
+		for (long addr : oldTable) {
+			if (addr != EMPTY && addr != TOMBSTONE) {
+				int hash = slabs[(int)(addr >>> 32)].getInt((int)addr);
+				int index = hash & lengthMask;
+				if (table[index] != EMPTY) {
+					// Same probe sequence as probe(), in a table that has no tombstones
+					index = (index + Math.max((hash >>> lengthBits) & lengthMask, 1)) & lengthMask;
+					while (table[index] != EMPTY)
+						index = (index + 1) & lengthMask;
+				}
+				table[index] = addr;
+			}
+		}
+	}
+	
+	
+	// Returns a copy of the packed bytes of the record at the given address.
+	private byte[] readPacked(long addr) {
+		ByteBuffer slab = slabs[(int)(addr >>> 32)].duplicate();
+		int off = (int)addr;
+		byte[] result = new byte[slab.getInt(off + 4)];
+		slab.position(off + RECORD_HEADER_LEN);
+		slab.get(result);
+		return result;
+	}
+	
+	
+	// Writes a new record with the given hash and packed bytes, and returns its address.
+	private long appendRecord(int hash, byte[] packed) {
+		if (packed.length > Integer.MAX_VALUE - RECORD_HEADER_LEN)
+			throw new IllegalArgumentException("Packed entry too long");
+		long addr = allocateRecord(RECORD_HEADER_LEN + packed.length);
+		ByteBuffer slab = slabs[(int)(addr >>> 32)].duplicate();
+		slab.position((int)addr);
+		slab.putInt(hash);
+		slab.putInt(packed.length);
+		slab.put(packed);
+		return addr;
+	}
+	
+	
+	// Reserves the given number of bytes at the end of the last slab (starting a new slab if needed),
+	// counts them as live, and returns their address.
+	private long allocateRecord(int len) {
+		if (numSlabs == 0 || slabs[numSlabs - 1].capacity() - slabUsed < len) {
+			if (numSlabs > 0)
+				deadBytes += slabs[numSlabs - 1].capacity() - slabUsed;
+			if (numSlabs == slabs.length)
+				slabs = Arrays.copyOf(slabs, numSlabs * 2);
+			slabs[numSlabs] = ByteBuffer.allocateDirect(Math.max(len, slabSize));
+			numSlabs++;
+			slabUsed = 0;
+		}
+		long addr = (long)(numSlabs - 1) << 32 | slabUsed;
+		slabUsed += len;
+		liveBytes += len;
+		return addr;
+	}
+	
+	
+	// Accounts for the record at the given address no longer being referenced.
+	private void killRecord(long addr) {
+		int len = RECORD_HEADER_LEN + slabs[(int)(addr >>> 32)].getInt((int)addr + 4);
+		liveBytes -= len;
+		deadBytes += len;
+	}
+	
+	
+	private void compactIfWasteful() {
+		if (deadBytes > liveBytes && deadBytes >= slabSize)
+			compact();
+	}
+	
+	
+	/* Advanced methods */
+	
+	// Note: The returned entry set's iterator supports {@code remove()}, and the returned map
+	// entries support {@code setValue()}, but no other modifications during iteration.
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new EntrySet();
+	}
+	
+	
+	// For unit tests.
+	void checkStructure() {
+		if (translator == null || table == null || Integer.bitCount(table.length) != 1 || lengthBits != Integer.bitCount(table.length - 1))
+			throw new AssertionError();
+		if (!(0 <= size && size <= filled && filled < table.length) || loadFactor <= 0 || loadFactor >= 1 || Double.isNaN(loadFactor))
+			throw new AssertionError();
+		if (table.length < MAX_TABLE_LEN && (double)filled / table.length > loadFactor)
+			throw new AssertionError();
+		
+		int count = 0;
+		int occupied = 0;
+		long bytes = 0;
+		boolean hasNull = false;
+		for (int i = 0; i < table.length; i++) {
+			long addr = table[i];
+			hasNull |= addr == EMPTY;
+			if (addr != EMPTY) {
+				occupied++;
+				if (addr != TOMBSTONE) {
+					count++;
+					byte[] packed = readPacked(addr);
+					bytes += RECORD_HEADER_LEN + packed.length;
+					K key = translator.deserializeKey(packed);
+					if (slabs[(int)(addr >>> 32)].getInt((int)addr) != translator.getHash(key) || probe(key) != i)
+						throw new AssertionError();
+				}
+			}
+		}
+		if (!hasNull || count != size || occupied != filled || bytes != liveBytes)
+			throw new AssertionError();
+		long total = 0;
+		for (int i = 0; i < numSlabs - 1; i++)
+			total += slabs[i].capacity();
+		if (numSlabs > 0)
+			total += slabUsed;
+		if (liveBytes + deadBytes != total)
+			throw new AssertionError();
+	}
+	
+	
+	// Special table values, which are not valid addresses because slab indexes are non-negative.
+	private static final long EMPTY = -1;
+	private static final long TOMBSTONE = -2;
+	
+	private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+	
+	private static final int RECORD_HEADER_LEN = 8;
+	private static final int DEFAULT_SLAB_SIZE = 1 << 24;
+	
+	
+	
+	/* Helper classes */
+	
+	// For the entrySet() method.
+	private class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		
+		public int size() {
+			return size;
+		}
+		
+		
+		public boolean contains(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				throw new NullPointerException();
+			@SuppressWarnings("unchecked")
+			Map.Entry<K,V> entry = (Map.Entry<K,V>)obj;
+			K key = entry.getKey();
+			if (key == null)
+				throw new NullPointerException();
+			if (!OffHeapCompactHashMap.this.containsKey(key))
+				return false;
+			V val0 = entry.getValue();
+			V val1 = OffHeapCompactHashMap.this.get(key);
+			return val0 == null && val1 == null || val0 != null && val0.equals(val1);
+		}
+		
+		
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new Iter();
+		}
+		
+		
+		private class Iter implements Iterator<Map.Entry<K,V>>, Map.Entry<K,V> {
+			
+			private final int myVersion;
+			private int currentIndex;
+			private int nextIndex;
+			private K key;    // Set by next()
+			private V value;  // Set by next()
+			
+			
+			public Iter() {
+				myVersion = version;
+				currentIndex = -1;
+				nextIndex = 0;
+			}
+			
+			
+			// Iterator methods
+			
+			public boolean hasNext() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				while (true) {
+					if (nextIndex >= table.length)
+						return false;
+					else if (table[nextIndex] != EMPTY && table[nextIndex] != TOMBSTONE)
+						return true;
+					else
+						nextIndex++;
+				}
+			}
+			
+			
+			public Map.Entry<K,V> next() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (!hasNext())
+					throw new NoSuchElementException();
+				currentIndex = nextIndex;
+				byte[] packed = readPacked(table[currentIndex]);
+				key = translator.deserializeKey(packed);
+				value = translator.deserializeValue(packed);
+				nextIndex++;
+				return this;
+			}
+			
+			
+			public void remove() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (currentIndex == -1 || table[currentIndex] == TOMBSTONE)
+					throw new IllegalStateException();
+				killRecord(table[currentIndex]);
+				table[currentIndex] = TOMBSTONE;
+				size--;  // Note: Do not use decrementSize() because a table resize will screw up the iterator's indexing
+				compactIfWasteful();  // Safe because compaction does not move table slots
+			}
+			
+			
+			// Map.Entry methods
+			
+			public K getKey() {
+				return key;
+			}
+			
+			public V getValue() {
+				return value;
+			}
+			
+			
+			public V setValue(V value) {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (currentIndex == -1 || table[currentIndex] == TOMBSTONE)
+					throw new IllegalStateException();
+				long addr = table[currentIndex];
+				byte[] packed = readPacked(addr);
+				table[currentIndex] = appendRecord(slabs[(int)(addr >>> 32)].getInt((int)addr), translator.serialize(translator.deserializeKey(packed), value));
+				killRecord(addr);
+				compactIfWasteful();
+				this.value = value;
+				return translator.deserializeValue(packed);
+			}
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,501 @@
+/* 
+ * Compact hash map
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * http://www.nayuki.io/page/compact-hash-map-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A hash map like {@link CompactHashMap}, but using Robin Hood linear probing, which keeps probe sequences short
+ * at load factors up to about 0.9. Each slot stores its entry's probe length (1 if the entry is in its home slot)
+ * and an 8-bit fragment of its hash. An insertion displaces any entry that is closer to its home slot than the new
+ * one, and a removal shifts the following entries back by one slot, so no tombstones are ever left behind and
+ * lookups can stop as soon as they pass the place where the key would be.
+ * <p>The distribution of probe lengths is maintained incrementally, and is available for monitoring through
+ * {@link #getProbeLengthHistogram()}, {@link #getAverageProbeLength()}, and {@link #getMaxProbeLength()}.</p>
+ * <p>The table only grows according to the load factor. Probe lengths longer than 255 (which happen only when many keys
+ * have nearly equal hashes, so growing would not help) are still handled correctly, but each slot beyond that point
+ * costs a key deserialization to recover its exact probe length.</p>
+ */
+public final class RobinHoodCompactHashMap<K,V> extends AbstractMap<K,V> {
+	
+	/* Fields */
+	
+	private byte[][] table;     // Length is always a power of 2. Each element is either null or data. At least one element must be null.
+	private byte[] distances;   // Same length as table. 0 for an empty slot, otherwise the probe length of the entry capped at MAX_PROBE_LEN.
+	private byte[] fragments;   // Same length as table. For each data element, the top 8 bits of its key's hash; otherwise unspecified.
+	private int size;           // Number of items stored in hash table; 0 <= size < table.length
+	private int version;
+	private final double loadFactor;  // 0 < loadFactor <= MAX_LOAD_FACTOR
+	private final CompactMapTranslator<K,V> translator;
+	private int[] probeLengthCounts;  // probeLengthCounts[d] is the number of entries with probe length d (or at least d, for the last element)
+	
+	
+	
+	/* Constructors */
+	
+	public RobinHoodCompactHashMap(CompactMapTranslator<K,V> trans) {
+		this(trans, DEFAULT_LOAD_FACTOR);
+	}
+	
+	
+	public RobinHoodCompactHashMap(CompactMapTranslator<K,V> trans, double loadFactor) {
+		if (trans == null)
+			throw new NullPointerException();
+		if (!(loadFactor > 0 && loadFactor <= MAX_LOAD_FACTOR))
+			throw new IllegalArgumentException("Invalid load factor");
+		this.translator = trans;
+		this.loadFactor = loadFactor;
+		version = -1;
+		clear();
+	}
+	
+	
+	
+	/* Basic methods */
+	
+	public void clear() {
+		size = 0;
+		table = null;
+		version++;
+		resize(1);
+	}
+	
+	
+	public int size() {
+		return size;
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return false;
+		K k = (K)key;
+		return find(k, translator.getHash(k)) >= 0;
+	}
+	
+	
+	public V get(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		K k = (K)key;
+		int index = find(k, translator.getHash(k));
+		if (index >= 0)
+			return translator.deserializeValue(table[index]);
+		else
+			return null;
+	}
+	
+	
+	public V put(K key, V value) {
+		if (key == null)
+			throw new NullPointerException();
+		version++;
+		int hash = translator.getHash(key);
+		int index = find(key, hash);
+		if (index >= 0) {
+			V result = translator.deserializeValue(table[index]);
+			table[index] = translator.serialize(key, value);
+			return result;
+		}
+		if (size == MAX_TABLE_LEN - 1)  // Because table.length is a power of 2, and at least one slot must be free
+			throw new IllegalStateException("Maximum size reached");
+		if (table.length < MAX_TABLE_LEN && size + 1 > table.length * loadFactor)
+			resize(table.length * 2);
+		insert(translator.serialize(key, value), hash);
+		size++;
+		return null;
+	}
+	
+	
+	public V remove(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		if (!translator.isKeyInstance(key))
+			return null;
+		@SuppressWarnings("unchecked")
+		K k = (K)key;
+		int index = find(k, translator.getHash(k));
+		if (index >= 0) {
+			V result = translator.deserializeValue(table[index]);
+			version++;
+			removeAt(index);
+			int newLen = table.length;
+			while (newLen >= 2 && size < newLen * loadFactor / 4)
+				newLen /= 2;
+			if (newLen < table.length)
+				resize(newLen);
+			return result;
+		} else
+			return null;
+	}
+	
+	
+	/**
+	 * Returns the number of entries for each probe length, where element {@code i} of the returned array counts
+	 * the entries that a successful lookup finds after examining {@code i} slots. Element 0 is always 0,
+	 * and the last element (255) counts all the entries with a probe length of 255 or more.
+	 * @return a new array of counts, whose sum is the size of this map
+	 */
+	public int[] getProbeLengthHistogram() {
+		return probeLengthCounts.clone();
+	}
+	
+	
+	/**
+	 * Returns the mean number of slots that a successful lookup examines, over all entries in this map,
+	 * where probe lengths above 255 are counted as 255.
+	 * @return the average probe length, or 0 if the map is empty
+	 */
+	public double getAverageProbeLength() {
+		if (size == 0)
+			return 0;
+		long sum = 0;
+		for (int i = 1; i < probeLengthCounts.length; i++)
+			sum += (long)i * probeLengthCounts[i];
+		return (double)sum / size;
+	}
+	
+	
+	/**
+	 * Returns the largest number of slots that a successful lookup examines, over all entries in this map.
+	 * An unsuccessful lookup examines at most one more slot than this.
+	 * @return the maximum probe length, or 0 if the map is empty
+	 */
+	public int getMaxProbeLength() {
+		int i = MAX_PROBE_LEN;
+		if (probeLengthCounts[i] > 0) {  // Rare: find the exact maximum among the capped entries
+			for (int j = 0; j < table.length; j++) {
+				if ((distances[j] & 0xFF) == MAX_PROBE_LEN)
+					i = Math.max(getExactDistance(j), i);
+			}
+			return i;
+		}
+		while (i > 0 && probeLengthCounts[i] == 0)
+			i--;
+		return i;
+	}
+	
+	
+	/* Helper methods */
+	
+	// Returns the index of the matching entry, or -1 if the key is absent. The hash must be translator.getHash(key).
+	private int find(K key, int hash) {
+		final int lengthMask = table.length - 1;
+		final byte fragment = (byte)(hash >>> 24);
+		int index = hash & lengthMask;
+		for (int dist = 1; ; dist++) {  // Terminates because at least one slot is empty
+			int d = distances[index] & 0xFF;
+			if (d == MAX_PROBE_LEN && dist >= MAX_PROBE_LEN)
+				d = getExactDistance(index);
+			if (d < dist)  // Empty slot, or an entry closer to its home than the key would be
+				return -1;
+			if (d == dist && fragments[index] == fragment && translator.keyEquals(key, table[index]))
+				return index;
+			index = (index + 1) & lengthMask;
+		}
+	}
+	
+	
+	// Inserts the given packed entry, which must not be present, without changing the size or resizing the table.
+	private void insert(byte[] item, int hash) {
+		final int lengthMask = table.length - 1;
+		byte fragment = (byte)(hash >>> 24);
+		int index = hash & lengthMask;
+		int dist = 1;
+		while (true) {
+			int d = distances[index] & 0xFF;
+			if (d == 0) {
+				setSlot(index, item, fragment, dist);
+				return;
+			}
+			if (d == MAX_PROBE_LEN && dist >= MAX_PROBE_LEN)
+				d = getExactDistance(index);
+			if (d < dist) {  // Take the slot from the richer entry, and carry on inserting that one instead
+				byte[] tempItem = table[index];
+				byte tempFrag = fragments[index];
+				probeLengthCounts[Math.min(d, MAX_PROBE_LEN)]--;
+				setSlot(index, item, fragment, dist);
+				item = tempItem;
+				fragment = tempFrag;
+				dist = d;
+			}
+			index = (index + 1) & lengthMask;
+			dist++;
+		}
+	}
+	
+	
+	private void setSlot(int index, byte[] item, byte fragment, int dist) {
+		table[index] = item;
+		fragments[index] = fragment;
+		dist = Math.min(dist, MAX_PROBE_LEN);
+		distances[index] = (byte)dist;
+		probeLengthCounts[dist]++;
+	}
+	
+	
+	// Returns the uncapped probe length of the entry at the given index, by rehashing its key.
+	private int getExactDistance(int index) {
+		int hash = translator.getHash(translator.deserializeKey(table[index]));
+		return ((index - hash) & (table.length - 1)) + 1;
+	}
+	
+	
+	// Removes the entry at the given index, and shifts back the following entries that are not in their home slots.
+	// Only entries after the index (in increasing order, wrapping around) are moved. Does not resize the table.
+	private void removeAt(int index) {
+		final int lengthMask = table.length - 1;
+		probeLengthCounts[distances[index] & 0xFF]--;
+		while (true) {
+			int next = (index + 1) & lengthMask;
+			int d = distances[next] & 0xFF;
+			if (d <= 1)  // Empty, or already in its home slot
+				break;
+			if (d == MAX_PROBE_LEN)
+				d = getExactDistance(next);
+			table[index] = table[next];
+			fragments[index] = fragments[next];
+			distances[index] = (byte)Math.min(d - 1, MAX_PROBE_LEN);
+			probeLengthCounts[Math.min(d, MAX_PROBE_LEN)]--;
+			probeLengthCounts[Math.min(d - 1, MAX_PROBE_LEN)]++;
+			index = next;
+		}
+		table[index] = null;
+		distances[index] = 0;
+		size--;
+	}
+	
+	
+	private void resize(int newLen) {
+		if (newLen <= size || newLen > MAX_TABLE_LEN)
+			throw new AssertionError();
+		byte[][] oldTable = table;
+		table = new byte[newLen][];
+		distances = new byte[newLen];
+		fragments = new byte[newLen];
+		probeLengthCounts = new int[MAX_PROBE_LEN + 1];
+		if (oldTable == null)
+			return;
+		
+		for (byte[] item : oldTable) {
+			if (item != null)
+				insert(item, translator.getHash(translator.deserializeKey(item)));
+		}
+	}
+	
+	
+	/* Advanced methods */
+	
+	// Note: The returned entry set's iterator supports {@code remove()}, and the returned map
+	// entries support {@code setValue()}, but no other modifications during iteration.
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new EntrySet();
+	}
+	
+	
+	// For unit tests.
+	void checkStructure() {
+		if (translator == null || table == null || Integer.bitCount(table.length) != 1)
+			throw new AssertionError();
+		if (distances == null || distances.length != table.length || fragments == null || fragments.length != table.length)
+			throw new AssertionError();
+		if (!(0 <= size && size < table.length) || !(loadFactor > 0 && loadFactor <= MAX_LOAD_FACTOR))
+			throw new AssertionError();
+		if (table.length < MAX_TABLE_LEN && size > table.length * loadFactor)
+			throw new AssertionError();
+		
+		final int lengthMask = table.length - 1;
+		int count = 0;
+		boolean hasNull = false;
+		int[] counts = new int[MAX_PROBE_LEN + 1];
+		for (int i = 0; i < table.length; i++) {
+			byte[] item = table[i];
+			int d = distances[i] & 0xFF;
+			hasNull |= item == null;
+			if ((item == null) != (d == 0))
+				throw new AssertionError();
+			if (item != null) {
+				count++;
+				counts[d]++;
+				K key = translator.deserializeKey(item);
+				int hash = translator.getHash(key);
+				int exact = ((i - hash) & lengthMask) + 1;
+				if (d != Math.min(exact, MAX_PROBE_LEN) || fragments[i] != (byte)(hash >>> 24) || find(key, hash) != i)
+					throw new AssertionError();
+				int next = (i + 1) & lengthMask;
+				if (table[next] != null && getExactDistance(next) > exact + 1)  // Robin Hood invariant
+					throw new AssertionError();
+			}
+		}
+		if (!hasNull || count != size || !Arrays.equals(counts, probeLengthCounts))
+			throw new AssertionError();
+	}
+	
+	
+	private static final int MAX_TABLE_LEN = 0x40000000;  // Largest power of 2 that fits in an int
+	
+	private static final int MAX_PROBE_LEN = 255;  // Largest stored probe length, which is the largest value of an unsigned byte
+	
+	private static final double DEFAULT_LOAD_FACTOR = 0.875;
+	private static final double MAX_LOAD_FACTOR = 0.95;
+	
+	
+	
+	/* Helper classes */
+	
+	// For the entrySet() method.
+	private class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		
+		public int size() {
+			return size;
+		}
+		
+		
+		public boolean contains(Object obj) {
+			if (!(obj instanceof Map.Entry))
+				throw new NullPointerException();
+			@SuppressWarnings("unchecked")
+			Map.Entry<K,V> entry = (Map.Entry<K,V>)obj;
+			K key = entry.getKey();
+			if (key == null)
+				throw new NullPointerException();
+			if (!RobinHoodCompactHashMap.this.containsKey(key))
+				return false;
+			V val0 = entry.getValue();
+			V val1 = RobinHoodCompactHashMap.this.get(key);
+			return val0 == null && val1 == null || val0 != null && val0.equals(val1);
+		}
+		
+		
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new Iter();
+		}
+		
+		
+		// Visits the slots in increasing order (wrapping around), starting just after an empty slot. Because a removal
+		// only shifts entries backward within a run of non-empty slots, an entry never moves across the starting point,
+		// so after removing the current entry the iterator simply looks at the same slot again.
+		private class Iter implements Iterator<Map.Entry<K,V>>, Map.Entry<K,V> {
+			
+			private final int myVersion;
+			private final int start;  // Index of a slot that was empty when the iterator was created
+			private int currentOffset;  // Relative to start, or -1 if next() has not been called or the entry was removed
+			private int nextOffset;
+			private K key;    // Set by next()
+			private V value;  // Set by next()
+			
+			
+			public Iter() {
+				myVersion = version;
+				int i = 0;
+				while (distances[i] != 0)
+					i++;
+				start = i;
+				currentOffset = -1;
+				nextOffset = 1;
+			}
+			
+			
+			// Iterator methods
+			
+			public boolean hasNext() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				while (true) {
+					if (nextOffset >= table.length)
+						return false;
+					else if (table[(start + nextOffset) & (table.length - 1)] != null)
+						return true;
+					else
+						nextOffset++;
+				}
+			}
+			
+			
+			public Map.Entry<K,V> next() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (!hasNext())
+					throw new NoSuchElementException();
+				currentOffset = nextOffset;
+				byte[] item = table[(start + currentOffset) & (table.length - 1)];
+				key = translator.deserializeKey(item);
+				value = translator.deserializeValue(item);
+				nextOffset++;
+				return this;
+			}
+			
+			
+			public void remove() {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (currentOffset == -1)
+					throw new IllegalStateException();
+				removeAt((start + currentOffset) & (table.length - 1));  // Note: Does not resize, which would screw up the iterator's indexing
+				nextOffset = currentOffset;  // A following entry may have shifted into this slot
+				currentOffset = -1;
+			}
+			
+			
+			// Map.Entry methods
+			
+			public K getKey() {
+				return key;
+			}
+			
+			public V getValue() {
+				return value;
+			}
+			
+			
+			public V setValue(V value) {
+				if (myVersion != version)
+					throw new ConcurrentModificationException();
+				if (currentOffset == -1)
+					throw new IllegalStateException();
+				int index = (start + currentOffset) & (table.length - 1);
+				byte[] item = table[index];
+				table[index] = translator.serialize(translator.deserializeKey(item), value);
+				this.value = value;
+				return translator.deserializeValue(item);
+			}
+			
+		}
+		
+	}
+	
+}
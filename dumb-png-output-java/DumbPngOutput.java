@@ -7,6 +7,9 @@
  */
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 
@@ -32,33 +35,16 @@ public final class DumbPngOutput {
 	/**
 	 * Writes the specified RGB24 image to the specified output stream as a PNG file.
 	 * <p>The array has this format: {@code image[y][x] = 0xRRGGBB} (where each color channel uses 8 bits). The array must be rectangular and each dimension must be at least 1.</p>
-	 * <p>This implementation runs out of memory if the number of pixels in the image exceeds about 700 million (but this is not a PNG limitation).</p>
+	 * <p>This implementation runs out of memory if the number of pixels in the image exceeds about 700 million (but this is not a PNG limitation).
+	 * {@link PngWriter} has no such limit.</p>
 	 * @param image the image, represented as an array of rows of pixel values
 	 * @param out the output stream to write the PNG file to
 	 * @throws IOException if an I/O exception occurred
 	 */
 	public static void write(int[][] image, OutputStream out) throws IOException {
-		// PNG header (a pretty clever magic string)
-		out.write(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
-		
-		// IHDR chunk (image dimensions, color depth, compression method, etc.)
 		int width = image[0].length;
 		int height = image.length;
-		byte[] ihdr = new byte[13];
-		ihdr[ 0] = (byte)(width >>> 24);  // Big-endian
-		ihdr[ 1] = (byte)(width >>> 16);
-		ihdr[ 2] = (byte)(width >>>  8);
-		ihdr[ 3] = (byte)(width >>>  0);
-		ihdr[ 4] = (byte)(height >>> 24);  // Big-endian
-		ihdr[ 5] = (byte)(height >>> 16);
-		ihdr[ 6] = (byte)(height >>>  8);
-		ihdr[ 7] = (byte)(height >>>  0);
-		ihdr[ 8] = 8;  // Bit depth: 8 bits per sample
-		ihdr[ 9] = 2;  // Color type: True color RGB
-		ihdr[10] = 0;  // Compression method: DEFLATE
-		ihdr[11] = 0;  // Filter method: Adaptive
-		ihdr[12] = 0;  // Interlace method: None
-		writeChunk("IHDR", ihdr, out);
+		writeHeader(width, height, out);
 		
 		// IDAT chunk (pixel values and row filters)
 		// Note: One additional byte at the beginning of each row specifies the filtering method
@@ -84,6 +70,262 @@ public final class DumbPngOutput {
 	}
 	
 	
+	/**
+	 * Writes the specified RGB24 image to the specified output stream as a compressed PNG file, using the default compression level.
+	 * <p>The array has this format: {@code image[y][x] = 0xRRGGBB}. The array must be rectangular and each dimension must be at least 1.</p>
+	 * @param image the image, represented as an array of rows of pixel values
+	 * @param out the output stream to write the PNG file to
+	 * @throws IOException if an I/O exception occurred
+	 * @see #writeCompressed(int, int, RowSource, int, OutputStream)
+	 */
+	public static void writeCompressed(final int[][] image, OutputStream out) throws IOException {
+		final int width = image[0].length;
+		writeCompressed(width, image.length, new RowSource() {
+			public void getRow(int y, int[] row) {
+				if (image[y].length != width)
+					throw new IllegalArgumentException("Image is not rectangular");
+				System.arraycopy(image[y], 0, row, 0, width);
+			}
+		}, Deflater.DEFAULT_COMPRESSION, out);
+	}
+	
+	
+	/**
+	 * Writes an RGB24 image, whose rows are requested one at a time from the specified source, to the specified output stream as a compressed PNG file.
+	 * <p>Each row is filtered with whichever of the five PNG filter types gives the smallest sum of absolute filtered values, and the filtered data is
+	 * compressed with DEFLATE. The rows are divided into bands that are filtered and compressed independently on all processors, then concatenated in
+	 * order (each band ends with a sync flush), so the output is a single valid zlib stream spread over several IDAT chunks. The source is only called
+	 * on the caller's thread, in increasing order of y. Memory usage is proportional to the width times the number of processors, not the image size.</p>
+	 * @param width the width of the image, at least 1
+	 * @param height the height of the image, at least 1
+	 * @param source the source of pixel rows
+	 * @param level the DEFLATE compression level, in the range [0, 9] or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param out the output stream to write the PNG file to
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public static void writeCompressed(int width, int height, RowSource source, int level, OutputStream out) throws IOException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid dimensions");
+		if (width > (Integer.MAX_VALUE - 1) / 3)
+			throw new IllegalArgumentException("Dimensions too large");
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level");
+		writeHeader(width, height, out);
+		
+		// IDAT chunks (one per band)
+		int threads = Runtime.getRuntime().availableProcessors();
+		int rowsPerBand = Math.max(BAND_SIZE / (width * 3 + 1), 1);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			Queue<Future<byte[][]>> pending = new ArrayDeque<Future<byte[][]>>();
+			Adler32 adler = new Adler32();
+			int[] prevRow = null;
+			for (int y = 0; y < height; ) {
+				int[][] rows = new int[Math.min(rowsPerBand, height - y)][width];
+				for (int i = 0; i < rows.length; i++, y++)
+					source.getRow(y, rows[i]);
+				pending.add(workers.submit(new BandTask(prevRow, rows, level, prevRow == null, y == height)));
+				prevRow = rows[rows.length - 1];
+				
+				// Limit the number of bands held in memory
+				while (pending.size() > threads * 2 || !pending.isEmpty() && (pending.peek().isDone() || y == height))
+					writeBand(getResult(pending.remove()), adler, pending.isEmpty() && y == height, out);
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		// IEND chunk (no payload)
+		writeChunk("IEND", new byte[0], out);
+	}
+	
+	
+	// Writes the given compressed band as an IDAT chunk, appending the zlib trailer if this is the last band.
+	private static void writeBand(byte[][] band, Adler32 adler, boolean last, OutputStream out) throws IOException {
+		adler.update(band[0]);
+		byte[] data = band[1];
+		if (last) {
+			ByteArrayOutputStream b = new ByteArrayOutputStream(data.length + 4);
+			b.write(data);
+			writeInt32((int)adler.getValue(), b);
+			data = b.toByteArray();
+		}
+		writeChunk("IDAT", data, out);
+	}
+	
+	
+	// Returns the result of the given task, rethrowing its exception if it failed.
+	private static <T> T getResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if (cause instanceof Error)
+				throw (Error)cause;
+			else
+				throw new IOException(cause);
+		}
+	}
+	
+	
+	private static final int BAND_SIZE = 1 << 20;  // Approximate number of uncompressed bytes per band
+	
+	
+	/**
+	 * Supplies the rows of an image to {@link DumbPngOutput#writeCompressed(int, int, RowSource, int, OutputStream)}.
+	 */
+	public interface RowSource {
+		
+		/**
+		 * Fills the specified array with the pixels of the specified row, in the format {@code row[x] = 0xRRGGBB}.
+		 * @param y the row index, from 0 (top) to height - 1
+		 * @param row the array to fill, whose length equals the image width
+		 */
+		public void getRow(int y, int[] row);
+		
+	}
+	
+	
+	// Filters and compresses a band of rows, returning {filtered data, DEFLATE data}. The DEFLATE data
+	// ends with a sync flush, or with the final block if this is the last band. The first band also
+	// has the zlib header.
+	private static final class BandTask implements Callable<byte[][]> {
+		
+		private final int[] prevRow;  // Null for the top row of the image
+		private final int[][] rows;
+		private final int level;
+		private final boolean first;
+		private final boolean last;
+		
+		
+		public BandTask(int[] prevRow, int[][] rows, int level, boolean first, boolean last) {
+			this.prevRow = prevRow;
+			this.rows = rows;
+			this.level = level;
+			this.first = first;
+			this.last = last;
+		}
+		
+		
+		public byte[][] call() {
+			// Filter each row
+			int rowSize = rows[0].length * 3;
+			byte[] filtered = new byte[(rowSize + 1) * rows.length];
+			byte[] prev = new byte[rowSize];  // All zeros above the top row
+			byte[] cur = new byte[rowSize];
+			if (prevRow != null)
+				toBytes(prevRow, prev);
+			byte[][] candidates = new byte[5][rowSize];
+			for (int y = 0; y < rows.length; y++) {
+				toBytes(rows[y], cur);
+				int best = filterRow(cur, prev, candidates);
+				filtered[y * (rowSize + 1)] = (byte)best;
+				System.arraycopy(candidates[best], 0, filtered, y * (rowSize + 1) + 1, rowSize);
+				byte[] temp = prev;
+				prev = cur;
+				cur = temp;
+			}
+			
+			// Compress the band on its own
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			if (first) {
+				b.write(0x78);  // Compression method: DEFLATE; window size: 32 KiB
+				b.write(0x9C);  // Flag checksum, no preset dictionary, default compression level
+			}
+			Deflater def = new Deflater(level, true);
+			try {
+				def.setInput(filtered);
+				if (last)
+					def.finish();
+				byte[] buf = new byte[16384];
+				while (true) {
+					int n = def.deflate(buf, 0, buf.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+					b.write(buf, 0, n);
+					if (last ? def.finished() : n < buf.length)
+						break;
+				}
+			} finally {
+				def.end();
+			}
+			return new byte[][]{filtered, b.toByteArray()};
+		}
+		
+	}
+	
+	
+	// Converts the given RGB24 pixels to bytes.
+	static void toBytes(int[] row, byte[] result) {
+		for (int x = 0; x < row.length; x++) {
+			int color = row[x];
+			result[x * 3 + 0] = (byte)(color >>> 16);
+			result[x * 3 + 1] = (byte)(color >>>  8);
+			result[x * 3 + 2] = (byte)(color >>>  0);
+		}
+	}
+	
+	
+	// Fills candidates[t] with the given row filtered by type t (None, Sub, Up, Average, Paeth),
+	// and returns the type whose result has the smallest sum of absolute values as signed bytes.
+	static int filterRow(byte[] cur, byte[] prev, byte[][] candidates) {
+		for (int i = 0; i < cur.length; i++) {
+			int x = cur[i] & 0xFF;
+			int a = i >= 3 ? cur[i - 3] & 0xFF : 0;  // Left
+			int b = prev[i] & 0xFF;  // Up
+			int c = i >= 3 ? prev[i - 3] & 0xFF : 0;  // Up-left
+			int p = a + b - c;
+			int pa = Math.abs(p - a);
+			int pb = Math.abs(p - b);
+			int pc = Math.abs(p - c);
+			int paeth = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			candidates[0][i] = (byte)x;
+			candidates[1][i] = (byte)(x - a);
+			candidates[2][i] = (byte)(x - b);
+			candidates[3][i] = (byte)(x - ((a + b) >>> 1));
+			candidates[4][i] = (byte)(x - paeth);
+		}
+		int best = 0;
+		long bestSum = Long.MAX_VALUE;
+		for (int t = 0; t < candidates.length; t++) {
+			long sum = 0;
+			for (byte v : candidates[t])
+				sum += Math.abs(v);
+			if (sum < bestSum) {
+				best = t;
+				bestSum = sum;
+			}
+		}
+		return best;
+	}
+	
+	
+	// Writes the PNG signature and IHDR chunk for an RGB24 image of the given size.
+	static void writeHeader(int width, int height, OutputStream out) throws IOException {
+		// PNG header (a pretty clever magic string)
+		out.write(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+		
+		// IHDR chunk (image dimensions, color depth, compression method, etc.)
+		byte[] ihdr = new byte[13];
+		ihdr[ 0] = (byte)(width >>> 24);  // Big-endian
+		ihdr[ 1] = (byte)(width >>> 16);
+		ihdr[ 2] = (byte)(width >>>  8);
+		ihdr[ 3] = (byte)(width >>>  0);
+		ihdr[ 4] = (byte)(height >>> 24);  // Big-endian
+		ihdr[ 5] = (byte)(height >>> 16);
+		ihdr[ 6] = (byte)(height >>>  8);
+		ihdr[ 7] = (byte)(height >>>  0);
+		ihdr[ 8] = 8;  // Bit depth: 8 bits per sample
+		ihdr[ 9] = 2;  // Color type: True color RGB
+		ihdr[10] = 0;  // Compression method: DEFLATE
+		ihdr[11] = 0;  // Filter method: Adaptive
+		ihdr[12] = 0;  // Interlace method: None
+		writeChunk("IHDR", ihdr, out);
+	}
+	
+	
 	// Returns the result of compressing the given byte string using DEFLATE and wrapping it in a zlib container.
 	// In this implementation, no compression is performed; only DEFLATE verbatim blocks are used.
 	private static byte[] deflate(byte[] data) throws IOException {
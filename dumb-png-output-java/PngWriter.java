@@ -0,0 +1,214 @@
+/* 
+ * Dumb PNG Output
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/dumb-png-output-java
+ */
+
+import java.io.*;
+import java.util.zip.*;
+
+
+/**
+ * Writes an RGB24 PNG file incrementally, with pixels supplied in raster order in spans of any length
+ * (like the C library Tiny PNG Output). Memory usage is proportional to the image width, not the number
+ * of pixels, so images of any height can be generated and written on the fly.
+ * <p>Each row is filtered adaptively as in {@link DumbPngOutput#writeCompressed(int, int, DumbPngOutput.RowSource, int, OutputStream)}
+ * and compressed by a single {@link Deflater}. The CRC-32 of each chunk and the Adler-32 of the zlib stream are updated as data is written,
+ * and the compressed data is emitted in IDAT chunks of at most 64 KiB. When the last pixel has been written, the IEND chunk is written
+ * automatically and the writer becomes done. The underlying output stream is never closed by this class.</p>
+ * <p>Example usage:</p>
+ * <pre>PngWriter png = new PngWriter(out, width, height);
+ *for (int y = 0; y &lt; height; y++) {
+ *    ... (fill row) ...
+ *    png.write(row, 0, width);
+ *}</pre>
+ */
+public final class PngWriter {
+	
+	/* Fields */
+	
+	private final OutputStream output;
+	private final int width;   // Measured in pixels
+	private final int height;  // Measured in pixels
+	private int positionX;     // Measured in pixels
+	private int positionY;     // Measured in pixels
+	
+	// The row being filled, the previous row, and the filtered versions of the current row
+	private byte[] curRow;
+	private byte[] prevRow;
+	private final byte[][] candidates;
+	
+	private Deflater deflater;  // Null when done
+	private final Adler32 adler;
+	private final byte[] chunk;  // Buffer of pending IDAT data, always with room to spare
+	private int chunkLength;
+	
+	
+	
+	/* Constructors */
+	
+	/**
+	 * Writes the PNG header to the specified output stream and prepares to receive pixels, using the default compression level.
+	 * @param out the output stream to write the PNG file to
+	 * @param width the width of the image, at least 1
+	 * @param height the height of the image, at least 1
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public PngWriter(OutputStream out, int width, int height) throws IOException {
+		this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	
+	/**
+	 * Writes the PNG header to the specified output stream and prepares to receive pixels.
+	 * @param out the output stream to write the PNG file to
+	 * @param width the width of the image, at least 1
+	 * @param height the height of the image, at least 1
+	 * @param level the DEFLATE compression level, in the range [0, 9] or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public PngWriter(OutputStream out, int width, int height, int level) throws IOException {
+		if (out == null)
+			throw new NullPointerException();
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid dimensions");
+		if (width > (Integer.MAX_VALUE - 1) / 3)
+			throw new IllegalArgumentException("Dimensions too large");
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level");
+		output = out;
+		this.width = width;
+		this.height = height;
+		positionX = 0;
+		positionY = 0;
+		
+		curRow = new byte[width * 3];
+		prevRow = new byte[width * 3];  // All zeros above the top row
+		candidates = new byte[5][width * 3];
+		
+		deflater = new Deflater(level, true);
+		adler = new Adler32();
+		chunk = new byte[CHUNK_SIZE];
+		chunk[0] = 0x78;  // Compression method: DEFLATE; window size: 32 KiB
+		chunk[1] = (byte)0x9C;  // Flag checksum, no preset dictionary, default compression level
+		chunkLength = 2;
+		DumbPngOutput.writeHeader(width, height, out);
+	}
+	
+	
+	
+	/* Methods */
+	
+	/**
+	 * Writes the specified pixels, which continue from where the previous call left off (left to right, then top to bottom).
+	 * A span may end in the middle of a row or cover several rows. It is an error to write more pixels in total than width * height.
+	 * @param pixels the array of pixels in the format {@code 0xRRGGBB}
+	 * @param off the index of the first pixel to write
+	 * @param len the number of pixels to write
+	 * @throws IOException if an I/O exception occurred
+	 * @throws IllegalStateException if the span goes past the end of the image
+	 */
+	public void write(int[] pixels, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > pixels.length - len)
+			throw new IndexOutOfBoundsException();
+		if (len > (long)(height - positionY) * width - positionX)
+			throw new IllegalStateException("Too many pixels");
+		while (len > 0) {
+			int n = Math.min(width - positionX, len);
+			for (int i = 0; i < n; i++) {
+				int color = pixels[off + i];
+				int j = (positionX + i) * 3;
+				curRow[j + 0] = (byte)(color >>> 16);  // Red
+				curRow[j + 1] = (byte)(color >>>  8);  // Green
+				curRow[j + 2] = (byte)(color >>>  0);  // Blue
+			}
+			off += n;
+			len -= n;
+			positionX += n;
+			if (positionX == width)
+				finishRow();
+		}
+	}
+	
+	
+	/**
+	 * Tests whether all the pixels have been written, which also means that the PNG file is complete.
+	 * @return whether this writer is done
+	 */
+	public boolean isDone() {
+		return deflater == null;
+	}
+	
+	
+	// Filters and compresses the completed current row, and finishes the file after the last row.
+	private void finishRow() throws IOException {
+		int filter = DumbPngOutput.filterRow(curRow, prevRow, candidates);
+		byte[] b = {(byte)filter};
+		adler.update(b);
+		adler.update(candidates[filter]);
+		deflater.setInput(b);
+		compress();
+		deflater.setInput(candidates[filter]);
+		compress();
+		
+		byte[] temp = prevRow;
+		prevRow = curRow;
+		curRow = temp;
+		positionX = 0;
+		positionY++;
+		
+		if (positionY == height) {
+			deflater.finish();
+			compress();
+			deflater.end();
+			deflater = null;
+			int checksum = (int)adler.getValue();
+			for (int i = 24; i >= 0; i -= 8) {
+				chunk[chunkLength] = (byte)(checksum >>> i);
+				chunkLength++;
+			}
+			writeChunk("IDAT");
+			writeChunk("IEND");
+		}
+	}
+	
+	
+	// Runs the deflater until it needs more input (or has finished), emitting an IDAT chunk whenever the buffer
+	// is nearly full. The last 4 bytes of the buffer are never filled here, so that the Adler-32 always fits.
+	private void compress() throws IOException {
+		while (true) {
+			chunkLength += deflater.deflate(chunk, chunkLength, chunk.length - 4 - chunkLength);
+			if (chunkLength == chunk.length - 4)
+				writeChunk("IDAT");
+			else if (deflater.finished() || deflater.needsInput())
+				break;
+		}
+	}
+	
+	
+	// Writes the buffered data as a chunk of the given type, and empties the buffer.
+	private void writeChunk(String type) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 c = new CRC32();
+		c.update(typeBytes);
+		c.update(chunk, 0, chunkLength);
+		
+		writeInt32(chunkLength);               // Length
+		output.write(typeBytes);               // Type
+		output.write(chunk, 0, chunkLength);   // Data
+		writeInt32((int)c.getValue());         // CRC-32
+		chunkLength = 0;
+	}
+	
+	
+	// Writes the given 32-bit integer to the output stream as bytes in big-endian.
+	private void writeInt32(int x) throws IOException {
+		output.write(new byte[]{(byte)(x >>> 24), (byte)(x >>> 16), (byte)(x >>> 8), (byte)(x >>> 0)});
+	}
+	
+	
+	private static final int CHUNK_SIZE = 65536;  // Maximum IDAT payload length
+	
+}
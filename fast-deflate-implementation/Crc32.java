@@ -0,0 +1,115 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+
+/* 
+ * The CRC-32 used by GZIP, PNG, and ZIP (reflected polynomial 0xEDB88320, initial value and final XOR 0xFFFFFFFF).
+ * The main loop uses slicing-by-16: 16 input bytes are folded into the register with 16 table lookups and no
+ * per-byte dependency chain. combine() merges the CRCs of two adjacent pieces of data in O(log n) time, so that
+ * pieces can be checksummed independently (e.g. in parallel) and then merged.
+ */
+public final class Crc32 {
+	
+	/* Public functions */
+	
+	// Returns the CRC-32 of the given data appended to data whose CRC-32 is 'crc'. Use crc = 0 to start.
+	public static int update(int crc, byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || b.length - off < len)
+			throw new IndexOutOfBoundsException();
+		int[] t = TABLE;
+		int c = ~crc;
+		int end = off + len;
+		
+		// Slicing-by-16
+		for (; end - off >= 16; off += 16) {
+			int x = c ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | b[off + 3] << 24);
+			c = t[15 * 256 + (x & 0xFF)] ^ t[14 * 256 + (x >>> 8 & 0xFF)] ^ t[13 * 256 + (x >>> 16 & 0xFF)] ^ t[12 * 256 + (x >>> 24)]
+			  ^ t[11 * 256 + (b[off +  4] & 0xFF)] ^ t[10 * 256 + (b[off +  5] & 0xFF)] ^ t[ 9 * 256 + (b[off +  6] & 0xFF)] ^ t[ 8 * 256 + (b[off +  7] & 0xFF)]
+			  ^ t[ 7 * 256 + (b[off +  8] & 0xFF)] ^ t[ 6 * 256 + (b[off +  9] & 0xFF)] ^ t[ 5 * 256 + (b[off + 10] & 0xFF)] ^ t[ 4 * 256 + (b[off + 11] & 0xFF)]
+			  ^ t[ 3 * 256 + (b[off + 12] & 0xFF)] ^ t[ 2 * 256 + (b[off + 13] & 0xFF)] ^ t[ 1 * 256 + (b[off + 14] & 0xFF)] ^ t[ 0 * 256 + (b[off + 15] & 0xFF)];
+		}
+		
+		// Remaining bytes, one at a time
+		for (; off < end; off++)
+			c = (c >>> 8) ^ t[(c ^ b[off]) & 0xFF];
+		return ~c;
+	}
+	
+	
+	// Returns the CRC-32 of the concatenation of data A and data B, given the CRC-32 of each and the length of B in bytes.
+	public static int combine(int crcA, int crcB, long lenB) {
+		if (lenB < 0)
+			throw new IllegalArgumentException("Negative length");
+		// crc(A || B) = crc(A) * x^(8 * lenB) + crc(B) modulo the generator polynomial,
+		// because the initial value and final XOR contributions cancel out
+		return multiplyMod(xPow8n(lenB), crcA) ^ crcB;
+	}
+	
+	
+	
+	/* Polynomial arithmetic over GF(2), in the reflected representation (bit 31 is x^0) */
+	
+	// Returns polynomial x multiplied by polynomial y modulo the generator polynomial.
+	private static int multiplyMod(int x, int y) {
+		int z = 0;
+		for (int i = 31; i >= 0 && x != 0; i--, x <<= 1) {
+			if (x < 0)  // Highest remaining bit (the next lowest power) is set
+				z ^= y;
+			y = (y >>> 1) ^ ((y & 1) * POLYNOMIAL);  // Multiply y by x
+		}
+		return z;
+	}
+	
+	
+	// Returns x^(8n) modulo the generator polynomial.
+	private static int xPow8n(long n) {
+		int z = 1 << 31;  // The polynomial 1
+		for (int k = 3; n != 0; n >>>= 1, k++) {
+			if ((n & 1) != 0)
+				z = multiplyMod(X_POW_2_POW[k & 31], z);
+		}
+		return z;
+	}
+	
+	
+	
+	/* Tables */
+	
+	private static final int POLYNOMIAL = 0xEDB88320;
+	
+	// TABLE[k * 256 + i] is the register after feeding byte i followed by k zero bytes into a zero register
+	private static final int[] TABLE = new int[16 * 256];
+	
+	// X_POW_2_POW[k] = x^(2^k) modulo the generator polynomial. The order of x divides 2^32 - 1, so the sequence has period 32
+	private static final int[] X_POW_2_POW = new int[32];
+	
+	static {
+		for (int i = 0; i < 256; i++) {
+			int reg = i;
+			for (int j = 0; j < 8; j++)
+				reg = (reg >>> 1) ^ ((reg & 1) * POLYNOMIAL);
+			TABLE[i] = reg;
+		}
+		for (int k = 1; k < 16; k++) {
+			for (int i = 0; i < 256; i++) {
+				int prev = TABLE[(k - 1) * 256 + i];
+				TABLE[k * 256 + i] = (prev >>> 8) ^ TABLE[prev & 0xFF];
+			}
+		}
+		
+		int p = 1 << 30;  // The polynomial x
+		for (int k = 0; k < 32; k++) {
+			X_POW_2_POW[k] = p;
+			p = multiplyMod(p, p);
+		}
+	}
+	
+	
+	private Crc32() {}  // Not instantiable
+	
+}
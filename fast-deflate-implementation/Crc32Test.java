@@ -0,0 +1,85 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import static org.junit.Assert.assertEquals;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+
+public final class Crc32Test {
+	
+	@Test
+	public void testKnownValues() {
+		assertEquals(0x00000000, Crc32.update(0, new byte[0], 0, 0));
+		assertEquals(0xCBF43926, Crc32.update(0, "123456789".getBytes(), 0, 9));
+	}
+	
+	
+	@Test
+	public void testRandomAgainstJdk() {
+		for (int i = 0; i < 1000; i++) {
+			byte[] b = new byte[rand.nextInt(1000)];
+			rand.nextBytes(b);
+			int off = rand.nextInt(b.length + 1);
+			int len = rand.nextInt(b.length - off + 1);
+			CRC32 ref = new CRC32();
+			ref.update(b, off, len);
+			assertEquals((int)ref.getValue(), Crc32.update(0, b, off, len));
+		}
+	}
+	
+	
+	@Test
+	public void testIncremental() {
+		byte[] b = new byte[100000];
+		rand.nextBytes(b);
+		CRC32 ref = new CRC32();
+		ref.update(b);
+		int crc = 0;
+		for (int off = 0; off < b.length; ) {
+			int n = Math.min(rand.nextInt(100), b.length - off);
+			crc = Crc32.update(crc, b, off, n);
+			off += n;
+		}
+		assertEquals((int)ref.getValue(), crc);
+	}
+	
+	
+	@Test
+	public void testCombine() {
+		for (int i = 0; i < 1000; i++) {
+			byte[] b = new byte[rand.nextInt(3000)];
+			rand.nextBytes(b);
+			int split = rand.nextInt(b.length + 1);
+			int crcA = Crc32.update(0, b, 0, split);
+			int crcB = Crc32.update(0, b, split, b.length - split);
+			assertEquals(Crc32.update(0, b, 0, b.length), Crc32.combine(crcA, crcB, b.length - split));
+		}
+	}
+	
+	
+	@Test
+	public void testCombineManyPieces() {
+		byte[] b = new byte[5000000];
+		rand.nextBytes(b);
+		CRC32 ref = new CRC32();
+		ref.update(b);
+		int crc = 0;
+		for (int off = 0; off < b.length; ) {
+			int n = Math.min(rand.nextInt(1000000), b.length - off);
+			crc = Crc32.combine(crc, Crc32.update(0, b, off, n), n);
+			off += n;
+		}
+		assertEquals((int)ref.getValue(), crc);
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,852 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/* 
+ * Compresses a byte stream into a raw DEFLATE stream (RFC 1951), the counterpart of Inflater.
+ * LZ77 matches are found with hash chains over a 32 KiB sliding window, using lazy evaluation
+ * like zlib, and each block is emitted as stored, fixed Huffman, or dynamic Huffman, whichever
+ * is smallest. All buffers are allocated once by the constructor.
+ */
+public final class Deflater {
+	
+	/* Compressor streams and state */
+	
+	// Main I/O streams
+	private InputStream input;
+	private OutputStream output;
+	
+	// Sliding window, which holds the previous 32 KiB of input plus the lookahead
+	private static final int WINDOW_SIZE = 32 * 1024;  // Not configurable, because distances are encoded relative to it
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int MIN_MATCH = 3;
+	private static final int MAX_MATCH = 258;
+	private static final int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
+	private static final int MAX_DISTANCE = WINDOW_SIZE - MIN_LOOKAHEAD;  // So that the window never needs to slide during a match search
+	private static final int TOO_FAR = 4096;  // Matches of length 3 farther than this are usually not worth encoding
+	private byte[] window;       // Length equal to 2 * WINDOW_SIZE
+	private int strStart;        // Index of the current byte in the window
+	private int lookahead;       // Number of valid bytes in the window at and after strStart
+	private int matchStart;      // Index of the match found by the latest call to longestMatch()
+	private int blockStart;      // Window index of the first byte of the pending block; negative if it has slid out of the window
+	private boolean inputEnded;
+	
+	// Hash chains, linking the window positions whose next 3 bytes have the same hash
+	private static final int HASH_BITS = 15;  // Any integer from 8 to 24 is valid; affects speed and compression (configurable)
+	private static final int NIL = -1;
+	private int[] head;  // Length 2^HASH_BITS. Most recent window index for each hash, or NIL
+	private int[] prev;  // Length WINDOW_SIZE. Indexed by (window index & WINDOW_MASK), giving the previous index with the same hash, or NIL
+	
+	// Matching parameters, selected by the level
+	private final int level;
+	private final int goodLength;  // Search less when the previous match is at least this long
+	private final int maxLazy;     // Don't look for a better match when the previous match is at least this long
+	private final int niceLength;  // Stop searching when a match is at least this long
+	private final int maxChain;    // Maximum number of hash chain entries to examine per search
+	
+	// Pending block of symbols. A literal byte is stored as itself, and a match as (length << 16 | distance)
+	private static final int SYMBOL_BUFFER_SIZE = 16 * 1024;  // Maximum number of symbols per block (configurable)
+	private int[] symbols;
+	private int numSymbols;
+	private int[] litLenFreqs;  // Length 286
+	private int[] distFreqs;    // Length 30
+	
+	// Huffman code construction scratch space, reused for every block
+	private byte[] litLenCodeLengths;    // Length 286
+	private byte[] distCodeLengths;      // Length 30
+	private byte[] codeLenCodeLengths;   // Length 19
+	private int[] litLenCodes;           // Bit-reversed canonical codes, ready to be written
+	private int[] distCodes;
+	private int[] codeLenCodes;
+	private int[] codeLenFreqs;          // Length 19
+	private int[] codeLenSymbols;        // Run-length encoded code lengths, each stored as (extra bits value << 8 | symbol)
+	private int numCodeLenSymbols;
+	private long[] sortKeys;             // Each is (frequency << 32 | symbol)
+	private int[] sortWeights;
+	private int[] bitLengthCounts;       // Length 16
+	
+	// Output bit buffer and byte buffer
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;  // Must be at least 4 (configurable)
+	private byte[] outputBuffer;
+	private int outputBufferIndex;
+	private long outputBits;       // Unused high-order bits are zero
+	private int outputBitsLength;  // Always in the range [0, 31] between calls to writeBits()
+	
+	// Statistics
+	private long inputLength;
+	private int inputCrc32;
+	private int inputAdler32;
+	private long outputLength;
+	
+	
+	
+	/* Public methods */
+	
+	// Compresses the entire stream from 'in' to 'out' immediately, at level 6. Neither stream is closed.
+	public Deflater(InputStream in, OutputStream out) throws IOException {
+		this(in, out, DEFAULT_LEVEL);
+	}
+	
+	
+	// Compresses the entire stream from 'in' to 'out' immediately at the given level, where 0 means stored blocks
+	// only, 1 is the fastest, and 9 compresses the most. Neither stream is closed.
+	public Deflater(InputStream in, OutputStream out, int level) throws IOException {
+		// Handle arguments
+		if (in == null || out == null)
+			throw new NullPointerException();
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("Invalid compression level");
+		input = in;
+		output = out;
+		this.level = level;
+		if (level > 0) {
+			int[] params = LEVEL_PARAMETERS[level - 1];
+			goodLength = params[0];
+			maxLazy    = params[1];
+			niceLength = params[2];
+			maxChain   = params[3];
+		} else {
+			goodLength = 0;
+			maxLazy    = 0;
+			niceLength = 0;
+			maxChain   = 0;
+		}
+		
+		// Initialize remaining fields
+		window = new byte[2 * WINDOW_SIZE];
+		strStart = 0;
+		lookahead = 0;
+		matchStart = 0;
+		blockStart = 0;
+		inputEnded = false;
+		
+		head = new int[1 << HASH_BITS];
+		Arrays.fill(head, NIL);
+		prev = new int[WINDOW_SIZE];
+		Arrays.fill(prev, NIL);
+		
+		symbols = new int[SYMBOL_BUFFER_SIZE];
+		numSymbols = 0;
+		litLenFreqs = new int[286];
+		distFreqs = new int[30];
+		
+		litLenCodeLengths = new byte[286];
+		distCodeLengths = new byte[30];
+		codeLenCodeLengths = new byte[19];
+		litLenCodes = new int[286];
+		distCodes = new int[30];
+		codeLenCodes = new int[19];
+		codeLenFreqs = new int[19];
+		codeLenSymbols = new int[286 + 30];
+		numCodeLenSymbols = 0;
+		sortKeys = new long[286];
+		sortWeights = new int[286];
+		bitLengthCounts = new int[16];
+		
+		outputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+		outputBufferIndex = 0;
+		outputBits = 0;
+		outputBitsLength = 0;
+		
+		inputLength = 0;
+		inputCrc32 = 0;
+		inputAdler32 = 1;
+		outputLength = 0;
+		
+		// Start compressing immediately
+		if (level == 0)
+			deflateStored();
+		else
+			deflateLazy();
+		
+		// Finish the final byte and detach from streams
+		alignToByte();
+		flushOutputBuffer();
+		input = null;
+		output = null;
+	}
+	
+	
+	// Returns the number of uncompressed bytes read.
+	public long getLength() {
+		return inputLength;
+	}
+	
+	
+	// Returns the CRC-32 of the uncompressed bytes, for the GZIP footer.
+	public int getCrc32() {
+		return inputCrc32;
+	}
+	
+	
+	// Returns the Adler-32 of the uncompressed bytes, for the zlib footer.
+	public int getAdler32() {
+		return inputAdler32;
+	}
+	
+	
+	// Returns the number of compressed bytes written.
+	public long getCompressedLength() {
+		return outputLength;
+	}
+	
+	
+	
+	/* Main compression methods */
+	
+	// Level 0: every block is a stored block.
+	private void deflateStored() throws IOException {
+		while (true) {
+			fillWindow();
+			if (lookahead == 0)
+				break;
+			strStart += lookahead;
+			lookahead = 0;
+		}
+		flushBlock(true);
+	}
+	
+	
+	// Levels 1 to 9: a match is only taken if the match starting at the next byte is not longer,
+	// which is the same strategy as zlib's deflate_slow().
+	private void deflateLazy() throws IOException {
+		int matchLength = MIN_MATCH - 1;
+		boolean matchAvailable = false;  // Whether the byte at strStart - 1 is pending as a literal or the start of a match
+		while (true) {
+			if (lookahead < MIN_LOOKAHEAD) {
+				fillWindow();
+				if (lookahead == 0)
+					break;
+			}
+			
+			int hashHead = NIL;
+			if (lookahead >= MIN_MATCH)
+				hashHead = insertHash(strStart);
+			
+			// Find the longest match at the current position, unless the previous one is already long
+			int prevLength = matchLength;
+			int prevMatch = matchStart;
+			matchLength = MIN_MATCH - 1;
+			if (hashHead != NIL && prevLength < maxLazy && strStart - hashHead <= MAX_DISTANCE) {
+				matchLength = longestMatch(hashHead, prevLength);
+				if (matchLength == MIN_MATCH && strStart - matchStart > TOO_FAR)
+					matchLength = MIN_MATCH - 1;
+			}
+			
+			if (prevLength >= MIN_MATCH && matchLength <= prevLength) {
+				// Emit the previous match, and insert all the positions it covers into the hash chains
+				int maxInsert = strStart + lookahead - MIN_MATCH;
+				recordMatch(prevLength, strStart - 1 - prevMatch);
+				lookahead -= prevLength - 1;
+				for (int i = prevLength - 2; i > 0; i--) {
+					strStart++;
+					if (strStart <= maxInsert)
+						insertHash(strStart);
+				}
+				matchAvailable = false;
+				matchLength = MIN_MATCH - 1;
+				strStart++;
+				if (numSymbols == SYMBOL_BUFFER_SIZE)
+					flushBlock(false);
+				
+			} else if (matchAvailable) {
+				// The previous byte is a literal, and the current match (if any) is deferred
+				recordLiteral(window[strStart - 1]);
+				if (numSymbols == SYMBOL_BUFFER_SIZE)
+					flushBlock(false);
+				strStart++;
+				lookahead--;
+				
+			} else {
+				// Defer the decision about the current byte until the next position is searched
+				matchAvailable = true;
+				strStart++;
+				lookahead--;
+			}
+		}
+		if (matchAvailable)
+			recordLiteral(window[strStart - 1]);
+		flushBlock(true);
+	}
+	
+	
+	// Returns the length of the longest match at strStart that is longer than 'bestLength', setting matchStart;
+	// otherwise returns bestLength. The search follows the hash chain starting at 'curMatch'.
+	private int longestMatch(int curMatch, int bestLength) {
+		byte[] w = window;
+		int scan = strStart;
+		int limit = strStart > MAX_DISTANCE ? strStart - MAX_DISTANCE : NIL;
+		int maxLength = Math.min(MAX_MATCH, lookahead);
+		int nice = Math.min(niceLength, maxLength);
+		if (bestLength >= maxLength)
+			return bestLength;
+		int chain = maxChain;
+		if (bestLength >= goodLength)
+			chain >>>= 2;
+		if (chain == 0)
+			chain = 1;
+		
+		do {
+			assert curMatch < scan;
+			// Check the byte that would make this match longer than the best, then the first two bytes
+			if (w[curMatch + bestLength] == w[scan + bestLength] && w[curMatch] == w[scan] && w[curMatch + 1] == w[scan + 1]) {
+				int len = 2;
+				while (len < maxLength && w[curMatch + len] == w[scan + len])
+					len++;
+				if (len > bestLength) {
+					matchStart = curMatch;
+					bestLength = len;
+					if (len >= nice)
+						break;
+				}
+			}
+			curMatch = prev[curMatch & WINDOW_MASK];
+		} while (curMatch > limit && --chain != 0);
+		return bestLength;
+	}
+	
+	
+	// Adds the given window index to the hash chain for its next 3 bytes, and returns the previous head of the chain.
+	private int insertHash(int pos) {
+		byte[] w = window;
+		int h = ((w[pos] & 0xFF) << 16 | (w[pos + 1] & 0xFF) << 8 | (w[pos + 2] & 0xFF)) * 0x9E3779B1 >>> (32 - HASH_BITS);
+		int result = head[h];
+		prev[pos & WINDOW_MASK] = result;
+		head[h] = pos;
+		return result;
+	}
+	
+	
+	private void recordLiteral(byte b) {
+		symbols[numSymbols] = b & 0xFF;
+		numSymbols++;
+		litLenFreqs[b & 0xFF]++;
+	}
+	
+	
+	private void recordMatch(int length, int distance) {
+		assert MIN_MATCH <= length && length <= MAX_MATCH;
+		assert 1 <= distance && distance <= WINDOW_SIZE;
+		symbols[numSymbols] = length << 16 | distance;
+		numSymbols++;
+		litLenFreqs[LENGTH_SYMBOL[length]]++;
+		distFreqs[distanceSymbol(distance)]++;
+	}
+	
+	
+	
+	/* Block output methods */
+	
+	// Writes the pending symbols (covering window[blockStart : strStart]) as one block, in whichever of
+	// the three block types is smallest, then starts a new block.
+	private void flushBlock(boolean isFinal) throws IOException {
+		int storedLength = blockStart >= 0 ? strStart - blockStart : -1;
+		if (level == 0) {
+			writeStoredBlocks(isFinal, storedLength);
+		} else {
+			litLenFreqs[256]++;  // End of block
+			
+			// Build the dynamic codes and measure all three block types
+			buildCodeLengths(litLenFreqs, 286, 15, litLenCodeLengths);
+			if (buildCodeLengths(distFreqs, 30, 15, distCodeLengths) == 0) {
+				// No distances were used, but give a complete code to keep every decoder happy
+				distCodeLengths[0] = 1;
+				distCodeLengths[1] = 1;
+			}
+			int numLitLen = 286;
+			while (numLitLen > 257 && litLenCodeLengths[numLitLen - 1] == 0)
+				numLitLen--;
+			int numDist = 30;
+			while (numDist > 1 && distCodeLengths[numDist - 1] == 0)
+				numDist--;
+			buildCodeLengthSymbols(numLitLen, numDist);
+			buildCodeLengths(codeLenFreqs, 19, 7, codeLenCodeLengths);
+			int numCodeLen = 19;
+			while (numCodeLen > 4 && codeLenCodeLengths[Inflater.CODE_LENGTH_CODE_ORDER[numCodeLen - 1]] == 0)
+				numCodeLen--;
+			
+			long dynamicCost = 3 + 5 + 5 + 4 + 3 * numCodeLen;
+			for (int i = 0; i < 19; i++)
+				dynamicCost += (long)codeLenFreqs[i] * (codeLenCodeLengths[i] + (i == 16 ? 2 : i == 17 ? 3 : i == 18 ? 7 : 0));
+			dynamicCost += dataCost(litLenCodeLengths, distCodeLengths);
+			long fixedCost = 3 + dataCost(FIXED_LITERAL_LENGTH_CODE_LENGTHS, FIXED_DISTANCE_CODE_LENGTHS);
+			long storedCost = Long.MAX_VALUE;
+			if (storedLength >= 0)  // Each stored block has a 3-bit header, up to 7 bits of padding, and 32 bits of length
+				storedCost = Math.max((storedLength + 65534L) / 65535, 1) * (3 + 7 + 32) + storedLength * 8L;
+			
+			if (storedCost <= fixedCost && storedCost <= dynamicCost)
+				writeStoredBlocks(isFinal, storedLength);
+			else if (fixedCost <= dynamicCost) {
+				writeBits(isFinal ? 1 : 0, 1);
+				writeBits(1, 2);
+				writeSymbols(FIXED_LITERAL_LENGTH_CODES, FIXED_LITERAL_LENGTH_CODE_LENGTHS, FIXED_DISTANCE_CODES, FIXED_DISTANCE_CODE_LENGTHS);
+			} else {
+				writeBits(isFinal ? 1 : 0, 1);
+				writeBits(2, 2);
+				writeDynamicHeader(numLitLen, numDist, numCodeLen);
+				writeSymbols(litLenCodes, litLenCodeLengths, distCodes, distCodeLengths);
+			}
+		}
+		
+		// Start a new block
+		numSymbols = 0;
+		Arrays.fill(litLenFreqs, 0);
+		Arrays.fill(distFreqs, 0);
+		blockStart = strStart;
+	}
+	
+	
+	// Returns the number of bits needed to encode the pending symbols (including end of block) with the given code lengths.
+	private long dataCost(byte[] litLenLens, byte[] distLens) {
+		long result = 0;
+		for (int i = 0; i < 286; i++) {
+			int n = litLenFreqs[i];
+			if (n > 0)
+				result += (long)n * (litLenLens[i] + (i >= 257 ? Inflater.RUN_LENGTH_EXTRA_BITS[i - 257] : 0));
+		}
+		for (int i = 0; i < 30; i++) {
+			int n = distFreqs[i];
+			if (n > 0)
+				result += (long)n * (distLens[i] + Inflater.DISTANCE_EXTRA_BITS[i]);
+		}
+		return result;
+	}
+	
+	
+	// Writes window[blockStart : blockStart + length] as one or more stored blocks.
+	private void writeStoredBlocks(boolean isFinal, int length) throws IOException {
+		assert length >= 0;
+		int off = blockStart;
+		do {
+			int n = Math.min(length, 65535);
+			length -= n;
+			writeBits(isFinal && length == 0 ? 1 : 0, 1);
+			writeBits(0, 2);
+			alignToByte();
+			writeBits(n, 16);
+			writeBits(n ^ 0xFFFF, 16);
+			alignToByte();
+			writeBytes(window, off, n);
+			off += n;
+		} while (length > 0);
+	}
+	
+	
+	// Sets codeLenSymbols and codeLenFreqs to the run-length encoding of the used code lengths.
+	private void buildCodeLengthSymbols(int numLitLen, int numDist) {
+		Arrays.fill(codeLenFreqs, 0);
+		numCodeLenSymbols = 0;
+		int total = numLitLen + numDist;
+		for (int i = 0; i < total; ) {
+			int len = i < numLitLen ? litLenCodeLengths[i] : distCodeLengths[i - numLitLen];
+			int run = 1;
+			while (i + run < total && (i + run < numLitLen ? litLenCodeLengths[i + run] : distCodeLengths[i + run - numLitLen]) == len)
+				run++;
+			i += run;
+			
+			if (len == 0) {
+				for (; run >= 11; ) {
+					int n = Math.min(run, 138);
+					addCodeLengthSymbol(18, n - 11);
+					run -= n;
+				}
+				if (run >= 3) {
+					addCodeLengthSymbol(17, run - 3);
+					run = 0;
+				}
+			} else {
+				addCodeLengthSymbol(len, 0);
+				run--;
+				for (; run >= 3; ) {
+					int n = Math.min(run, 6);
+					addCodeLengthSymbol(16, n - 3);
+					run -= n;
+				}
+			}
+			for (; run > 0; run--)
+				addCodeLengthSymbol(len, 0);
+		}
+	}
+	
+	
+	private void addCodeLengthSymbol(int sym, int extra) {
+		codeLenSymbols[numCodeLenSymbols] = extra << 8 | sym;
+		numCodeLenSymbols++;
+		codeLenFreqs[sym]++;
+	}
+	
+	
+	private void writeDynamicHeader(int numLitLen, int numDist, int numCodeLen) throws IOException {
+		writeBits(numLitLen - 257, 5);
+		writeBits(numDist - 1, 5);
+		writeBits(numCodeLen - 4, 4);
+		for (int i = 0; i < numCodeLen; i++)
+			writeBits(codeLenCodeLengths[Inflater.CODE_LENGTH_CODE_ORDER[i]], 3);
+		
+		lengthsToCodes(codeLenCodeLengths, codeLenCodes, bitLengthCounts);
+		for (int i = 0; i < numCodeLenSymbols; i++) {
+			int sym = codeLenSymbols[i] & 0xFF;
+			int extra = codeLenSymbols[i] >>> 8;
+			writeBits(codeLenCodes[sym], codeLenCodeLengths[sym]);
+			if (sym == 16)
+				writeBits(extra, 2);
+			else if (sym == 17)
+				writeBits(extra, 3);
+			else if (sym == 18)
+				writeBits(extra, 7);
+		}
+		lengthsToCodes(litLenCodeLengths, litLenCodes, bitLengthCounts);
+		lengthsToCodes(distCodeLengths, distCodes, bitLengthCounts);
+	}
+	
+	
+	// Writes the pending symbols followed by the end of block symbol.
+	private void writeSymbols(int[] litLenCodes, byte[] litLenLens, int[] distCodes, byte[] distLens) throws IOException {
+		int[] syms = symbols;
+		for (int i = 0; i < numSymbols; i++) {
+			int sym = syms[i];
+			if (sym < 256)  // Literal
+				writeBits(litLenCodes[sym], litLenLens[sym]);
+			else {  // Match
+				int length = sym >>> 16;
+				int lenSym = LENGTH_SYMBOL[length];
+				writeBits(litLenCodes[lenSym], litLenLens[lenSym]);
+				writeBits(length - Inflater.RUN_LENGTH_BASE[lenSym - 257], Inflater.RUN_LENGTH_EXTRA_BITS[lenSym - 257]);
+				int distance = sym & 0xFFFF;
+				int distSym = distanceSymbol(distance);
+				writeBits(distCodes[distSym], distLens[distSym]);
+				writeBits(distance - Inflater.DISTANCE_BASE[distSym], Inflater.DISTANCE_EXTRA_BITS[distSym]);
+			}
+		}
+		writeBits(litLenCodes[256], litLenLens[256]);
+	}
+	
+	
+	
+	/* Huffman code construction */
+	
+	// Sets lengths[0 : n] to the lengths of an optimal prefix code for the given frequencies, limited to 'limit' bits.
+	// Unused symbols get length 0. If only one symbol is used, another one is given length 1 too so that the code is complete.
+	// Returns the number of used symbols.
+	private int buildCodeLengths(int[] freqs, int n, int limit, byte[] lengths) {
+		// Sort the used symbols by ascending frequency
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			lengths[i] = 0;
+			if (freqs[i] > 0) {
+				sortKeys[count] = (long)freqs[i] << 32 | i;
+				count++;
+			}
+		}
+		if (count == 0)
+			return 0;
+		if (count == 1) {
+			int sym = (int)sortKeys[0];
+			lengths[sym] = 1;
+			lengths[sym == 0 ? 1 : 0] = 1;
+			return 1;
+		}
+		Arrays.sort(sortKeys, 0, count);
+		int[] a = sortWeights;
+		for (int i = 0; i < count; i++)
+			a[i] = (int)(sortKeys[i] >>> 32);
+		minimumRedundancyLengths(a, count);
+		
+		if (a[0] > limit) {
+			// Clamp the lengths, then restore the Kraft equality by repeatedly moving a leaf from the
+			// deepest level to below a shallower leaf (the same heuristic as in miniz)
+			int[] counts = bitLengthCounts;
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < count; i++)
+				counts[Math.min(a[i], limit)]++;
+			int total = 0;
+			for (int i = 1; i <= limit; i++)
+				total += counts[i] << (limit - i);
+			for (; total > 1 << limit; total--) {
+				counts[limit]--;
+				for (int i = limit - 1; i > 0; i--) {
+					if (counts[i] > 0) {
+						counts[i]--;
+						counts[i + 1] += 2;
+						break;
+					}
+				}
+			}
+			// The most frequent symbols get the shortest codes
+			int k = count - 1;
+			for (int len = 1; len <= limit; len++) {
+				for (int j = 0; j < counts[len]; j++, k--)
+					a[k] = len;
+			}
+		}
+		for (int i = 0; i < count; i++)
+			lengths[(int)sortKeys[i]] = (byte)a[i];
+		return count;
+	}
+	
+	
+	/*
+	 * Given n >= 2 weights in ascending order, replaces each weight with its code length in an optimal
+	 * prefix code, in place and without allocating memory. This is the algorithm from Moffat and
+	 * Katajainen, "In-place calculation of minimum-redundancy codes" (1995). The resulting lengths
+	 * are in descending order.
+	 */
+	private static void minimumRedundancyLengths(int[] a, int n) {
+		assert n >= 2;
+		// Phase 1: build the tree, storing parent pointers in place of the internal nodes' weights
+		a[0] += a[1];
+		int root = 0;
+		int leaf = 2;
+		for (int next = 1; next < n - 1; next++) {
+			if (leaf >= n || a[root] < a[leaf]) {
+				a[next] = a[root];
+				a[root] = next;
+				root++;
+			} else {
+				a[next] = a[leaf];
+				leaf++;
+			}
+			if (leaf >= n || (root < next && a[root] < a[leaf])) {
+				a[next] += a[root];
+				a[root] = next;
+				root++;
+			} else {
+				a[next] += a[leaf];
+				leaf++;
+			}
+		}
+		
+		// Phase 2: convert parent pointers to internal node depths
+		a[n - 2] = 0;
+		for (int next = n - 3; next >= 0; next--)
+			a[next] = a[a[next]] + 1;
+		
+		// Phase 3: convert internal node depths to leaf depths
+		int avail = 1;
+		int used = 0;
+		int depth = 0;
+		root = n - 2;
+		int next = n - 1;
+		while (avail > 0) {
+			for (; root >= 0 && a[root] == depth; root--)
+				used++;
+			for (; avail > used; avail--, next--)
+				a[next] = depth;
+			avail = used * 2;
+			depth++;
+			used = 0;
+		}
+	}
+	
+	
+	// Sets codes[i] to the canonical code for each symbol with nonzero length, bit-reversed for writing.
+	// 'counts' is scratch space of length 16.
+	private static void lengthsToCodes(byte[] lengths, int[] codes, int[] counts) {
+		Arrays.fill(counts, 0);
+		for (byte len : lengths)
+			counts[len]++;
+		
+		// Replace each count with the first code of that length
+		int code = 0;
+		int prevCount = 0;
+		for (int i = 1; i < 16; i++) {
+			code = (code + prevCount) << 1;
+			prevCount = counts[i];
+			counts[i] = code;
+		}
+		for (int i = 0; i < lengths.length; i++) {
+			int len = lengths[i];
+			if (len > 0) {
+				codes[i] = Integer.reverse(counts[len]) >>> (32 - len);
+				counts[len]++;
+			}
+		}
+	}
+	
+	
+	
+	/* I/O methods */
+	
+	// Reads input until the lookahead is at least MIN_LOOKAHEAD bytes or the input ends, sliding the window as needed.
+	private void fillWindow() throws IOException {
+		while (lookahead < MIN_LOOKAHEAD && !inputEnded) {
+			if (strStart >= WINDOW_SIZE + MAX_DISTANCE) {
+				if (level == 0)  // Stored blocks need all their data in the window
+					flushBlock(false);
+				slideWindow();
+			}
+			int off = strStart + lookahead;
+			int n = input.read(window, off, window.length - off);
+			if (n == -1)
+				inputEnded = true;
+			else {
+				updateChecksums(window, off, n);
+				lookahead += n;
+			}
+		}
+	}
+	
+	
+	// Moves the upper half of the window to the lower half, and adjusts all indexes accordingly.
+	private void slideWindow() {
+		System.arraycopy(window, WINDOW_SIZE, window, 0, WINDOW_SIZE);
+		strStart -= WINDOW_SIZE;
+		matchStart -= WINDOW_SIZE;
+		blockStart -= WINDOW_SIZE;
+		for (int i = 0; i < head.length; i++)
+			head[i] = head[i] >= WINDOW_SIZE ? head[i] - WINDOW_SIZE : NIL;
+		for (int i = 0; i < prev.length; i++)
+			prev[i] = prev[i] >= WINDOW_SIZE ? prev[i] - WINDOW_SIZE : NIL;
+	}
+	
+	
+	private void updateChecksums(byte[] b, int off, int len) {
+		inputLength += len;
+		
+		inputCrc32 = Crc32.update(inputCrc32, b, off, len);
+		
+		int s1 = inputAdler32 & 0xFFFF;
+		int s2 = inputAdler32 >>> 16;
+		while (len > 0) {
+			int n = Math.min(len, 3800);  // Small enough that s2 cannot overflow a signed int before the modulo
+			for (int end = off + n; off < end; off++) {
+				s1 += b[off] & 0xFF;
+				s2 += s1;
+			}
+			s1 %= 65521;
+			s2 %= 65521;
+			len -= n;
+		}
+		inputAdler32 = s2 << 16 | s1;
+	}
+	
+	
+	// Writes the low-order n bits of 'value' (which must have no other bits set) in little endian bit order.
+	private void writeBits(int value, int n) throws IOException {
+		assert 0 <= n && n <= 31 && value >>> n == 0;
+		assert 0 <= outputBitsLength && outputBitsLength <= 31;
+		outputBits |= (long)value << outputBitsLength;
+		outputBitsLength += n;
+		if (outputBitsLength >= 32) {
+			if (outputBufferIndex > outputBuffer.length - 4)
+				flushOutputBuffer();
+			byte[] b = outputBuffer;
+			int i = outputBufferIndex;
+			long bits = outputBits;
+			b[i + 0] = (byte)(bits >>>  0);
+			b[i + 1] = (byte)(bits >>>  8);
+			b[i + 2] = (byte)(bits >>> 16);
+			b[i + 3] = (byte)(bits >>> 24);
+			outputBufferIndex = i + 4;
+			outputBits = bits >>> 32;
+			outputBitsLength -= 32;
+		}
+	}
+	
+	
+	// Pads with zero bits to a byte boundary, and moves all whole bytes of the bit buffer to the byte buffer.
+	private void alignToByte() throws IOException {
+		writeBits(0, -outputBitsLength & 7);
+		for (; outputBitsLength > 0; outputBitsLength -= 8) {
+			if (outputBufferIndex == outputBuffer.length)
+				flushOutputBuffer();
+			outputBuffer[outputBufferIndex] = (byte)outputBits;
+			outputBufferIndex++;
+			outputBits >>>= 8;
+		}
+	}
+	
+	
+	// Writes bytes after the bit buffer has been emptied by alignToByte().
+	private void writeBytes(byte[] b, int off, int len) throws IOException {
+		assert outputBitsLength == 0;
+		while (len > 0) {
+			if (outputBufferIndex == outputBuffer.length)
+				flushOutputBuffer();
+			int n = Math.min(len, outputBuffer.length - outputBufferIndex);
+			System.arraycopy(b, off, outputBuffer, outputBufferIndex, n);
+			outputBufferIndex += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	
+	private void flushOutputBuffer() throws IOException {
+		output.write(outputBuffer, 0, outputBufferIndex);
+		outputLength += outputBufferIndex;
+		outputBufferIndex = 0;
+	}
+	
+	
+	
+	/* Static tables */
+	
+	public static final int DEFAULT_LEVEL = 6;
+	
+	// {goodLength, maxLazy, niceLength, maxChain} for levels 1 to 9, the same as zlib's
+	private static final int[][] LEVEL_PARAMETERS = {
+		{ 4,   4,   8,    4},
+		{ 4,   5,  16,    8},
+		{ 4,   6,  32,   32},
+		{ 4,   4,  16,   16},
+		{ 8,  16,  32,   32},
+		{ 8,  16, 128,  128},
+		{ 8,  32, 128,  256},
+		{32, 128, 258, 1024},
+		{32, 258, 258, 4096},
+	};
+	
+	// Symbols 286, 287, 30, and 31 are never used, but they are part of the fixed codes' canonical ordering
+	private static final byte[] FIXED_LITERAL_LENGTH_CODE_LENGTHS = new byte[288];
+	private static final byte[] FIXED_DISTANCE_CODE_LENGTHS = new byte[32];
+	private static final int[] FIXED_LITERAL_LENGTH_CODES = new int[288];
+	private static final int[] FIXED_DISTANCE_CODES = new int[32];
+	
+	// Inverses of Inflater's RUN_LENGTH_BASE and DISTANCE_BASE tables
+	private static final short[] LENGTH_SYMBOL = new short[MAX_MATCH + 1];  // Indexed by match length
+	private static final byte[] DISTANCE_SYMBOL = new byte[512];  // See distanceSymbol()
+	
+	static {
+		Arrays.fill(FIXED_LITERAL_LENGTH_CODE_LENGTHS,   0, 144, (byte)8);
+		Arrays.fill(FIXED_LITERAL_LENGTH_CODE_LENGTHS, 144, 256, (byte)9);
+		Arrays.fill(FIXED_LITERAL_LENGTH_CODE_LENGTHS, 256, 280, (byte)7);
+		Arrays.fill(FIXED_LITERAL_LENGTH_CODE_LENGTHS, 280, 288, (byte)8);
+		Arrays.fill(FIXED_DISTANCE_CODE_LENGTHS, (byte)5);
+		lengthsToCodes(FIXED_LITERAL_LENGTH_CODE_LENGTHS, FIXED_LITERAL_LENGTH_CODES, new int[16]);
+		lengthsToCodes(FIXED_DISTANCE_CODE_LENGTHS, FIXED_DISTANCE_CODES, new int[16]);
+		
+		for (int sym = 257; sym <= 285; sym++) {  // Symbol 285 overrides 284 for length 258
+			int base = Inflater.RUN_LENGTH_BASE[sym - 257];
+			for (int i = 0; i < 1 << Inflater.RUN_LENGTH_EXTRA_BITS[sym - 257] && base + i <= MAX_MATCH; i++)
+				LENGTH_SYMBOL[base + i] = (short)sym;
+		}
+		for (int sym = 0; sym < 30; sym++) {
+			int base = Inflater.DISTANCE_BASE[sym];
+			for (int i = 0; i < 1 << Inflater.DISTANCE_EXTRA_BITS[sym]; i++) {
+				int dist = base + i;
+				if (dist <= 256)
+					DISTANCE_SYMBOL[dist - 1] = (byte)sym;
+				else
+					DISTANCE_SYMBOL[256 + ((dist - 1) >>> 7)] = (byte)sym;
+			}
+		}
+	}
+	
+	
+	// Returns the distance symbol (0 to 29) for the given distance (1 to 32768).
+	private static int distanceSymbol(int dist) {
+		return dist <= 256 ? DISTANCE_SYMBOL[dist - 1] : DISTANCE_SYMBOL[256 + ((dist - 1) >>> 7)];
+	}
+	
+}
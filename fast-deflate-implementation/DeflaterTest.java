@@ -0,0 +1,150 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import org.junit.Test;
+
+
+public final class DeflaterTest {
+	
+	@Test
+	public void testEmpty() throws IOException, DataFormatException {
+		for (int level = 0; level <= 9; level++)
+			testRoundTrip(new byte[0], level);
+	}
+	
+	
+	@Test
+	public void testSingleByte() throws IOException, DataFormatException {
+		for (int level = 0; level <= 9; level++)
+			testRoundTrip(new byte[]{(byte)rand.nextInt(256)}, level);
+	}
+	
+	
+	@Test
+	public void testLongRun() throws IOException, DataFormatException {
+		byte[] data = new byte[1000000];
+		for (int level = 1; level <= 9; level++) {
+			byte[] comp = testRoundTrip(data, level);
+			assertTrue(comp.length < 5000);
+		}
+	}
+	
+	
+	@Test
+	public void testRandomBytesDoNotExpand() throws IOException, DataFormatException {
+		byte[] data = new byte[300000];
+		rand.nextBytes(data);
+		for (int level = 0; level <= 9; level++) {
+			byte[] comp = testRoundTrip(data, level);
+			assertTrue(comp.length < data.length + data.length / 1000 + 100);  // Stored blocks are chosen
+		}
+	}
+	
+	
+	@Test
+	public void testRandomData() throws IOException, DataFormatException {
+		for (int i = 0; i < 200; i++) {
+			// Generate data with a mix of literals and repeats of varying distances
+			byte[] data = new byte[rand.nextInt(300000)];
+			int alphabet = rand.nextInt(256) + 1;
+			for (int j = 0; j < data.length; ) {
+				if (j > 0 && rand.nextDouble() < 0.3) {
+					int dist = Math.min(rand.nextInt(40000) + 1, j);
+					int len = Math.min(rand.nextInt(300) + 1, data.length - j);
+					for (int k = 0; k < len; k++, j++)
+						data[j] = data[j - dist];
+				} else {
+					data[j] = (byte)rand.nextInt(alphabet);
+					j++;
+				}
+			}
+			testRoundTrip(data, rand.nextInt(10));
+		}
+	}
+	
+	
+	@Test
+	public void testHigherLevelsCompressMore() throws IOException, DataFormatException {
+		byte[] data = new byte[1000000];
+		for (int i = 0; i < data.length; ) {
+			if (i > 0 && rand.nextDouble() < 0.1) {
+				int dist = Math.min(rand.nextInt(30000) + 1, i);
+				for (int end = Math.min(i + rand.nextInt(50) + 3, data.length); i < end; i++)
+					data[i] = data[i - dist];
+			} else {
+				data[i] = (byte)('a' + rand.nextInt(rand.nextInt(26) + 1));
+				i++;
+			}
+		}
+		int len0 = testRoundTrip(data, 0).length;
+		int len1 = testRoundTrip(data, 1).length;
+		int len9 = testRoundTrip(data, 9).length;
+		assertTrue(len1 < len0);
+		assertTrue(len9 < len1);
+	}
+	
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidLevel() throws IOException {
+		new Deflater(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), 10);
+	}
+	
+	
+	
+	/* Utility methods */
+	
+	// Compresses the data, checks that both this Inflater and java.util.zip.Inflater recover it, and returns the compressed bytes.
+	private static byte[] testRoundTrip(byte[] data, int level) throws IOException, DataFormatException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		Deflater def = new Deflater(new ByteArrayInputStream(data), bout, level);
+		byte[] comp = bout.toByteArray();
+		assertEquals(data.length, def.getLength());
+		assertEquals(comp.length, def.getCompressedLength());
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		assertEquals((int)crc.getValue(), def.getCrc32());
+		Adler32 adler = new Adler32();
+		adler.update(data);
+		assertEquals((int)adler.getValue(), def.getAdler32());
+		
+		bout.reset();
+		new Inflater(new BufferedInputStream(new ByteArrayInputStream(comp)), bout);
+		assertArrayEquals(data, bout.toByteArray());
+		
+		java.util.zip.Inflater inf = new java.util.zip.Inflater(true);
+		inf.setInput(comp);
+		byte[] decomp = new byte[data.length + 1];
+		int n = 0;
+		while (!inf.finished() && n < decomp.length) {
+			int k = inf.inflate(decomp, n, decomp.length - n);
+			if (k == 0 && (inf.needsInput() || inf.needsDictionary()))
+				break;
+			n += k;
+		}
+		assertTrue(inf.finished());
+		assertEquals(data.length, n);
+		assertEquals(0, inf.getRemaining());
+		inf.end();
+		return comp;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
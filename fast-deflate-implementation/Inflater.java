@@ -10,6 +10,9 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
@@ -19,166 +22,497 @@ public final class Inflater {
 	/* Decompressor streams and state */
 	
 	// Main I/O streams
-	private InputStream input;    // Only used by readBits() and readBytes(); never use this directly
-	private OutputStream output;  // Only used by writeOutputBuffer()
+	private InputStream input;    // Only used by readBits() and readBytes(); never use this directly. Null in mapped input mode, and after the end of the DEFLATE stream
+	private OutputStream output;  // Only used by the eager constructor; null in pull mode
+	
+	// Mapped file input, used instead of 'input' and 'inputBuffer' when decompressing from a FileChannel
+	private static final int MAPPING_WINDOW_SIZE = 256 * 1024 * 1024;  // Bounds the address space used by a mapping (configurable)
+	private FileChannel inputChannel;  // Null if 'input' is used, and after the end of the DEFLATE stream
+	private long inputChannelStart;    // Channel position of the first byte of the DEFLATE stream
+	private ByteBuffer inputMapping;   // Little endian view of the current window, which plays the role of inputBuffer
 	
 	// Input byte buffer and bit buffer
 	private static final int INPUT_BUFFER_SIZE = 16 * 1024;
 	private byte[] inputBuffer;       // Can have any positive length
-	private int inputBufferFilled;    // 0 <= inputBufferFilled <= inputBuffer.length, or -1 to indicate end of stream
+	private int inputBufferFilled;    // 0 <= inputBufferFilled <= inputBuffer.length (or inputMapping.limit()), or -1 to indicate end of stream
 	private int inputBufferIndex;     // 0 <= inputBufferIndex <= max(inputBufferFilled, 0)
+	private long inputBufferPosition; // Number of bytes read from the input stream before the current input buffer
 	private long inputNextBits;       // Unused high-order bits must be zero. Must only contain data from the current input buffer (i.e. not past buffers) so that the bits after the end of the DEFLATE stream can be unread
 	private int inputNextBitsLength;  // Always in the range [0, 63] before and after every call to readBits()
 	
 	// Circular dictionary
 	private static final int DICTIONARY_SIZE = 32 * 1024;  // Not actually configurable - will run without crashing, but decompression behavior would be incompatible with DEFLATE
 	private static final int DICTIONARY_SIZE_MASK = DICTIONARY_SIZE - 1;  // This is why DICTIONARY_SIZE must be a power of 2
-	private byte[] dictionary;    // Length equal to DICTIONARY_SIZE
+	private byte[] dictionary;    // Length equal to DICTIONARY_SIZE. Holds all output before the current chunk in tempOutputBuffer
 	private int dictionaryIndex;  // Index of next byte to write. Always 0 <= dictionaryIndex < dictionary.length
 	
 	// Output buffer
-	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;  // Must be at least 65535 to accommodate uncompressed blocks (configurable)
-	private byte[] tempOutputBuffer;  // Only used within decompressUncompressedBlock() and decompressHuffmanBlock(); invalid data outside of these function calls
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;  // Must be at least 258 to accommodate the longest run (configurable)
+	private byte[] tempOutputBuffer;  // Holds the chunk most recently produced by inflateChunk()
+	private int tempOutputStart;      // Index of the next chunk byte to be returned by read()
+	private int tempOutputEnd;        // Length of the current chunk
 	
 	// Output statistics
 	private long outputLength;
 	private int outputCrc32;
 	
+	// Selects continueHuffmanBlockWithTables() instead of the bitwise tree walking continueHuffmanBlock()
+	private final boolean multiSymbolDecoding;
+	
+	// Number of bits that continueHuffmanBlock() looks up at once, normally CODE_TABLE_BITS
+	private final int codeTableBits;
+	private final short[] fixedLitLenCodeTable;  // FIXED_LITERAL_LENGTH_CODE_TABLE if codeTableBits is the default
+	
+	// Block decoding state, so that decompression can pause when the output buffer fills up
+	private static final int STATE_BLOCK_HEADER = 0;
+	private static final int STATE_UNCOMPRESSED_BLOCK = 1;
+	private static final int STATE_HUFFMAN_BLOCK = 2;
+	private static final int STATE_END = 3;
+	private int state;
+	private boolean isFinalBlock;
+	private int uncompressedRemaining;  // Only valid in STATE_UNCOMPRESSED_BLOCK
+	private short[] litLenCodeTree;     // The rest are only valid in STATE_HUFFMAN_BLOCK
+	private short[] distCodeTree;       // Null if the block has an empty distance code
+	private short[] litLenCodeTable;    // Only used by continueHuffmanBlock()
+	private int[] litLenTable;          // Only used by continueHuffmanBlockWithTables()
+	private int[] distTable;            // Only used by continueHuffmanBlockWithTables(); null if distCodeTree is null
+	
+	// Recently used dynamic Huffman codes with their decoding structures, most recent first. Kept across reset(),
+	// because the entries depend only on the code lengths. Each entry holds up to ~12 KiB of tables.
+	private static final int HUFFMAN_CACHE_SIZE = 8;  // Any non-negative integer; 0 disables the cache (configurable)
+	private final HuffmanCodes[] huffmanCache;
+	private final byte[] codeLengthsBuffer;  // Scratch space for decodeHuffmanCodes(), reused to avoid allocation
+	private long huffmanCacheHits;
+	private long huffmanCacheMisses;
+	
+	// If true, each chunk ends at the end of a block so that block boundaries can be observed (used by InflaterIndex)
+	private boolean stopAtBlockBoundaries;
+	
 	
 	
 	/* Public main methods */
 	
+	// Decompresses the entire DEFLATE stream from 'in' to 'out' immediately, using the multi-symbol decoder.
 	public Inflater(InputStream in, OutputStream out) throws IOException, DataFormatException {
-		if (in == null || out == null)
+		this(in, out, true);
+	}
+	
+	
+	// If multiSymbol is true, then Huffman blocks are decoded with the multi-symbol look-up tables
+	// (which also resolve length/distance extra bits); otherwise the original code tree walker is used.
+	// Both decoders produce identical output and throw identical exceptions.
+	public Inflater(InputStream in, OutputStream out, boolean multiSymbol) throws IOException, DataFormatException {
+		this(in, multiSymbol);
+		inflateAll(out);
+	}
+	
+	
+	// Decompresses the entire DEFLATE stream starting at the channel's current position to 'out' immediately,
+	// reading the file through memory mappings instead of copying it into a byte buffer. Afterward, the channel
+	// is positioned right after the last byte of the DEFLATE data.
+	public Inflater(FileChannel in, OutputStream out) throws IOException, DataFormatException {
+		this(in, out, true);
+	}
+	
+	
+	public Inflater(FileChannel in, OutputStream out, boolean multiSymbol) throws IOException, DataFormatException {
+		this(in, multiSymbol);
+		inflateAll(out);
+	}
+	
+	
+	// Prepares to decompress the DEFLATE stream from 'in' on demand (pull mode), using the multi-symbol decoder.
+	// Nothing is read until the first call to read().
+	public Inflater(InputStream in) {
+		this(in, true);
+	}
+	
+	
+	// Pull mode with a choice of Huffman decoder, like the eager constructor.
+	public Inflater(InputStream in, boolean multiSymbol) {
+		this(multiSymbol);
+		reset(in);
+	}
+	
+	
+	// Pull mode with mapped file input, starting at the channel's current position.
+	public Inflater(FileChannel in, boolean multiSymbol) throws IOException {
+		this(multiSymbol);
+		reset(in);
+	}
+	
+	
+	// Creates an idle inflater with no input, for reuse across many streams via inflate() or reset() (e.g. from an InflaterPool).
+	// Until then, read() returns -1.
+	public Inflater(boolean multiSymbol) {
+		this(multiSymbol, CODE_TABLE_BITS);
+	}
+	
+	
+	// Idle inflater whose tree decoder uses a code table of the given size in bits, in the range [1, 15].
+	// Only for measuring the effect of the table size (by InflaterBenchmark); output is unaffected.
+	Inflater(boolean multiSymbol, int codeTableBits) {
+		if (codeTableBits < 1 || codeTableBits > 15)
+			throw new IllegalArgumentException("Code table bits must be in the range [1, 15]");
+		// Allocate the buffers, which are kept for the lifetime of this object
+		inputBuffer = new byte[INPUT_BUFFER_SIZE];
+		assert DICTIONARY_SIZE > 0 && Integer.bitCount(DICTIONARY_SIZE) == 1;  // Is power of 2
+		dictionary = new byte[DICTIONARY_SIZE];
+		assert OUTPUT_BUFFER_SIZE >= 258;
+		tempOutputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+		multiSymbolDecoding = multiSymbol;
+		this.codeTableBits = codeTableBits;
+		if (codeTableBits == CODE_TABLE_BITS)
+			fixedLitLenCodeTable = FIXED_LITERAL_LENGTH_CODE_TABLE;
+		else
+			fixedLitLenCodeTable = codeTreeToCodeTable(FIXED_LITERAL_LENGTH_CODE_TREE, codeTableBits);
+		huffmanCache = new HuffmanCodes[HUFFMAN_CACHE_SIZE];
+		codeLengthsBuffer = new byte[288 + 32];
+		state = STATE_END;
+	}
+	
+	
+	
+	// Discards all state and decompresses the entire DEFLATE stream from 'in' to 'out' immediately, like the eager
+	// constructor but reusing this object's buffers. Afterward, getLength() and getCrc32() describe this stream.
+	public void inflate(InputStream in, OutputStream out) throws IOException, DataFormatException {
+		reset(in);
+		inflateAll(out);
+	}
+	
+	
+	// Like inflate(InputStream, OutputStream), but reads the file through memory mappings starting at the channel's current position.
+	public void inflate(FileChannel in, OutputStream out) throws IOException, DataFormatException {
+		reset(in);
+		inflateAll(out);
+	}
+	
+	
+	
+	// Discards all state and prepares to decompress a new DEFLATE stream from 'in' in pull mode,
+	// reusing this object's buffers. The previous input stream is not closed.
+	public void reset(InputStream in) {
+		if (in == null)
 			throw new NullPointerException();
 		if (!in.markSupported())
 			throw new IllegalArgumentException("Input stream needs to be markable");
-		
-		// Initialize all instance fields
 		input = in;
-		output = out;
+		inputChannel = null;
+		resetState();
+	}
+	
+	
+	// Like reset(InputStream), but reads the file through memory mappings starting at the channel's current position.
+	// The previous channel is not closed.
+	public void reset(FileChannel in) throws IOException {
+		if (in == null)
+			throw new NullPointerException();
+		input = null;
+		inputChannel = in;
+		inputChannelStart = in.position();
+		resetState();
+	}
+	
+	
+	// Drops all references to the current input and output streams (e.g. after a failed decompression)
+	// and returns to the idle state, without releasing the buffers.
+	void detach() {
+		input = null;
+		inputChannel = null;
+		resetState();
+		state = STATE_END;
+	}
+	
+	
+	private void resetState() {
+		// Initialize all remaining instance fields
+		output = null;
+		inputMapping = null;
 		
-		inputBuffer = new byte[INPUT_BUFFER_SIZE];
 		inputBufferFilled = 0;
 		inputBufferIndex = 0;
+		inputBufferPosition = 0;
 		inputNextBits = 0;
 		inputNextBitsLength = 0;
 		
-		assert DICTIONARY_SIZE > 0 && Integer.bitCount(DICTIONARY_SIZE) == 1;  // Is power of 2
-		dictionary = new byte[DICTIONARY_SIZE];
+		Arrays.fill(dictionary, (byte)0);  // So that references before the start of the stream behave identically
 		dictionaryIndex = 0;
 		
-		assert OUTPUT_BUFFER_SIZE >= 65535;
-		tempOutputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+		tempOutputStart = 0;
+		tempOutputEnd = 0;
 		
 		outputLength = 0;
-		outputCrc32 = 0xFFFFFFFF;
-		
-		// Start decompressing immediately
-		decompressStream();
+		outputCrc32 = 0;
+		state = STATE_BLOCK_HEADER;
+		isFinalBlock = false;
+		uncompressedRemaining = 0;
+		litLenCodeTree = null;
+		distCodeTree = null;
+		litLenCodeTable = null;
+		litLenTable = null;
+		distTable = null;
+		stopAtBlockBoundaries = false;
+	}
+	
+	
+	// Reads up to 'len' decompressed bytes into 'b' at offset 'off', decompressing more input only as needed.
+	// Returns the number of bytes read (positive if len > 0), or -1 if the end of the DEFLATE stream was reached.
+	// Does not allocate memory, apart from building the decoding tables for each dynamic Huffman block whose codes are not cached (and mapping
+	// each window of the file in mapped input mode).
+	// When the end is reached, the input stream is positioned right after the last byte of the DEFLATE data.
+	public int read(byte[] b, int off, int len) throws IOException, DataFormatException {
+		if (off < 0 || len < 0 || b.length - off < len)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		while (tempOutputStart == tempOutputEnd) {
+			if (state == STATE_END)
+				return -1;
+			inflateChunk();
+		}
+		int n = Math.min(tempOutputEnd - tempOutputStart, len);
+		System.arraycopy(tempOutputBuffer, tempOutputStart, b, off, n);
+		tempOutputStart += n;
+		return n;
 	}
 	
 	
+	// Sets the history that the upcoming DEFLATE data may refer back to, like zlib's inflateSetDictionary().
+	// Only the last 32 KiB of the given data matter. Must be called before any data is decompressed.
+	public void setDictionary(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || b.length - off < len)
+			throw new IndexOutOfBoundsException();
+		if (outputLength != 0 || state != STATE_BLOCK_HEADER || inputBufferPosition != 0 || inputBufferIndex != 0)
+			throw new IllegalStateException("Decompression already started");
+		int n = Math.min(len, DICTIONARY_SIZE);
+		System.arraycopy(b, off + len - n, dictionary, 0, n);
+		dictionaryIndex = n & DICTIONARY_SIZE_MASK;
+	}
+	
+	
+	// Returns the number of decompressed bytes that have been produced but not yet returned by read().
+	public int available() {
+		return tempOutputEnd - tempOutputStart;
+	}
 	
+	
+	// Returns the number of decompressed bytes produced so far (in pull mode, including bytes not yet read).
 	public long getLength() {
 		return outputLength;
 	}
 	
 	
+	// Returns the CRC-32 of the decompressed bytes produced so far.
 	public int getCrc32() {
-		return ~outputCrc32;
+		return outputCrc32;
+	}
+	
+	
+	// Returns the number of dynamic Huffman blocks whose decoding tables were found in this object's cache,
+	// over the lifetime of this object (i.e. across all streams).
+	public long getHuffmanCacheHits() {
+		return huffmanCacheHits;
+	}
+	
+	
+	// Returns the number of dynamic Huffman blocks whose decoding tables had to be built, over the lifetime of this object.
+	public long getHuffmanCacheMisses() {
+		return huffmanCacheMisses;
+	}
+	
+	
+	// Returns the number of input bits consumed so far, where a partial byte is considered to be partially consumed.
+	public long getInputBitPosition() {
+		return (inputBufferPosition + inputBufferIndex) * 8 - inputNextBitsLength;
+	}
+	
+	
+	/* Package-private methods for InflaterIndex */
+	
+	void setStopAtBlockBoundaries(boolean enable) {
+		stopAtBlockBoundaries = enable;
+	}
+	
+	
+	// Tests whether all produced output has been read and the next input bit starts a block header.
+	boolean isAtBlockBoundary() {
+		return state == STATE_BLOCK_HEADER && tempOutputStart == tempOutputEnd;
+	}
+	
+	
+	// Returns a copy of the last min(getLength(), 32 KiB) bytes of output (or preset dictionary), oldest first.
+	// Only valid at a block boundary, when all produced output has been added to the dictionary.
+	byte[] getDictionarySnapshot() {
+		byte[] result = new byte[DICTIONARY_SIZE];
+		int n = DICTIONARY_SIZE - dictionaryIndex;
+		System.arraycopy(dictionary, dictionaryIndex, result, 0, n);
+		System.arraycopy(dictionary, 0, result, n, dictionaryIndex);
+		return result;
+	}
+	
+	
+	// Discards the given number of input bits, for starting in the middle of a byte. Must be in the range [0, 13].
+	void skipInputBits(int n) throws IOException {
+		if (n > 0)
+			readBits(n);
 	}
 	
 	
 	/* Main decompression methods */
 	
-	private void decompressStream() throws IOException, DataFormatException {
-		boolean isFinal;
+	// Decompresses the whole stream to 'out', for the eager constructors.
+	private void inflateAll(OutputStream out) throws IOException, DataFormatException {
+		if (out == null)
+			throw new NullPointerException();
+		output = out;
 		do {
-			isFinal = readBits(1) == 1;
-			int type = readBits(2);
+			int n = inflateChunk();
+			output.write(tempOutputBuffer, 0, n);
+		} while (state != STATE_END);
+		tempOutputStart = tempOutputEnd;
+		output = null;
+	}
+	
+	
+	// Decompresses the next chunk of output into the start of tempOutputBuffer and returns its length. The chunk ends
+	// when the buffer has no room for another run, at the end of the stream, or at the end of a block if requested.
+	private int inflateChunk() throws IOException, DataFormatException {
+		int n = 0;
+		while (state != STATE_END && n <= OUTPUT_BUFFER_SIZE - 258) {
+			if (state == STATE_BLOCK_HEADER) {
+				if (stopAtBlockBoundaries && n > 0)
+					break;
+				beginBlock();
+			} else if (state == STATE_UNCOMPRESSED_BLOCK)
+				n = continueUncompressedBlock(n);
+			else if (multiSymbolDecoding)
+				n = continueHuffmanBlockWithTables(n);
+			else
+				n = continueHuffmanBlock(n);
+		}
+		
+		// Update dictionary and output statistics
+		byte[] b = tempOutputBuffer;
+		appendToDictionary(b, n);
+		outputLength += n;
+		outputCrc32 = Crc32.update(outputCrc32, b, 0, n);
+		tempOutputStart = 0;
+		tempOutputEnd = n;
+		
+		if (state == STATE_END && (input != null || inputChannel != null))
+			finishStream();
+		return n;
+	}
+	
+	
+	private void beginBlock() throws IOException, DataFormatException {
+		isFinalBlock = readBits(1) == 1;
+		int type = readBits(2);
+		
+		if (type == 0) {
+			// Read and check length
+			int n = inputNextBitsLength & 7;  // Discard remaining partial bits
+			if (n > 0)
+				readBits(n);
+			int  len = readBits(16);
+			int nlen = readBits(16);
+			if ((len ^ 0xFFFF) != nlen)
+				throw new DataFormatException("Invalid length in uncompressed block");
+			assert 0 <= len && len <= 65535;
+			uncompressedRemaining = len;
+			state = STATE_UNCOMPRESSED_BLOCK;
 			
-			if (type == 0)
-				decompressUncompressedBlock();
-			else if (type == 1)
-				decompressHuffmanBlock(FIXED_LITERAL_LENGTH_CODE_TREE, FIXED_DISTANCE_CODE_TREE);
-			else if (type == 2) {
-				short[][] codeTrees = decodeHuffmanCodes();
-				decompressHuffmanBlock(codeTrees[0], codeTrees[1]);
-			} else
-				throw new DataFormatException("Invalid block type");
+		} else if (type == 1 || type == 2) {
+			if (type == 1) {  // The tables are immutable, so they are built once and shared
+				litLenCodeTree = FIXED_LITERAL_LENGTH_CODE_TREE;
+				distCodeTree = FIXED_DISTANCE_CODE_TREE;
+				litLenCodeTable = fixedLitLenCodeTable;
+				litLenTable = FIXED_LITERAL_LENGTH_TABLE;
+				distTable = FIXED_DISTANCE_TABLE;
+			} else {
+				HuffmanCodes codes = decodeHuffmanCodes();
+				litLenCodeTree = codes.litLenCodeTree;
+				distCodeTree = codes.distCodeTree;
+				litLenCodeTable = codes.litLenCodeTable;
+				litLenTable = codes.litLenTable;
+				distTable = codes.distTable;
+			}
+			state = STATE_HUFFMAN_BLOCK;
 			
-		} while (!isFinal);
-		
+		} else
+			throw new DataFormatException("Invalid block type");
+	}
+	
+	
+	private void endBlock() {
+		state = isFinalBlock ? STATE_END : STATE_BLOCK_HEADER;
+		litLenCodeTree = null;
+		distCodeTree = null;
+		litLenCodeTable = null;
+		litLenTable = null;
+		distTable = null;
+	}
+	
+	
+	private void finishStream() throws IOException {
 		// Adjust over-consumed bytes
-		input.reset();
 		int skip = inputBufferIndex - inputNextBitsLength / 8;  // Note: A partial byte is considered to be consumed
 		assert skip >= 0;
-		while (skip > 0) {
-			long n = input.skip(skip);
-			if (n <= 0)
-				throw new EOFException();
-			skip -= n;
+		if (inputChannel != null)
+			inputChannel.position(inputChannelStart + inputBufferPosition + skip);
+		else {
+			input.reset();
+			while (skip > 0) {
+				long n = input.skip(skip);
+				if (n <= 0)
+					throw new EOFException();
+				skip -= n;
+			}
 		}
 		
-		// Detatch from streams and free buffers
+		// Detach from stream; the buffers are kept because read() may still return data from tempOutputBuffer
 		input = null;
-		output = null;
-		inputBuffer = null;
+		inputChannel = null;
+		inputMapping = null;
 		inputBufferFilled = 0;
 		inputBufferIndex = 0;
 		inputNextBits = 0;
 		inputNextBitsLength = 0;
-		dictionary = null;
-		dictionaryIndex = 0;
-		tempOutputBuffer = null;
 	}
 	
 	
-	private void decompressUncompressedBlock() throws IOException, DataFormatException {
-		// Set up shorter variable name
-		byte[] buf = tempOutputBuffer;
-		
-		// Read and check length
-		readBytes(buf, 4);
-		int  len = (buf[0] & 0xFF) | (buf[1] & 0xFF) << 8;
-		int nlen = (buf[2] & 0xFF) | (buf[3] & 0xFF) << 8;
-		if ((len ^ 0xFFFF) != nlen)
-			throw new DataFormatException("Invalid length in uncompressed block");
-		assert 0 <= len && len <= 65535;
-		
-		// Read verbatim bytes, append to dictionary, write to output
-		assert 0 <= dictionaryIndex && dictionaryIndex < DICTIONARY_SIZE;
-		readBytes(buf, len);
-		for (int off = 0; off < len; ) {
-			int n = Math.min(DICTIONARY_SIZE - dictionaryIndex, len - off);
-			System.arraycopy(buf, off, dictionary, dictionaryIndex, n);
-			dictionaryIndex = (dictionaryIndex + n) & DICTIONARY_SIZE_MASK;
-			off += n;
-		}
-		writeOutputBuffer(len);
+	// Copies as much of the current uncompressed block as fits into tempOutputBuffer at 'bufIndex',
+	// returning the new buffer index.
+	private int continueUncompressedBlock(int bufIndex) throws IOException {
+		int len = Math.min(uncompressedRemaining, OUTPUT_BUFFER_SIZE - bufIndex);
+		readBytes(tempOutputBuffer, bufIndex, len);
+		uncompressedRemaining -= len;
+		if (uncompressedRemaining == 0)
+			endBlock();
+		return bufIndex + len;
 	}
 	
 	
-	private void decompressHuffmanBlock(short[] litLenCodeTree, short[] distCodeTree) throws IOException, DataFormatException {
+	// Decodes symbols of the current Huffman block into tempOutputBuffer starting at 'bufIndex', until
+	// the block ends or the buffer has no room for another run. Returns the new buffer index.
+	private int continueHuffmanBlock(int bufIndex) throws IOException, DataFormatException {
 		// Set up shorter variable names
+		short[] litLenCodeTree = this.litLenCodeTree;
+		short[] litLenCodeTable = this.litLenCodeTable;
+		int codeTableBits = this.codeTableBits;
+		int codeTableMask = (1 << codeTableBits) - 1;
 		assert litLenCodeTree != null;
 		byte[] buf = tempOutputBuffer;
-		int bufIndex = 0;
-		byte[] dict = dictionary;
-		int dictIndex = dictionaryIndex;
-		assert 0 <= dictIndex && dictIndex < DICTIONARY_SIZE;
 		
-		short[] litLenCodeTable = codeTreeToCodeTable(litLenCodeTree);
-		while (true) {
+		while (bufIndex <= OUTPUT_BUFFER_SIZE - 258) {
 			// Decode the next symbol from the literal/run Huffman code
 			// This first block of code is equivalent to: int sym = decodeSymbol(litLenCodeTree);
 			int bits = (int)inputNextBits;
 			int count = inputNextBitsLength;
 			int node = 0;
 			while (true) {
-				if (count >= CODE_TABLE_BITS) {  // Fast path using code table
-					int temp = litLenCodeTable[bits & ((1 << CODE_TABLE_BITS) - 1)];
+				if (count >= codeTableBits) {  // Fast path using code table
+					int temp = litLenCodeTable[bits & codeTableMask];
 					assert temp >= 0;  // No need to mask off sign extension bits
 					int consumed = temp >>> 11;
 					bits >>>= consumed;
@@ -210,14 +544,8 @@ public final class Inflater {
 			assert 0 <= sym && sym <= 285;
 			
 			if (sym < 256) {  // Literal byte
-				dict[dictIndex] = buf[bufIndex] = (byte)sym;
-				dictIndex = (dictIndex + 1) & DICTIONARY_SIZE_MASK;
+				buf[bufIndex] = (byte)sym;
 				bufIndex++;
-				if (bufIndex == OUTPUT_BUFFER_SIZE) {
-					dictionaryIndex = dictIndex;
-					writeOutputBuffer(bufIndex);
-					bufIndex = 0;
-				}
 				
 			} else if (sym > 256) {  // Length and distance for copying
 				// Decode symbols
@@ -229,35 +557,185 @@ public final class Inflater {
 				assert 0 <= distSym && distSym <= 29;
 				int dist = decodeDistance(distSym);
 				assert 1 <= dist && dist <= 32768;
+				bufIndex = copyRun(bufIndex, len, dist);
 				
-				// Ensure sufficient room in buffer
-				if (bufIndex + len > OUTPUT_BUFFER_SIZE) {
-					dictionaryIndex = dictIndex;
-					writeOutputBuffer(bufIndex);
-					bufIndex = 0;
+			} else {  // sym == 256, end of block
+				endBlock();
+				break;
+			}
+		}
+		return bufIndex;
+	}
+	
+	
+	/* 
+	 * Like continueHuffmanBlock(), but uses the tables made by codeTreeToLiteralLengthTable() and
+	 * codeTreeToDistanceTable(). One look-up yields up to 3 literals, or a run length with its
+	 * extra bits already added in (if they fit in the table index). This fast path only consumes
+	 * bits that are already in the current input buffer; near the end of each input buffer it
+	 * falls back to decoding one symbol at a time with decodeSymbol() and readBits().
+	 */
+	private int continueHuffmanBlockWithTables(int bufIndex) throws IOException, DataFormatException {
+		// Set up shorter variable names
+		short[] litLenCodeTree = this.litLenCodeTree;
+		short[] distCodeTree = this.distCodeTree;
+		int[] litLenTable = this.litLenTable;
+		int[] distTable = this.distTable;
+		assert litLenCodeTree != null;
+		byte[] buf = tempOutputBuffer;
+		
+		while (bufIndex <= OUTPUT_BUFFER_SIZE - 258) {
+			if (inputNextBitsLength < MAX_BITS_PER_RUN)
+				refillBitsFromInputBuffer();
+			int len;
+			int dist;
+			
+			if (inputNextBitsLength >= MAX_BITS_PER_RUN) {  // Fast path using tables on buffered bits
+				long bits = inputNextBits;
+				int entry = litLenTable[(int)bits & ((1 << LITERAL_LENGTH_TABLE_BITS) - 1)];
+				int consumed = entry & 0x1F;
+				int kind = (entry >>> 5) & 7;
+				
+				if (kind <= 3 && kind >= 1) {  // 1 to 3 literal bytes
+					buf[bufIndex] = (byte)(entry >>> 8);
+					if (kind >= 2) {
+						buf[bufIndex + 1] = (byte)(entry >>> 16);
+						if (kind == 3)
+							buf[bufIndex + 2] = (byte)(entry >>> 24);
+					}
+					bufIndex += kind;
+					inputNextBits = bits >>> consumed;
+					inputNextBitsLength -= consumed;
+					continue;
 				}
 				
-				// Copy bytes to output and dictionary
-				int dictReadIndex = (dictIndex - dist) & DICTIONARY_SIZE_MASK;
-				for (int bufEnd = bufIndex + len; bufIndex < bufEnd; bufIndex++) {
-					dict[dictIndex] = buf[bufIndex] = dict[dictReadIndex];
-					dictIndex = (dictIndex + 1) & DICTIONARY_SIZE_MASK;
-					dictReadIndex = (dictReadIndex + 1) & DICTIONARY_SIZE_MASK;
+				if (kind == TABLE_KIND_LENGTH) {
+					bits >>>= consumed;
+					int extra = (entry >>> 17) & 7;
+					len = ((entry >>> 8) & 0x1FF) + ((int)bits & ((1 << extra) - 1));
+					bits >>>= extra;
+					consumed += extra;
+				} else if (kind == TABLE_KIND_END_OF_BLOCK) {
+					inputNextBits = bits >>> consumed;
+					inputNextBitsLength -= consumed;
+					endBlock();
+					break;
+				} else if (kind == TABLE_KIND_INVALID) {
+					throw new DataFormatException("Invalid run length symbol: " + (entry >>> 8));
+				} else {  // kind == TABLE_KIND_SUBTREE; finish the long code by walking the tree
+					assert kind == TABLE_KIND_SUBTREE;
+					int node = entry >>> 8;
+					bits >>>= consumed;
+					do {
+						node = litLenCodeTree[node + ((int)bits & 1)];
+						bits >>>= 1;
+						consumed++;
+					} while (node >= 0);
+					int sym = ~node;
+					if (sym < 256) {
+						buf[bufIndex] = (byte)sym;
+						bufIndex++;
+						inputNextBits = bits;
+						inputNextBitsLength -= consumed;
+						continue;
+					} else if (sym == 256) {
+						inputNextBits = bits;
+						inputNextBitsLength -= consumed;
+						endBlock();
+						break;
+					} else if (sym > 285)
+						throw new DataFormatException("Invalid run length symbol: " + sym);
+					int extra = RUN_LENGTH_EXTRA_BITS[sym - 257];
+					len = RUN_LENGTH_BASE[sym - 257] + ((int)bits & ((1 << extra) - 1));
+					bits >>>= extra;
+					consumed += extra;
 				}
 				
-			} else  // sym == 256, end of block
-				break;
+				// Decode the distance
+				if (distTable == null)
+					throw new DataFormatException("Length symbol encountered with empty distance code");
+				entry = distTable[(int)bits & ((1 << DISTANCE_TABLE_BITS) - 1)];
+				int distConsumed = entry & 0x1F;
+				bits >>>= distConsumed;
+				consumed += distConsumed;
+				kind = (entry >>> 25) & 3;
+				int extra = (entry >>> 5) & 0xF;
+				if (kind == TABLE_KIND_DISTANCE)
+					dist = (entry >>> 9) & 0xFFFF;
+				else if (kind == TABLE_KIND_SUBTREE) {
+					int node = (entry >>> 9) & 0xFFFF;
+					do {
+						node = distCodeTree[node + ((int)bits & 1)];
+						bits >>>= 1;
+						consumed++;
+					} while (node >= 0);
+					int distSym = ~node;
+					if (distSym > 29)
+						throw new DataFormatException("Invalid distance symbol: " + distSym);
+					dist = DISTANCE_BASE[distSym];
+					extra = DISTANCE_EXTRA_BITS[distSym];
+				} else
+					throw new DataFormatException("Invalid distance symbol: " + ((entry >>> 9) & 0xFFFF));
+				dist += (int)bits & ((1 << extra) - 1);
+				consumed += extra;
+				assert consumed <= MAX_BITS_PER_RUN;
+				inputNextBits >>>= consumed;
+				inputNextBitsLength -= consumed;
+				
+			} else {  // Slow path near the end of the input buffer; equivalent to continueHuffmanBlock()
+				int sym = decodeSymbol(litLenCodeTree);
+				if (sym < 256) {
+					buf[bufIndex] = (byte)sym;
+					bufIndex++;
+					continue;
+				} else if (sym == 256) {
+					endBlock();
+					break;
+				}
+				len = decodeRunLength(sym);
+				if (distCodeTree == null)
+					throw new DataFormatException("Length symbol encountered with empty distance code");
+				dist = decodeDistance(decodeSymbol(distCodeTree));
+			}
+			assert 3 <= len && len <= 258;
+			assert 1 <= dist && dist <= 32768;
+			bufIndex = copyRun(bufIndex, len, dist);
 		}
-		
-		// Save variable, write output buffer
-		dictionaryIndex = dictIndex;
-		writeOutputBuffer(bufIndex);
+		return bufIndex;
+	}
+	
+	
+	// Appends a run of 'len' bytes starting 'dist' bytes back to tempOutputBuffer at 'bufIndex', and returns
+	// the new buffer index. Sources within the current chunk are read from tempOutputBuffer, and older
+	// sources from the dictionary (which does not yet contain the current chunk).
+	private int copyRun(int bufIndex, int len, int dist) {
+		byte[] buf = tempOutputBuffer;
+		int end = bufIndex + len;
+		if (dist > bufIndex) {
+			int dictReadIndex = (dictionaryIndex - (dist - bufIndex)) & DICTIONARY_SIZE_MASK;
+			int n = Math.min(dist - bufIndex, len);
+			byte[] dict = dictionary;
+			for (int i = 0; i < n; i++, bufIndex++) {
+				buf[bufIndex] = dict[dictReadIndex];
+				dictReadIndex = (dictReadIndex + 1) & DICTIONARY_SIZE_MASK;
+			}
+		}
+		if (dist >= len) {  // Non-overlapping
+			if (bufIndex < end)
+				System.arraycopy(buf, bufIndex - dist, buf, bufIndex, end - bufIndex);
+		} else {
+			for (int i = bufIndex - dist; bufIndex < end; bufIndex++, i++)
+				buf[bufIndex] = buf[i];
+		}
+		return end;
 	}
 	
 	
 	/* Huffman coding methods */
 	
-	private short[][] decodeHuffmanCodes() throws IOException, DataFormatException {
+	// Reads the code lengths of a dynamic Huffman block header, and returns the decoding structures for
+	// those codes, either from the cache or newly built (and then added to the cache).
+	private HuffmanCodes decodeHuffmanCodes() throws IOException, DataFormatException {
 		int numLitLenCodes  = readBits(5) + 257;  // hlit  + 257
 		int numDistCodes    = readBits(5) +   1;  // hdist +   1
 		
@@ -267,10 +745,11 @@ public final class Inflater {
 			codeLenCodeLen[CODE_LENGTH_CODE_ORDER[i]] = (byte)readBits(3);
 		short[] codeLenCodeTree = codeLengthsToCodeTree(codeLenCodeLen);
 		
-		byte[] codeLens = new byte[numLitLenCodes + numDistCodes];
+		byte[] codeLens = codeLengthsBuffer;
+		int numCodes = numLitLenCodes + numDistCodes;
 		byte runVal = -1;
 		int runLen = 0;
-		for (int i = 0; i < codeLens.length; ) {
+		for (int i = 0; i < numCodes; ) {
 			if (runLen > 0) {
 				assert runVal != -1;
 				codeLens[i] = runVal;
@@ -298,11 +777,28 @@ public final class Inflater {
 		if (runLen > 0)
 			throw new DataFormatException("Run exceeds number of codes");
 		
+		// Look up the cache, moving a hit to the front
+		int hash = numLitLenCodes;
+		for (int i = 0; i < numCodes; i++)
+			hash = hash * 31 + codeLens[i];
+		HuffmanCodes[] cache = huffmanCache;
+		for (int i = 0; i < cache.length && cache[i] != null; i++) {
+			HuffmanCodes codes = cache[i];
+			if (codes.hash == hash && codes.numLitLenCodes == numLitLenCodes
+					&& Arrays.equals(codes.codeLengths, 0, codes.codeLengths.length, codeLens, 0, numCodes)) {
+				System.arraycopy(cache, 0, cache, 1, i);
+				cache[0] = codes;
+				huffmanCacheHits++;
+				return codes;
+			}
+		}
+		huffmanCacheMisses++;
+		
 		// Create code trees
 		byte[] litLenCodeLen = Arrays.copyOf(codeLens, numLitLenCodes);
 		short[] litLenCodeTree = codeLengthsToCodeTree(litLenCodeLen);
 		
-		byte[] distCodeLen = Arrays.copyOfRange(codeLens, numLitLenCodes, codeLens.length);
+		byte[] distCodeLen = Arrays.copyOfRange(codeLens, numLitLenCodes, numCodes);
 		short[] distCodeTree;
 		if (distCodeLen.length == 1 && distCodeLen[0] == 0)
 			distCodeTree = null;  // Empty distance code; the block shall be all literal symbols
@@ -326,7 +822,48 @@ public final class Inflater {
 			distCodeTree = codeLengthsToCodeTree(distCodeLen);
 		}
 		
-		return new short[][]{litLenCodeTree, distCodeTree};
+		// Create tables and insert into the cache, evicting the least recently used entry
+		HuffmanCodes result;
+		if (multiSymbolDecoding) {
+			result = new HuffmanCodes(Arrays.copyOf(codeLens, numCodes), numLitLenCodes, hash, litLenCodeTree, distCodeTree,
+				null, codeTreeToLiteralLengthTable(litLenCodeTree), distCodeTree != null ? codeTreeToDistanceTable(distCodeTree) : null);
+		} else {
+			result = new HuffmanCodes(Arrays.copyOf(codeLens, numCodes), numLitLenCodes, hash, litLenCodeTree, distCodeTree,
+				codeTreeToCodeTable(litLenCodeTree, codeTableBits), null, null);
+		}
+		if (cache.length > 0) {
+			System.arraycopy(cache, 0, cache, 1, cache.length - 1);
+			cache[0] = result;
+		}
+		return result;
+	}
+	
+	
+	// The immutable decoding structures for one pair of dynamic Huffman codes, as used by beginBlock().
+	private static final class HuffmanCodes {
+		
+		public final byte[] codeLengths;  // Literal/length code lengths followed by distance code lengths, as read from the block header
+		public final int numLitLenCodes;
+		public final int hash;  // Of numLitLenCodes and codeLengths
+		
+		public final short[] litLenCodeTree;
+		public final short[] distCodeTree;    // Null if the distance code is empty
+		public final short[] litLenCodeTable; // Null if multi-symbol decoding is used
+		public final int[] litLenTable;       // Null unless multi-symbol decoding is used
+		public final int[] distTable;         // Null unless multi-symbol decoding is used and the distance code is non-empty
+		
+		
+		public HuffmanCodes(byte[] codeLens, int numLitLen, int hash, short[] litLenTree, short[] distTree, short[] litLenCodeTab, int[] litLenTab, int[] distTab) {
+			codeLengths = codeLens;
+			numLitLenCodes = numLitLen;
+			this.hash = hash;
+			litLenCodeTree = litLenTree;
+			distCodeTree = distTree;
+			litLenCodeTable = litLenCodeTab;
+			litLenTable = litLenTab;
+			distTable = distTab;
+		}
+		
 	}
 	
 	
@@ -478,20 +1015,20 @@ public final class Inflater {
 	
 	/* 
 	 * Converts a code tree array into a fast look-up table that consumes up to
-	 * CODE_TABLE_BITS at once. Each entry i in the table encodes the result of
+	 * tableBits at once. Each entry i in the table encodes the result of
 	 * decoding starting from the root and consuming the bits of i starting from
 	 * the lowest-order bits.
 	 * 
 	 * Each array element encodes (numBitsConsumed << 11) | (node & 0x7FF), where:
-	 * - numBitsConsumed is a 4-bit unsigned integer in the range [1, CODE_TABLE_BITS].
+	 * - numBitsConsumed is a 4-bit unsigned integer in the range [1, tableBits].
 	 * - node is an 11-bit signed integer representing either the current node
 	 *   (which is a non-negative number) after consuming all the available bits
 	 *   from i, or the bitwise complement of the decoded symbol (so it's negative).
 	 * Note that each element is a non-negative number.
 	 */
-	private static short[] codeTreeToCodeTable(short[] codeTree) {
-		assert 1 <= CODE_TABLE_BITS && CODE_TABLE_BITS <= 15;
-		short[] result = new short[1 << CODE_TABLE_BITS];
+	private static short[] codeTreeToCodeTable(short[] codeTree, int tableBits) {
+		assert 1 <= tableBits && tableBits <= 15;
+		short[] result = new short[1 << tableBits];
 		for (int i = 0; i < result.length; i++) {
 			// Simulate decodeSymbol() using the bits of i
 			int node = 0;
@@ -499,7 +1036,7 @@ public final class Inflater {
 			do {
 				node = codeTree[node + ((i >>> consumed) & 1)];
 				consumed++;
-			} while (node >= 0 && consumed < CODE_TABLE_BITS);
+			} while (node >= 0 && consumed < tableBits);
 			
 			assert 1 <= consumed && consumed <= 15;  // 4 bits unsigned
 			assert -1024 <= node && node <= 1023;  // 11 bits signed
@@ -512,11 +1049,140 @@ public final class Inflater {
 	private static final int CODE_TABLE_BITS = 9;  // Any integer from 1 to 15 is valid; affects speed
 	
 	
+	/* 
+	 * Converts a literal/length code tree into a multi-symbol look-up table indexed by the next
+	 * LITERAL_LENGTH_TABLE_BITS input bits (lowest-order bit first). Each int element encodes:
+	 * - Bits 0 to 4: Number of input bits consumed by the entry.
+	 * - Bits 5 to 7: Kind of entry. Values 1 to 3 mean that many literal bytes, which are packed
+	 *   in bits 8 to 15, 16 to 23, and 24 to 31. Otherwise one of the TABLE_KIND_* values below.
+	 * - TABLE_KIND_LENGTH: Bits 8 to 16 are the run length (or its base value), and bits 17 to 19
+	 *   are the number of extra bits still to be read. If the code and all its extra bits fit in
+	 *   the table index, then the extra bits are already included and the count is 0.
+	 * - TABLE_KIND_SUBTREE: The code is longer than the table index; bits 8 and up are the code tree
+	 *   node reached after consuming LITERAL_LENGTH_TABLE_BITS bits.
+	 * - TABLE_KIND_INVALID: Bits 8 and up are the symbol (286 or 287) that was decoded.
+	 */
+	private static int[] codeTreeToLiteralLengthTable(short[] codeTree) {
+		int[] single = codeTreeToSymbolTable(codeTree, LITERAL_LENGTH_TABLE_BITS);
+		int[] result = new int[single.length];
+		for (int i = 0; i < result.length; i++) {
+			int node = single[i] >> 5;
+			int consumed = single[i] & 0x1F;
+			int entry;
+			if (node >= 0)
+				entry = node << 8 | TABLE_KIND_SUBTREE << 5 | consumed;
+			else {
+				int sym = ~node;
+				if (sym < 256) {
+					// Pack more literals while their codes fit in the remaining index bits
+					entry = sym << 8;
+					int count = 1;
+					while (count < 3) {
+						int next = single[i >>> consumed];
+						int nextConsumed = next & 0x1F;
+						int nextSym = ~(next >> 5);
+						if (next >= 0 || nextSym >= 256 || consumed + nextConsumed > LITERAL_LENGTH_TABLE_BITS)
+							break;
+						entry |= nextSym << (8 + count * 8);
+						consumed += nextConsumed;
+						count++;
+					}
+					entry |= count << 5 | consumed;
+				} else if (sym == 256)
+					entry = TABLE_KIND_END_OF_BLOCK << 5 | consumed;
+				else if (sym <= 285) {
+					int len = RUN_LENGTH_BASE[sym - 257];
+					int extra = RUN_LENGTH_EXTRA_BITS[sym - 257];
+					if (consumed + extra <= LITERAL_LENGTH_TABLE_BITS) {
+						len += (i >>> consumed) & ((1 << extra) - 1);
+						consumed += extra;
+						extra = 0;
+					}
+					entry = extra << 17 | len << 8 | TABLE_KIND_LENGTH << 5 | consumed;
+				} else
+					entry = sym << 8 | TABLE_KIND_INVALID << 5 | consumed;
+			}
+			result[i] = entry;
+		}
+		return result;
+	}
+	
+	
+	/* 
+	 * Converts a distance code tree into a look-up table indexed by the next DISTANCE_TABLE_BITS
+	 * input bits. Each int element encodes:
+	 * - Bits 0 to 4: Number of input bits consumed by the entry.
+	 * - Bits 5 to 8: Number of extra bits still to be read (0 if they fit in the table index
+	 *   and are already included in the distance).
+	 * - Bits 9 to 24: The distance or its base value, the code tree node to continue walking from
+	 *   (for TABLE_KIND_SUBTREE), or the invalid symbol (for TABLE_KIND_INVALID).
+	 * - Bits 25 to 26: Kind of entry.
+	 */
+	private static int[] codeTreeToDistanceTable(short[] codeTree) {
+		int[] single = codeTreeToSymbolTable(codeTree, DISTANCE_TABLE_BITS);
+		int[] result = new int[single.length];
+		for (int i = 0; i < result.length; i++) {
+			int node = single[i] >> 5;
+			int consumed = single[i] & 0x1F;
+			int entry;
+			if (node >= 0)
+				entry = TABLE_KIND_SUBTREE << 25 | node << 9 | consumed;
+			else {
+				int sym = ~node;
+				if (sym <= 29) {
+					int dist = DISTANCE_BASE[sym];
+					int extra = DISTANCE_EXTRA_BITS[sym];
+					if (consumed + extra <= DISTANCE_TABLE_BITS) {
+						dist += (i >>> consumed) & ((1 << extra) - 1);
+						consumed += extra;
+						extra = 0;
+					}
+					entry = TABLE_KIND_DISTANCE << 25 | dist << 9 | extra << 5 | consumed;
+				} else
+					entry = TABLE_KIND_INVALID_DISTANCE << 25 | sym << 9 | consumed;
+			}
+			result[i] = entry;
+		}
+		return result;
+	}
+	
+	
+	// Returns a table where each entry i is (node << 5 | consumed), simulating decodeSymbol() on the
+	// bits of i but stopping after tableBits bits. The node is negative if a leaf symbol was reached.
+	private static int[] codeTreeToSymbolTable(short[] codeTree, int tableBits) {
+		int[] result = new int[1 << tableBits];
+		for (int i = 0; i < result.length; i++) {
+			int node = 0;
+			int consumed = 0;
+			do {
+				node = codeTree[node + ((i >>> consumed) & 1)];
+				consumed++;
+			} while (node >= 0 && consumed < tableBits);
+			result[i] = node << 5 | consumed;
+		}
+		return result;
+	}
+	
+	private static final int LITERAL_LENGTH_TABLE_BITS = 11;  // Any integer from 1 to 15 is valid; affects speed
+	private static final int DISTANCE_TABLE_BITS = 8;  // Any integer from 1 to 15 is valid; affects speed
+	
+	// Kinds of table entries (values 1 to 3 are literal counts in literal/length tables)
+	private static final int TABLE_KIND_SUBTREE = 0;
+	private static final int TABLE_KIND_LENGTH = 4;
+	private static final int TABLE_KIND_END_OF_BLOCK = 5;
+	private static final int TABLE_KIND_INVALID = 6;
+	private static final int TABLE_KIND_DISTANCE = 1;  // Only used in distance tables, at a different bit position
+	private static final int TABLE_KIND_INVALID_DISTANCE = 2;  // Likewise
+	
+	// Upper bound on bits consumed by one literal/length code, its extra bits, one distance code, and its extra bits
+	private static final int MAX_BITS_PER_RUN = 15 + 5 + 15 + 13;
+	
+	
 	/* I/O methods */
 	
 	// Reads the given number of bits from the input stream, return a non-negative integer in bit little endian
 	private int readBits(int n) throws IOException {
-		assert 1 <= n && n <= 13;  // n = 13 is the maximum used in DEFLATE, but this method is designed to be valid for n <= 31
+		assert 1 <= n && n <= 16;  // n = 16 is the maximum used (stored block lengths), but this method is designed to be valid for n <= 31
 		assert 0 <= inputNextBitsLength && inputNextBitsLength <= 63;
 		assert inputNextBits >>> inputNextBitsLength == 0;  // Ensure high-order bits are clean
 		
@@ -528,7 +1194,9 @@ public final class Inflater {
 			// Fill bit buffer with as many bytes as possible
 			int bytes = Math.min((64 - inputNextBitsLength) >>> 3, inputBufferFilled - i);
 			long temp;
-			if (bytes == 8)  // ~90% hit rate
+			if (inputMapping != null && bytes > 0)
+				temp = loadMappedBytes(i, bytes);
+			else if (bytes == 8)  // ~90% hit rate
 				temp = (((buf[i]&0xFF) | (buf[i+1]&0xFF)<<8 | (buf[i+2]&0xFF)<<16 | buf[i+3]<<24) & 0xFFFFFFFFL) | (long)((buf[i+4]&0xFF) | (buf[i+5]&0xFF)<<8 | (buf[i+6]&0xFF)<<16 | buf[i+7]<<24) << 32;
 			else if (bytes == 7)  // ~5% hit rate
 				temp = (((buf[i]&0xFF) | (buf[i+1]&0xFF)<<8 | (buf[i+2]&0xFF)<<16 | buf[i+3]<<24) & 0xFFFFFFFFL) | (long)((buf[i+4]&0xFF) | (buf[i+5]&0xFF)<<8 | (buf[i+6]&0xFF)<<16) << 32;
@@ -563,9 +1231,9 @@ public final class Inflater {
 	}
 	
 	
-	// Reads 'len' bytes into the beginning of 'b'. Only used by decompressUncompressedBlock().
-	private void readBytes(byte[] b, int len) throws IOException {
-		assert b.length >= len;
+	// Reads 'len' bytes into 'b' at offset 'off'. Only used by continueUncompressedBlock().
+	private void readBytes(byte[] b, int off, int len) throws IOException {
+		assert b.length - off >= len;
 		assert 0 <= inputNextBitsLength && inputNextBitsLength <= 63;
 		assert inputNextBits >>> inputNextBitsLength == 0;
 		
@@ -576,8 +1244,8 @@ public final class Inflater {
 		assert inputNextBitsLength % 8 == 0;
 		
 		// Unpack saved bits first
-		int off = 0;
-		for (; inputNextBitsLength >= 8 && off < len; off++) {
+		int end = off + len;
+		for (; inputNextBitsLength >= 8 && off < end; off++) {
 			b[off] = (byte)inputNextBits;
 			inputNextBits >>>= 8;
 			inputNextBitsLength -= 8;
@@ -585,55 +1253,119 @@ public final class Inflater {
 		
 		// Read/copy from buffer
 		assert 0 <= inputBufferIndex && inputBufferIndex <= Math.max(inputBufferFilled, 0);
-		while (off < len) {
+		while (off < end) {
 			if (inputBufferIndex >= inputBufferFilled)
 				fillInputBuffer();
 			if (inputBufferFilled == -1)
 				throw new EOFException();
 			
-			n = Math.min(len - off, inputBufferFilled - inputBufferIndex);
-			System.arraycopy(inputBuffer, inputBufferIndex, b, off, n);
+			n = Math.min(end - off, inputBufferFilled - inputBufferIndex);
+			if (inputMapping != null)
+				inputMapping.get(inputBufferIndex, b, off, n);
+			else
+				System.arraycopy(inputBuffer, inputBufferIndex, b, off, n);
 			inputBufferIndex += n;
 			off += n;
 		}
 	}
 	
 	
+	// Tops up the bit buffer with as many whole bytes as fit, but only from the current input buffer.
+	// Never reads from the underlying stream, so it is fine for the buffer to run out here.
+	private void refillBitsFromInputBuffer() {
+		assert 0 <= inputNextBitsLength && inputNextBitsLength <= 63;
+		int i = inputBufferIndex;
+		byte[] buf = inputBuffer;
+		int bytes = Math.min((64 - inputNextBitsLength) >>> 3, inputBufferFilled - i);
+		long temp;
+		if (inputMapping != null && bytes > 0)
+			temp = loadMappedBytes(i, bytes);
+		else if (bytes == 8)
+			temp = (((buf[i]&0xFF) | (buf[i+1]&0xFF)<<8 | (buf[i+2]&0xFF)<<16 | buf[i+3]<<24) & 0xFFFFFFFFL) | (long)((buf[i+4]&0xFF) | (buf[i+5]&0xFF)<<8 | (buf[i+6]&0xFF)<<16 | buf[i+7]<<24) << 32;
+		else if (bytes > 0) {
+			temp = 0;
+			for (int j = 0; j < bytes; i++, j++)
+				temp |= (buf[i] & 0xFFL) << (j << 3);
+		} else
+			return;
+		inputNextBits |= temp << inputNextBitsLength;
+		inputNextBitsLength += bytes << 3;
+		inputBufferIndex += bytes;
+	}
+	
+	
 	private void fillInputBuffer() throws IOException {
 		if (inputBufferFilled == -1)  // Previous fill already hit EOF
 			throw new EOFException();
 		if (inputBufferIndex < inputBufferFilled)
 			throw new AssertionError("Input buffer not fully consumed yet");
 		
-		input.mark(inputBuffer.length);  // Acknowledge all previously read bytes
-		inputBufferFilled = input.read(inputBuffer);
+		inputBufferPosition += Math.max(inputBufferFilled, 0);
 		inputBufferIndex = 0;
+		if (inputChannel != null) {
+			// Map the next window of the file instead of copying it
+			long pos = inputChannelStart + inputBufferPosition;
+			long n = Math.min(inputChannel.size() - pos, MAPPING_WINDOW_SIZE);
+			if (n > 0) {
+				inputMapping = inputChannel.map(FileChannel.MapMode.READ_ONLY, pos, n).order(ByteOrder.LITTLE_ENDIAN);
+				inputBufferFilled = (int)n;
+			} else {
+				inputMapping = null;
+				inputBufferFilled = -1;
+			}
+		} else {
+			input.mark(inputBuffer.length);  // Acknowledge all previously read bytes
+			inputBufferFilled = input.read(inputBuffer);
+		}
 	}
 	
 	
-	private void writeOutputBuffer(int len) throws IOException {
-		// Write to underlying stream, update total length
-		byte[] b = tempOutputBuffer;
-		output.write(b, 0, len);
-		outputLength += len;
-		assert (outputLength & DICTIONARY_SIZE_MASK) == dictionaryIndex;
-		
-		// Update CRC-32 hash
-		int crc = outputCrc32;
-		for (int i = 0; i < len; i++)
-			crc = (crc >>> 8) ^ CRC32_XOR_TABLE[(crc ^ b[i]) & 0xFF];
-		outputCrc32 = crc;
+	// Returns the given number of bytes (in the range [1, 8]) of the mapped window starting at index i, in little endian.
+	// Uses a single 8-byte load unless the window ends within 8 bytes of i.
+	private long loadMappedBytes(int i, int bytes) {
+		ByteBuffer buf = inputMapping;
+		if (buf.limit() - i >= 8) {
+			long temp = buf.getLong(i);
+			return bytes == 8 ? temp : temp & ((1L << (bytes << 3)) - 1);
+		}
+		long temp = 0;
+		for (int j = 0; j < bytes; i++, j++)
+			temp |= (buf.get(i) & 0xFFL) << (j << 3);
+		return temp;
+	}
+	
+	
+	// Appends the first 'len' bytes of 'b' to the circular dictionary.
+	private void appendToDictionary(byte[] b, int len) {
+		assert 0 <= dictionaryIndex && dictionaryIndex < DICTIONARY_SIZE;
+		int off = Math.max(len - DICTIONARY_SIZE, 0);  // Older bytes would be overwritten anyway
+		dictionaryIndex = (dictionaryIndex + off) & DICTIONARY_SIZE_MASK;
+		while (off < len) {
+			int n = Math.min(DICTIONARY_SIZE - dictionaryIndex, len - off);
+			System.arraycopy(b, off, dictionary, dictionaryIndex, n);
+			dictionaryIndex = (dictionaryIndex + n) & DICTIONARY_SIZE_MASK;
+			off += n;
+		}
 	}
 	
 	
 	
 	/* Static tables */
 	
-	private static final int[] CODE_LENGTH_CODE_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+	// The tables that are not private are shared with Deflater
+	static final int[] CODE_LENGTH_CODE_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
 	
 	private static final short[] FIXED_LITERAL_LENGTH_CODE_TREE;
 	private static final short[] FIXED_DISTANCE_CODE_TREE;
-	private static final int[] CRC32_XOR_TABLE;
+	private static final short[] FIXED_LITERAL_LENGTH_CODE_TABLE;
+	private static final int[] FIXED_LITERAL_LENGTH_TABLE;
+	private static final int[] FIXED_DISTANCE_TABLE;
+	
+	// Indexed by (run length symbol - 257) and by distance symbol respectively
+	static final int[] RUN_LENGTH_BASE = new int[29];
+	static final int[] RUN_LENGTH_EXTRA_BITS = new int[29];
+	static final int[] DISTANCE_BASE = new int[30];
+	static final int[] DISTANCE_EXTRA_BITS = new int[30];
 	
 	static {
 		// Fixed Huffman code trees (for block type 1)
@@ -652,16 +1384,23 @@ public final class Inflater {
 			throw new AssertionError(e);
 		}
 		
-		// CRC-32 table
-		CRC32_XOR_TABLE = new int[256];
-		final int POLYNOMIAL = 0xEDB88320;
-		for (int i = 0; i < 256; i++) {
-			int reg = i;
-			for (int j = 0; j < 8; j++)
-				reg = (reg >>> 1) ^ ((reg & 1) * POLYNOMIAL);
-			CRC32_XOR_TABLE[i] = reg;
+		// Run length and distance tables, equivalent to decodeRunLength() and decodeDistance()
+		for (int sym = 257; sym <= 285; sym++) {
+			int n = 257 <= sym && sym <= 264 || sym == 285 ? 0 : (sym - 261) >>> 2;
+			RUN_LENGTH_EXTRA_BITS[sym - 257] = n;
+			RUN_LENGTH_BASE[sym - 257] = sym <= 264 ? sym - 254 : sym == 285 ? 258 : ((((sym - 1) & 3) | 4) << n) + 3;
+		}
+		for (int sym = 0; sym <= 29; sym++) {
+			int n = sym <= 3 ? 0 : (sym >>> 1) - 1;
+			DISTANCE_EXTRA_BITS[sym] = n;
+			DISTANCE_BASE[sym] = sym <= 3 ? sym + 1 : (((sym & 1) | 2) << n) + 1;
 		}
 		
+		// Fixed Huffman look-up tables, which depend on the tables above
+		FIXED_LITERAL_LENGTH_CODE_TABLE = codeTreeToCodeTable(FIXED_LITERAL_LENGTH_CODE_TREE, CODE_TABLE_BITS);
+		FIXED_LITERAL_LENGTH_TABLE = codeTreeToLiteralLengthTable(FIXED_LITERAL_LENGTH_CODE_TREE);
+		FIXED_DISTANCE_TABLE = codeTreeToDistanceTable(FIXED_DISTANCE_CODE_TREE);
+		
 		// Test if assertions are on
 		try {
 			assert false;
@@ -0,0 +1,336 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+
+/* 
+ * Benchmark suite for the decompression hot paths: the bit input streams, and Inflater's code tree and
+ * multi-symbol table decoders against java.util.zip.Inflater. Each benchmark is run for a number of
+ * timed warm-up iterations and then measurement iterations, reporting the mean throughput with its
+ * standard deviation, and the bytes allocated per operation (where the JVM supports measuring it).
+ * 
+ * Usage: java InflaterBenchmark [-quick] [-include Regex] [-codeTableBits n] [RawFile...]
+ * - Built-in corpora: synthetic text, structured binary, random bytes, already-compressed data, and
+ *   text stored in uncompressed blocks. Given files are added as further corpora.
+ * - Benchmark names look like "inflate/text-6/table"; -include runs only those matching the regex.
+ *   Because everything shares one JVM, run one implementation per JVM (via -include) for the most
+ *   reliable comparisons, as profile pollution can slow down whichever runs later.
+ * - -codeTableBits sets the size of Inflater's code table for the tree decoder, in the range [1, 15].
+ */
+public final class InflaterBenchmark {
+	
+	/* Configuration */
+	
+	private static int warmupIterations = 5;
+	private static int measurementIterations = 10;
+	private static long iterationNanos = 500000000L;
+	
+	
+	
+	/* Main program */
+	
+	public static void main(String[] args) throws IOException, DataFormatException {
+		// Parse arguments
+		Pattern include = Pattern.compile(".*");
+		int codeTableBits = -1;  // Inflater's default
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-quick")) {
+				warmupIterations = 2;
+				measurementIterations = 3;
+				iterationNanos = 100000000L;
+			} else if (args[i].equals("-include") && i + 1 < args.length) {
+				i++;
+				include = Pattern.compile(args[i]);
+			} else if (args[i].equals("-codeTableBits") && i + 1 < args.length) {
+				i++;
+				codeTableBits = Integer.parseInt(args[i]);
+				if (codeTableBits < 1 || codeTableBits > 15)
+					throw new IllegalArgumentException("Code table bits must be in the range [1, 15]");
+			} else
+				files.add(args[i]);
+		}
+		
+		// Gather raw corpora and compress them
+		Random rand = new Random(0);
+		List<String> names = new ArrayList<String>();
+		List<byte[]> raws = new ArrayList<byte[]>();
+		List<byte[]> comps = new ArrayList<byte[]>();
+		byte[] text = makeText(rand, 8 * 1024 * 1024);
+		byte[] binary = makeBinary(rand, 8 * 1024 * 1024);
+		byte[] random = new byte[8 * 1024 * 1024];
+		rand.nextBytes(random);
+		byte[] compressed = deflate(makeText(rand, 24 * 1024 * 1024), 9);
+		for (int level : new int[]{1, 6, 9})
+			addCorpus("text-" + level, text, level, names, raws, comps);
+		for (int level : new int[]{1, 6, 9})
+			addCorpus("binary-" + level, binary, level, names, raws, comps);
+		addCorpus("random-6", random, 6, names, raws, comps);
+		addCorpus("compressed-6", compressed, 6, names, raws, comps);
+		addCorpus("stored-0", text, 0, names, raws, comps);
+		for (String file : files)
+			addCorpus(new File(file).getName() + "-6", Files.readAllBytes(new File(file).toPath()), 6, names, raws, comps);
+		
+		System.out.println("Inflater code table bits: " + (codeTableBits != -1 ? Integer.toString(codeTableBits) : "default"));
+		System.out.printf("Warm-up: %d x %d ms, measurement: %d x %d ms%n", warmupIterations, iterationNanos / 1000000, measurementIterations, iterationNanos / 1000000);
+		System.out.printf("%-32s %10s %8s %12s%n", "Benchmark", "MB/s", "Error", "B/op");
+		
+		// Bit input streams, measured in compressed MB/s
+		for (int i = 0; i < names.size(); i++) {
+			if (!names.get(i).endsWith("-6") && !names.get(i).endsWith("-0"))
+				continue;
+			final byte[] comp = comps.get(i);
+			String prefix = "bits/" + names.get(i) + "/";
+			run(prefix + "simple", include, comp.length, new Operation() {
+				public long run() throws IOException {
+					return readAllBits(new SimpleBitInputStream(new ByteArrayInputStream(comp)), comp.length);
+				}
+			});
+			run(prefix + "buffered", include, comp.length, new Operation() {
+				public long run() throws IOException {
+					return readAllBits(new BufferedBitInputStream(new ByteArrayInputStream(comp), 16 * 1024), comp.length);
+				}
+			});
+			run(prefix + "mapped", include, comp.length, new Operation() {
+				public long run() throws IOException {
+					return readAllBits(new MappedBitInputStream(ByteBuffer.wrap(comp)), comp.length);
+				}
+			});
+		}
+		
+		// Whole decompression, measured in uncompressed MB/s
+		for (int i = 0; i < names.size(); i++) {
+			final byte[] comp = comps.get(i);
+			final long rawLength = raws.get(i).length;
+			String prefix = "inflate/" + names.get(i) + "/";
+			final OutputStream sink = new OutputStream() {
+				public void write(int b) {}
+				public void write(byte[] b, int off, int len) {}
+			};
+			final int treeTableBits = codeTableBits;
+			run(prefix + "tree", include, rawLength, new Operation() {
+				public long run() throws IOException, DataFormatException {
+					if (treeTableBits == -1)
+						return new Inflater(new BufferedInputStream(new ByteArrayInputStream(comp), 16 * 1024), sink, false).getLength();
+					Inflater inf = new Inflater(false, treeTableBits);
+					inf.inflate(new BufferedInputStream(new ByteArrayInputStream(comp), 16 * 1024), sink);
+					return inf.getLength();
+				}
+			});
+			run(prefix + "table", include, rawLength, new Operation() {
+				public long run() throws IOException, DataFormatException {
+					return new Inflater(new BufferedInputStream(new ByteArrayInputStream(comp), 16 * 1024), sink, true).getLength();
+				}
+			});
+			final byte[] buf = new byte[64 * 1024];
+			run(prefix + "java.util.zip", include, rawLength, new Operation() {
+				public long run() throws DataFormatException {
+					java.util.zip.Inflater inf = new java.util.zip.Inflater(true);
+					try {
+						inf.setInput(comp);
+						long total = 0;
+						while (!inf.finished()) {
+							int n = inf.inflate(buf);
+							if (n == 0 && inf.needsInput())
+								throw new DataFormatException("Truncated stream");
+							total += n;
+						}
+						return total;
+					} finally {
+						inf.end();
+					}
+				}
+			});
+		}
+	}
+	
+	
+	
+	/* Benchmark harness */
+	
+	private interface Operation {
+		// Performs one operation and returns a value that depends on all the work done, so that it is not optimized away.
+		long run() throws IOException, DataFormatException;
+	}
+	
+	
+	// Runs the operation repeatedly in timed iterations if its name matches, and prints the results.
+	// 'bytesPerOp' is the number of bytes counted toward the throughput for each operation.
+	private static void run(String name, Pattern include, long bytesPerOp, Operation op) throws IOException, DataFormatException {
+		if (!include.matcher(name).matches())
+			return;
+		for (int i = 0; i < warmupIterations; i++)
+			runIteration(op);
+		
+		double[] speeds = new double[measurementIterations];
+		long totalOps = 0;
+		long totalAlloc = 0;
+		for (int i = 0; i < measurementIterations; i++) {
+			long allocBefore = getAllocatedBytes();
+			long start = System.nanoTime();
+			long ops = runIteration(op);
+			long elapsed = System.nanoTime() - start;
+			totalAlloc += getAllocatedBytes() - allocBefore;
+			totalOps += ops;
+			speeds[i] = ops * bytesPerOp / 1.0e6 / (elapsed / 1.0e9);
+		}
+		
+		double mean = 0;
+		for (double x : speeds)
+			mean += x;
+		mean /= speeds.length;
+		double var = 0;
+		for (double x : speeds)
+			var += (x - mean) * (x - mean);
+		double stddev = speeds.length > 1 ? Math.sqrt(var / (speeds.length - 1)) : 0;
+		String alloc = allocationSupported ? String.format("%.0f", (double)totalAlloc / totalOps) : "N/A";
+		System.out.printf("%-32s %10.1f %8.1f %12s%n", name, mean, stddev, alloc);
+	}
+	
+	
+	// Runs the operation until the iteration time has elapsed, and returns the number of operations performed.
+	private static long runIteration(Operation op) throws IOException, DataFormatException {
+		long start = System.nanoTime();
+		long ops = 0;
+		do {
+			blackhole ^= op.run();
+			ops++;
+		} while (System.nanoTime() - start < iterationNanos);
+		return ops;
+	}
+	
+	
+	// Returns the number of bytes allocated by the current thread so far, or 0 if unsupported.
+	private static long getAllocatedBytes() {
+		if (!allocationSupported)
+			return 0;
+		return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	
+	private static volatile long blackhole;
+	
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private static final boolean allocationSupported;
+	
+	static {
+		boolean supported = false;
+		try {
+			if (threadBean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+				supported = bean.isThreadAllocatedMemorySupported();
+				if (supported && !bean.isThreadAllocatedMemoryEnabled())
+					bean.setThreadAllocatedMemoryEnabled(true);
+			}
+		} catch (NoClassDefFoundError e) {}  // Not a HotSpot-derived JVM
+		allocationSupported = supported;
+	}
+	
+	
+	
+	/* Benchmark bodies and corpora */
+	
+	// Reads all bits of a stream with the given length in a mix of widths resembling DEFLATE decoding,
+	// and returns a checksum of the values.
+	private static long readAllBits(BitInputStream in, int length) throws IOException {
+		long remaining = length * 8L;
+		long sum = 0;
+		for (int i = 0; ; i++) {
+			int n = BIT_WIDTHS[i & (BIT_WIDTHS.length - 1)];
+			if (n > remaining)
+				break;
+			sum += in.readBits(n);
+			remaining -= n;
+		}
+		return sum;
+	}
+	
+	private static final int[] BIT_WIDTHS = {7, 8, 9, 8, 5, 2, 8, 13, 9, 8, 7, 1, 8, 3, 8, 16};  // Length must be a power of 2
+	
+	
+	private static void addCorpus(String name, byte[] raw, int level, List<String> names, List<byte[]> raws, List<byte[]> comps) {
+		names.add(name);
+		raws.add(raw);
+		comps.add(deflate(raw, level));
+	}
+	
+	
+	private static byte[] deflate(byte[] b, int level) {
+		Deflater def = new Deflater(level, true);
+		def.setInput(b);
+		def.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[64 * 1024];
+		while (!def.finished())
+			out.write(buf, 0, def.deflate(buf));
+		def.end();
+		return out.toByteArray();
+	}
+	
+	
+	// Makes pseudo-English text with a skewed word distribution.
+	private static byte[] makeText(Random rand, int len) {
+		String[] words = new String[2000];
+		for (int i = 0; i < words.length; i++) {
+			StringBuilder sb = new StringBuilder();
+			int n = rand.nextInt(8) + 1;
+			for (int j = 0; j < n; j++)
+				sb.append((char)('a' + rand.nextInt(26)));
+			words[i] = sb.toString();
+		}
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; ) {
+			String w = words[(int)(Math.pow(rand.nextDouble(), 3) * words.length)];
+			for (int j = 0; j < w.length() && i < len; j++, i++)
+				result[i] = (byte)w.charAt(j);
+			if (i < len) {
+				result[i] = (byte)(rand.nextInt(12) == 0 ? '\n' : ' ');
+				i++;
+			}
+		}
+		return result;
+	}
+	
+	
+	// Makes binary data resembling an array of records: little-endian integers with small deltas,
+	// flag bytes, and a few fixed-point values.
+	private static byte[] makeBinary(Random rand, int len) {
+		byte[] result = new byte[len];
+		int counter = 0;
+		for (int i = 0; i + 16 <= len; i += 16) {
+			counter += rand.nextInt(100);
+			int value = (int)(rand.nextGaussian() * 1000);
+			for (int j = 0; j < 4; j++) {
+				result[i + j] = (byte)(counter >>> (j * 8));
+				result[i + 4 + j] = (byte)(value >>> (j * 8));
+			}
+			result[i + 8] = (byte)(rand.nextInt(8) == 0 ? 1 : 0);
+			result[i + 9] = (byte)rand.nextInt(4);
+			for (int j = 10; j < 16; j++)
+				result[i + j] = (byte)(rand.nextInt(16) == 0 ? rand.nextInt(256) : 0);
+		}
+		return result;
+	}
+	
+}
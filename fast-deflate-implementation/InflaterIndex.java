@@ -0,0 +1,221 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+
+/* 
+ * A random-access index for the first member of a GZIP file, in the style of zlib's zran.c.
+ * While the file is decompressed once by build(), a checkpoint is recorded at the first block boundary
+ * after every 'span' bytes of output. Each checkpoint holds the bit position of the block in the file,
+ * the output position, and the preceding 32 KiB of output (the dictionary), which is everything needed
+ * to restart decompression there. Then read() only has to decompress from the nearest checkpoint.
+ */
+public final class InflaterIndex {
+	
+	/* Fields */
+	
+	private final File file;
+	private final long length;                // Total decompressed length
+	private final long[] outputPositions;     // Strictly increasing, starting with 0
+	private final long[] inputBitPositions;   // Measured from the start of the file
+	private final byte[][] dictionaries;      // Each has length 32 KiB, oldest byte first
+	
+	
+	
+	/* Constructors */
+	
+	private InflaterIndex(File file, long length, long[] outputPositions, long[] inputBitPositions, byte[][] dictionaries) {
+		this.file = file;
+		this.length = length;
+		this.outputPositions = outputPositions;
+		this.inputBitPositions = inputBitPositions;
+		this.dictionaries = dictionaries;
+	}
+	
+	
+	// Decompresses the given GZIP file once, recording a checkpoint every 'span' bytes of output (approximately,
+	// because checkpoints can only be at block boundaries). Also checks the member's CRC-32 and size.
+	public static InflaterIndex build(File file, long span) throws IOException, DataFormatException {
+		if (span <= 0)
+			throw new IllegalArgumentException("Span must be positive");
+		List<long[]> positions = new ArrayList<long[]>();
+		List<byte[]> dicts = new ArrayList<byte[]>();
+		
+		MarkableFileInputStream in = new MarkableFileInputStream(file);
+		try {
+			gunzip.readHeader(in, false);
+			long start = in.getFilePointer() * 8;
+			Inflater inf = new Inflater(in);
+			inf.setStopAtBlockBoundaries(true);
+			
+			byte[] buf = new byte[64 * 1024];
+			long pos = 0;
+			long lastCheckpoint = 0;
+			positions.add(new long[]{0, start});
+			dicts.add(inf.getDictionarySnapshot());
+			while (true) {
+				if (inf.isAtBlockBoundary() && pos - lastCheckpoint >= span) {
+					positions.add(new long[]{pos, start + inf.getInputBitPosition()});
+					dicts.add(inf.getDictionarySnapshot());
+					lastCheckpoint = pos;
+				}
+				int n = inf.read(buf, 0, buf.length);
+				if (n == -1)
+					break;
+				pos += n;
+			}
+			
+			// Footer
+			byte[] b = new byte[8];
+			readFully(in, b);
+			int crc  = (b[0] & 0xFF) | (b[1] & 0xFF) << 8 | (b[2] & 0xFF) << 16 | b[3] << 24;
+			int size = (b[4] & 0xFF) | (b[5] & 0xFF) << 8 | (b[6] & 0xFF) << 16 | b[7] << 24;
+			if (size != (int)inf.getLength())
+				throw new DataFormatException("Decompressed size mismatch");
+			if (crc != inf.getCrc32())
+				throw new DataFormatException("Decompression CRC-32 mismatch");
+			
+			long[] outPos = new long[positions.size()];
+			long[] inPos = new long[positions.size()];
+			for (int i = 0; i < outPos.length; i++) {
+				outPos[i] = positions.get(i)[0];
+				inPos[i] = positions.get(i)[1];
+			}
+			return new InflaterIndex(file, pos, outPos, inPos, dicts.toArray(new byte[dicts.size()][]));
+		} finally {
+			in.close();
+		}
+	}
+	
+	
+	
+	/* Methods */
+	
+	public long getLength() {
+		return length;
+	}
+	
+	
+	public int getCheckpointCount() {
+		return outputPositions.length;
+	}
+	
+	
+	// Reads up to 'len' decompressed bytes starting at the given offset into 'b' at 'off'. Returns the number of bytes
+	// read, which is less than 'len' only if the end of the data was reached, or -1 if offset is at least the length.
+	public int read(long offset, byte[] b, int off, int len) throws IOException, DataFormatException {
+		if (offset < 0 || off < 0 || len < 0 || b.length - off < len)
+			throw new IndexOutOfBoundsException();
+		if (offset >= length)
+			return -1;
+		
+		// Find the last checkpoint at or before the offset
+		int i = Arrays.binarySearch(outputPositions, offset);
+		if (i < 0)
+			i = -i - 2;
+		
+		MarkableFileInputStream in = new MarkableFileInputStream(file);
+		try {
+			// Restart decompression at the checkpoint
+			long bitPos = inputBitPositions[i];
+			in.seek(bitPos >>> 3);
+			Inflater inf = new Inflater(in);
+			inf.setDictionary(dictionaries[i], 0, dictionaries[i].length);
+			inf.skipInputBits((int)bitPos & 7);
+			
+			// Discard output up to the offset
+			byte[] skipBuf = new byte[64 * 1024];
+			for (long skip = offset - outputPositions[i]; skip > 0; ) {
+				int n = inf.read(skipBuf, 0, (int)Math.min(skip, skipBuf.length));
+				if (n == -1)
+					throw new EOFException();
+				skip -= n;
+			}
+			
+			// Read the requested range
+			int count = 0;
+			while (count < len) {
+				int n = inf.read(b, off + count, len - count);
+				if (n == -1)
+					break;
+				count += n;
+			}
+			return count;
+		} finally {
+			in.close();
+		}
+	}
+	
+	
+	// Serializes this index (but not the file path) so that it can be loaded later without decompressing the file again.
+	public void save(OutputStream out) throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		dout.writeInt(FORMAT_MAGIC);
+		dout.writeLong(file.length());
+		dout.writeLong(length);
+		dout.writeInt(outputPositions.length);
+		for (int i = 0; i < outputPositions.length; i++) {
+			dout.writeLong(outputPositions[i]);
+			dout.writeLong(inputBitPositions[i]);
+			dout.write(dictionaries[i]);
+		}
+		dout.flush();
+	}
+	
+	
+	// Loads an index produced by save() for the given GZIP file.
+	public static InflaterIndex load(File file, InputStream in) throws IOException {
+		DataInputStream din = new DataInputStream(in);
+		if (din.readInt() != FORMAT_MAGIC)
+			throw new IOException("Invalid index format");
+		if (din.readLong() != file.length())
+			throw new IOException("Index does not match file length");
+		long length = din.readLong();
+		int count = din.readInt();
+		if (count <= 0)
+			throw new IOException("Invalid index format");
+		long[] outPos = new long[count];
+		long[] inPos = new long[count];
+		byte[][] dicts = new byte[count][DICTIONARY_SIZE];
+		for (int i = 0; i < count; i++) {
+			outPos[i] = din.readLong();
+			inPos[i] = din.readLong();
+			din.readFully(dicts[i]);
+			if (i == 0 ? outPos[i] != 0 : outPos[i] <= outPos[i - 1])
+				throw new IOException("Invalid index format");
+		}
+		return new InflaterIndex(file, length, outPos, inPos, dicts);
+	}
+	
+	
+	private static void readFully(InputStream in, byte[] b) throws IOException {
+		int off = 0;
+		while (off < b.length) {
+			int n = in.read(b, off, b.length - off);
+			if (n == -1)
+				throw new EOFException();
+			off += n;
+		}
+	}
+	
+	
+	private static final int FORMAT_MAGIC = 0x475A4958;  // "GZIX"
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	
+}
@@ -0,0 +1,101 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+
+public final class InflaterIndexTest {
+	
+	@Test
+	public void testRandomReads() throws IOException, DataFormatException {
+		byte[] data = makeData(3000000);
+		File file = writeGzip(data);
+		try {
+			InflaterIndex index = InflaterIndex.build(file, 100000);
+			assertEquals(data.length, index.getLength());
+			assertTrue(index.getCheckpointCount() > 10);
+			checkReads(index, data);
+			
+			// Reload from a serialized copy
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			index.save(bout);
+			checkReads(InflaterIndex.load(file, new ByteArrayInputStream(bout.toByteArray())), data);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	@Test
+	public void testSingleCheckpoint() throws IOException, DataFormatException {
+		byte[] data = makeData(50000);
+		File file = writeGzip(data);
+		try {
+			InflaterIndex index = InflaterIndex.build(file, Long.MAX_VALUE);
+			assertEquals(1, index.getCheckpointCount());
+			checkReads(index, data);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	private static void checkReads(InflaterIndex index, byte[] data) throws IOException, DataFormatException {
+		for (int i = 0; i < 100; i++) {
+			int off = rand.nextInt(data.length);
+			int len = rand.nextInt(100000);
+			byte[] b = new byte[len + 10];
+			int n = index.read(off, b, 10, len);
+			assertEquals(Math.min(len, data.length - off), n);
+			assertArrayEquals(Arrays.copyOfRange(data, off, off + n), Arrays.copyOfRange(b, 10, 10 + n));
+		}
+		assertEquals(-1, index.read(data.length, new byte[1], 0, 1));
+	}
+	
+	
+	// Returns text-like data with many repeats, so that blocks and back-references are plentiful.
+	private static byte[] makeData(int len) {
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; i++) {
+			if (i >= 100 && rand.nextDouble() < 0.9)
+				result[i] = result[i - 1 - rand.nextInt(Math.min(i, 32768))];
+			else
+				result[i] = (byte)('a' + rand.nextInt(26));
+		}
+		return result;
+	}
+	
+	
+	private static File writeGzip(byte[] data) throws IOException {
+		File file = File.createTempFile("InflaterIndexTest", ".gz");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
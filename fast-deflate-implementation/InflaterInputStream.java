@@ -0,0 +1,103 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+
+
+/* 
+ * Decompresses a raw DEFLATE stream on demand as bytes are read, using an Inflater in pull mode.
+ * Decompression stops as soon as the caller stops reading, and reset() lets one instance (with its
+ * 112 KiB of buffers) be reused for any number of streams. When read() returns -1, the underlying
+ * stream is positioned right after the DEFLATE data (e.g. at the GZIP footer).
+ */
+public final class InflaterInputStream extends InputStream {
+	
+	/* Fields */
+	
+	private final Inflater inflater;
+	private InputStream input;  // Null after close() until the next reset()
+	private final byte[] singleByte;  // Only used by read()
+	
+	
+	
+	/* Constructors */
+	
+	public InflaterInputStream(InputStream in) {
+		this(in, true);
+	}
+	
+	
+	public InflaterInputStream(InputStream in, boolean multiSymbol) {
+		inflater = new Inflater(in, multiSymbol);
+		input = in;
+		singleByte = new byte[1];
+	}
+	
+	
+	
+	/* Methods */
+	
+	public int read() throws IOException {
+		int n = read(singleByte, 0, 1);
+		if (n == -1)
+			return -1;
+		assert n == 1;
+		return singleByte[0] & 0xFF;
+	}
+	
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (input == null)
+			throw new IOException("Stream closed");
+		try {
+			return inflater.read(b, off, len);
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid or corrupt compressed data: " + e.getMessage(), e);
+		}
+	}
+	
+	
+	// Returns the number of bytes that can be read without decompressing more data.
+	public int available() throws IOException {
+		if (input == null)
+			throw new IOException("Stream closed");
+		return inflater.available();
+	}
+	
+	
+	// Returns the number of decompressed bytes produced so far.
+	public long getLength() {
+		return inflater.getLength();
+	}
+	
+	
+	// Returns the CRC-32 of the decompressed bytes produced so far.
+	public int getCrc32() {
+		return inflater.getCrc32();
+	}
+	
+	
+	// Switches to decompressing a new DEFLATE stream, reusing all buffers. Can be called after close().
+	// The previous underlying stream is not closed.
+	public void reset(InputStream in) {
+		inflater.reset(in);
+		input = in;
+	}
+	
+	
+	// Closes the underlying stream.
+	public void close() throws IOException {
+		if (input != null) {
+			input.close();
+			input = null;
+		}
+	}
+	
+}
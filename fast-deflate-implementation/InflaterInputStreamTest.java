@@ -0,0 +1,171 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+
+public final class InflaterInputStreamTest {
+	
+	@Test
+	public void testRandomReadSizesWithReuse() throws IOException {
+		InflaterInputStream in = null;
+		for (int i = 0; i < 100; i++) {
+			byte[] data = makeData(rand.nextInt(500000));
+			InputStream comp = new BufferedInputStream(new ByteArrayInputStream(deflate(data)));
+			if (in == null)
+				in = new InflaterInputStream(comp, rand.nextBoolean());
+			else
+				in.reset(comp);
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[100000];
+			while (true) {
+				int n;
+				if (rand.nextDouble() < 0.1) {
+					int b = in.read();
+					if (b == -1)
+						break;
+					out.write(b);
+				} else {
+					int off = rand.nextInt(100);
+					n = in.read(buf, off, rand.nextInt(buf.length - off));
+					if (n == -1)
+						break;
+					out.write(buf, off, n);
+				}
+			}
+			assertArrayEquals(data, out.toByteArray());
+			assertEquals(data.length, in.getLength());
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			assertEquals((int)crc.getValue(), in.getCrc32());
+			assertEquals(-1, in.read());
+		}
+	}
+	
+	
+	@Test
+	public void testEarlyStopLeavesInputUnread() throws IOException {
+		byte[] data = makeData(1000000);
+		byte[] comp = deflate(data);
+		CountingInputStream counter = new CountingInputStream(new ByteArrayInputStream(comp));
+		InflaterInputStream in = new InflaterInputStream(new BufferedInputStream(counter));
+		byte[] b = new byte[1000];
+		int n = in.read(b);
+		assertArrayEquals(Arrays.copyOf(data, n), Arrays.copyOf(b, n));
+		if (counter.count >= comp.length)
+			fail();
+	}
+	
+	
+	@Test
+	public void testTrailingDataAfterStream() throws IOException {
+		byte[] data = makeData(10000);
+		byte[] comp = deflate(data);
+		byte[] input = Arrays.copyOf(comp, comp.length + 3);
+		input[comp.length + 0] = 1;
+		input[comp.length + 1] = 2;
+		input[comp.length + 2] = 3;
+		InputStream raw = new BufferedInputStream(new ByteArrayInputStream(input));
+		InflaterInputStream in = new InflaterInputStream(raw);
+		while (in.read(new byte[4096]) != -1);
+		assertEquals(1, raw.read());
+		assertEquals(2, raw.read());
+		assertEquals(3, raw.read());
+		assertEquals(-1, raw.read());
+	}
+	
+	
+	@Test(expected=IOException.class)
+	public void testCorruptData() throws IOException {
+		// Reserved block type
+		InflaterInputStream in = new InflaterInputStream(new BufferedInputStream(new ByteArrayInputStream(new byte[]{0x07})));
+		in.read();
+	}
+	
+	
+	@Test(expected=IOException.class)
+	public void testReadAfterClose() throws IOException {
+		InflaterInputStream in = new InflaterInputStream(new BufferedInputStream(new ByteArrayInputStream(deflate(new byte[10]))));
+		in.close();
+		in.read();
+	}
+	
+	
+	
+	/* Utility members */
+	
+	private static byte[] makeData(int len) {
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; i++) {
+			if (i >= 10 && rand.nextDouble() < 0.8)
+				result[i] = result[i - 1 - rand.nextInt(Math.min(i, 1000))];
+			else
+				result[i] = (byte)rand.nextInt(256);
+		}
+		return result;
+	}
+	
+	
+	private static byte[] deflate(byte[] data) {
+		Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		def.setInput(data);
+		def.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[10000];
+		while (!def.finished())
+			out.write(buf, 0, def.deflate(buf));
+		def.end();
+		return out.toByteArray();
+	}
+	
+	
+	private static final class CountingInputStream extends InputStream {
+		
+		private final InputStream input;
+		public long count;
+		
+		
+		public CountingInputStream(InputStream in) {
+			input = in;
+		}
+		
+		
+		public int read() throws IOException {
+			int b = input.read();
+			if (b != -1)
+				count++;
+			return b;
+		}
+		
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = input.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+		
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,81 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+
+/* 
+ * A bounded, thread-safe pool of idle Inflater objects, so that decompressing many small streams
+ * (e.g. gzip request bodies or BGZF blocks) does not allocate and zero 112 KiB of buffers each time.
+ * acquire() hands out an idle inflater or creates one; release() returns it for reuse, or lets it be
+ * garbage-collected if the pool already holds 'capacity' idle inflaters. An inflater must not be
+ * used after it is released.
+ */
+public final class InflaterPool {
+	
+	/* Fields */
+	
+	private final boolean multiSymbol;
+	private final Inflater[] idle;  // Stack of idle inflaters, elements [0, idleCount) are non-null
+	private int idleCount;
+	
+	
+	
+	/* Constructors */
+	
+	public InflaterPool(int capacity) {
+		this(capacity, true);
+	}
+	
+	
+	// Inflaters created by this pool use the given Huffman decoder (see Inflater's constructors).
+	public InflaterPool(int capacity, boolean multiSymbol) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Negative capacity");
+		this.multiSymbol = multiSymbol;
+		idle = new Inflater[capacity];
+		idleCount = 0;
+	}
+	
+	
+	
+	/* Methods */
+	
+	// Returns an idle inflater, which the caller starts with inflate() or reset().
+	public Inflater acquire() {
+		synchronized(this) {
+			if (idleCount > 0) {
+				idleCount--;
+				Inflater result = idle[idleCount];
+				idle[idleCount] = null;
+				return result;
+			}
+		}
+		return new Inflater(multiSymbol);  // Allocate outside the lock
+	}
+	
+	
+	// Returns the given inflater (which must have come from acquire()) to this pool. It need not have
+	// finished its stream; references to its input and output streams are dropped either way.
+	public void release(Inflater inf) {
+		if (inf == null)
+			throw new NullPointerException();
+		inf.detach();
+		synchronized(this) {
+			if (idleCount < idle.length) {
+				idle[idleCount] = inf;
+				idleCount++;
+			}
+		}
+	}
+	
+	
+	// Returns the number of idle inflaters currently held.
+	public synchronized int getIdleCount() {
+		return idleCount;
+	}
+	
+}
@@ -7,10 +7,24 @@
  */
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import org.junit.Test;
 
 
@@ -349,6 +363,248 @@ public final class InflaterTest {
 	
 	
 	
+	@Test
+	public void testRandomDeflaterRoundTrips() throws IOException, DataFormatException {
+		Random rand = new Random();
+		for (int i = 0; i < 300; i++) {
+			// Generate data with a mix of literals and repeats of varying distances
+			byte[] data = new byte[rand.nextInt(300000)];
+			int alphabet = rand.nextInt(256) + 1;
+			for (int j = 0; j < data.length; ) {
+				if (j > 0 && rand.nextDouble() < 0.3) {
+					int dist = Math.min(rand.nextInt(40000) + 1, j);
+					int len = Math.min(rand.nextInt(300) + 1, data.length - j);
+					for (int k = 0; k < len; k++, j++)
+						data[j] = data[j - dist];
+				} else {
+					data[j] = (byte)rand.nextInt(alphabet);
+					j++;
+				}
+			}
+			Deflater def = new Deflater(rand.nextInt(10), true);
+			def.setStrategy(rand.nextBoolean() ? Deflater.DEFAULT_STRATEGY : Deflater.HUFFMAN_ONLY);
+			def.setInput(data);
+			def.finish();
+			ByteArrayOutputStream comp = new ByteArrayOutputStream();
+			byte[] buf = new byte[rand.nextInt(10000) + 1];
+			while (!def.finished())
+				comp.write(buf, 0, def.deflate(buf));
+			def.end();
+			
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			for (boolean multiSymbol : new boolean[]{false, true}) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Inflater inf = new Inflater(new BufferedInputStream(new ByteArrayInputStream(comp.toByteArray()), rand.nextInt(1000) + 1), out, multiSymbol);
+				assertArrayEquals(data, out.toByteArray());
+				assertEquals(data.length, inf.getLength());
+				assertEquals((int)crc.getValue(), inf.getCrc32());
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testPooledReuse() throws IOException, DataFormatException {
+		Random rand = new Random();
+		for (boolean multiSymbol : new boolean[]{false, true}) {
+			InflaterPool pool = new InflaterPool(1, multiSymbol);
+			Inflater first = pool.acquire();
+			assertEquals(-1, first.read(new byte[1], 0, 1));  // Idle inflater has no input
+			pool.release(first);
+			for (int i = 0; i < 200; i++) {
+				// Small payloads, which zlib encodes with fixed or dynamic Huffman blocks
+				byte[] data = new byte[rand.nextInt(2000)];
+				for (int j = 0; j < data.length; j++)
+					data[j] = (byte)('a' + rand.nextInt(rand.nextInt(26) + 1));
+				Deflater def = new Deflater(rand.nextInt(10), true);
+				def.setInput(data);
+				def.finish();
+				byte[] comp = new byte[data.length * 2 + 100];
+				int compLen = def.deflate(comp);
+				def.end();
+				
+				Inflater inf = pool.acquire();
+				assertEquals(first, inf);
+				try {
+					if (i % 10 == 9) {  // A corrupt stream must not affect the next user of the inflater
+						try {
+							inf.inflate(new ByteArrayInputStream(new byte[]{(byte)0xFF}), new ByteArrayOutputStream());
+							fail();
+						} catch (DataFormatException e) {}  // Pass
+						continue;
+					}
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					inf.inflate(new ByteArrayInputStream(comp, 0, compLen), out);
+					assertArrayEquals(data, out.toByteArray());
+					assertEquals(data.length, inf.getLength());
+					CRC32 crc = new CRC32();
+					crc.update(data);
+					assertEquals((int)crc.getValue(), inf.getCrc32());
+				} finally {
+					pool.release(inf);
+				}
+			}
+			assertEquals(1, pool.getIdleCount());
+		}
+	}
+	
+	
+	@Test
+	public void testHuffmanCodeCache() throws IOException, DataFormatException {
+		// Each full flush resets the history, so identical chunks give blocks with identical dynamic codes
+		Random rand = new Random();
+		byte[] chunk = new byte[3000];
+		for (int i = 0; i < chunk.length; i++)
+			chunk[i] = (byte)('a' + rand.nextInt(rand.nextInt(26) + 1));
+		Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream comp = new ByteArrayOutputStream();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buf = new byte[10000];
+		int numChunks = 50;
+		for (int i = 0; i < numChunks; i++) {
+			byte[] b = i % 5 == 4 ? new byte[]{(byte)i, (byte)(i * 7)} : chunk;  // Interleave some different blocks
+			data.write(b);
+			def.setInput(b);
+			if (i == numChunks - 1)
+				def.finish();
+			int n;
+			do {
+				n = def.deflate(buf, 0, buf.length, i == numChunks - 1 ? Deflater.NO_FLUSH : Deflater.FULL_FLUSH);
+				comp.write(buf, 0, n);
+			} while (n == buf.length || i == numChunks - 1 && !def.finished());
+		}
+		def.end();
+		
+		for (boolean multiSymbol : new boolean[]{false, true}) {
+			Inflater inf = new Inflater(multiSymbol);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			inf.inflate(new ByteArrayInputStream(comp.toByteArray()), out);
+			assertArrayEquals(data.toByteArray(), out.toByteArray());
+			long hits = inf.getHuffmanCacheHits();
+			long misses = inf.getHuffmanCacheMisses();
+			assertTrue(hits >= numChunks * 4 / 5 - 1);
+			assertTrue(misses >= 1);
+			
+			// The cache survives across streams
+			out.reset();
+			inf.inflate(new ByteArrayInputStream(comp.toByteArray()), out);
+			assertArrayEquals(data.toByteArray(), out.toByteArray());
+			assertEquals(misses, inf.getHuffmanCacheMisses());
+			assertEquals(hits * 2 + misses, inf.getHuffmanCacheHits());
+		}
+	}
+	
+	
+	@Test
+	public void testCodeTableSizes() throws IOException, DataFormatException {
+		Random rand = new Random();
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = i >= 10 && rand.nextDouble() < 0.8 ? data[i - 1 - rand.nextInt(Math.min(i, 1000))] : (byte)rand.nextInt(26);
+		for (int len : new int[]{20, data.length}) {  // Short input gets a fixed Huffman block, long input dynamic ones
+			Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			def.setInput(data, 0, len);
+			def.finish();
+			ByteArrayOutputStream comp = new ByteArrayOutputStream();
+			byte[] buf = new byte[10000];
+			while (!def.finished())
+				comp.write(buf, 0, def.deflate(buf));
+			def.end();
+			
+			for (int bits = 1; bits <= 15; bits++) {
+				Inflater inf = new Inflater(false, bits);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				inf.inflate(new ByteArrayInputStream(comp.toByteArray()), out);
+				assertArrayEquals(Arrays.copyOf(data, len), out.toByteArray());
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testMappedFileInput() throws IOException, DataFormatException {
+		Random rand = new Random();
+		byte[] data = new byte[1000000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = i >= 10 && rand.nextDouble() < 0.8 ? data[i - 1 - rand.nextInt(Math.min(i, 1000))] : (byte)rand.nextInt(256);
+		Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		def.setInput(data);
+		def.finish();
+		ByteArrayOutputStream comp = new ByteArrayOutputStream();
+		comp.write(new byte[]{1, 2, 3});  // Leading junk
+		byte[] buf = new byte[10000];
+		while (!def.finished())
+			comp.write(buf, 0, def.deflate(buf));
+		def.end();
+		int end = comp.size();
+		comp.write(new byte[]{4, 5, 6, 7, 8});  // Trailing data
+		
+		File file = File.createTempFile("InflaterTest", ".bin");
+		try {
+			OutputStream fout = new FileOutputStream(file);
+			try {
+				comp.writeTo(fout);
+			} finally {
+				fout.close();
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel ch = raf.getChannel();
+				for (boolean multiSymbol : new boolean[]{false, true}) {
+					// Eager mode
+					ch.position(3);
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					Inflater inf = new Inflater(ch, out, multiSymbol);
+					assertArrayEquals(data, out.toByteArray());
+					assertEquals(end, ch.position());
+					
+					// Pull mode, reusing the same object
+					ch.position(3);
+					inf.reset(ch);
+					out.reset();
+					while (true) {
+						int n = inf.read(buf, 0, rand.nextInt(buf.length) + 1);
+						if (n == -1)
+							break;
+						out.write(buf, 0, n);
+					}
+					assertArrayEquals(data, out.toByteArray());
+					assertEquals(end, ch.position());
+					assertEquals(4, raf.read());
+				}
+			} finally {
+				raf.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	@Test(expected=EOFException.class)
+	public void testMappedFileInputTruncated() throws IOException, DataFormatException {
+		File file = File.createTempFile("InflaterTest", ".bin");
+		try {
+			OutputStream fout = new FileOutputStream(file);
+			try {
+				fout.write(new byte[]{0x05, (byte)0xE0});  // Dynamic Huffman block header cut short
+			} finally {
+				fout.close();
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				new Inflater(raf.getChannel(), new ByteArrayOutputStream());
+			} finally {
+				raf.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	
 	/* Utility method */
 	
 	// 'input' is a string of 0's and 1's (with optional spaces) representing the input bit sequence.
@@ -365,9 +621,11 @@ public final class InflaterTest {
 		input = input.replace(" ", "");
 		while (input.length() % 8 != 0)
 			input += "0";
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		new Inflater(new StringInputStream(input), out);
-		assertArrayEquals(refOut, out.toByteArray());
+		for (boolean multiSymbol : new boolean[]{false, true}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new Inflater(new StringInputStream(input), out, multiSymbol);
+			assertArrayEquals(refOut, out.toByteArray());
+		}
 	}
 	
 }
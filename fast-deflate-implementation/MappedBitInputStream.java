@@ -0,0 +1,238 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/* 
+ * A bit input stream that reads directly from a byte buffer, typically a memory-mapped file.
+ * Unlike BufferedBitInputStream, no bytes are copied into an intermediate array; the bit buffer
+ * is refilled with a single 8-byte little-endian load whenever at least 8 bytes remain.
+ */
+public final class MappedBitInputStream implements BitInputStream {
+	
+	/* Fields */
+	
+	private ByteBuffer buffer;   // Little endian, with position 0. Null after detach() or close()
+	private int bufferIndex;     // 0 <= bufferIndex <= buffer.limit()
+	private long nextBits;       // Unused high-order bits must be zero
+	private int nextBitsLength;  // Always in the range [0, 63] before and after every call to readBits()
+	
+	
+	
+	/* Constructors */
+	
+	// Maps the whole file, which must be smaller than 2 GiB. The file can be closed or deleted
+	// afterward without affecting this stream, as long as it is not truncated.
+	public MappedBitInputStream(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large to map");
+			init(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	
+	// Reads the bytes between the given buffer's position and limit. The buffer's position, limit,
+	// and byte order are not modified.
+	public MappedBitInputStream(ByteBuffer buf) {
+		if (buf == null)
+			throw new NullPointerException();
+		init(buf.slice());
+	}
+	
+	
+	private void init(ByteBuffer buf) {
+		buffer = buf.order(ByteOrder.LITTLE_ENDIAN);
+		bufferIndex = 0;
+		nextBits = 0;
+		nextBitsLength = 0;
+	}
+	
+	
+	
+	/* I/O methods */
+	
+	// Reads the given number of bits from the buffer, return a non-negative integer in bit little endian
+	public int readBits(int n) throws IOException {
+		if (n < 0 || n > 32)
+			throw new IllegalArgumentException();
+		if (buffer == null)
+			throw new IllegalStateException();
+		
+		assert 0 <= nextBitsLength && nextBitsLength <= 63;
+		assert nextBits >>> nextBitsLength == 0;  // Ensure high-order bits are clean
+		
+		// Ensure there is enough data in the bit buffer
+		if (nextBitsLength < n) {
+			ByteBuffer buf = buffer;
+			int i = bufferIndex;
+			int remain = buf.limit() - i;
+			int bytes = (64 - nextBitsLength) >>> 3;
+			long temp;
+			if (remain >= 8) {
+				temp = buf.getLong(i);
+				if (bytes < 8)
+					temp &= (1L << (bytes << 3)) - 1;
+			} else {
+				// Slower logic near the end of the buffer
+				bytes = Math.min(bytes, remain);
+				if (nextBitsLength + (bytes << 3) < n)
+					throw new EOFException();
+				temp = 0;
+				for (int j = 0; j < bytes; i++, j++)
+					temp |= (buf.get(i) & 0xFFL) << (j << 3);
+			}
+			nextBits |= temp << nextBitsLength;
+			nextBitsLength += bytes << 3;
+			bufferIndex += bytes;
+		}
+		
+		// Extract bits to return
+		int result;
+		if (n < 32)
+			result = (int)nextBits & ((1 << n) - 1);  // This is valid for 0 <= n <= 31
+		else
+			result = (int)nextBits;
+		nextBits >>>= n;
+		nextBitsLength -= n;
+		assert 0 <= nextBitsLength && nextBitsLength <= 63;  // Recheck invariants
+		assert nextBits >>> nextBitsLength == 0;
+		return result;
+	}
+	
+	
+	public void readBytes(byte[] b, int off, int len) throws IOException {
+		if (b.length - off < len)
+			throw new IllegalArgumentException();
+		if (buffer == null)
+			throw new IllegalStateException();
+		assert 0 <= nextBitsLength && nextBitsLength <= 63;
+		assert nextBits >>> nextBitsLength == 0;
+		
+		// Discard remaining partial bits
+		int n = nextBitsLength & 7;
+		nextBits >>>= n;
+		nextBitsLength -= n;
+		assert nextBitsLength % 8 == 0;
+		
+		// Unpack saved bits first
+		int end = off + len;
+		for (; nextBitsLength >= 8 && off < end; off++) {
+			b[off] = (byte)nextBits;
+			nextBits >>>= 8;
+			nextBitsLength -= 8;
+		}
+		
+		// Copy straight from the buffer
+		n = end - off;
+		if (n > buffer.limit() - bufferIndex)
+			throw new EOFException();
+		buffer.get(bufferIndex, b, off, n);
+		bufferIndex += n;
+	}
+	
+	
+	/* Other public methods */
+	
+	// Returns the state without changing it. Result is in bit little endian.
+	public long getRawNextBits() {
+		return nextBits;
+	}
+	
+	
+	public int getNextBitsLength() {
+		assert 0 <= nextBitsLength && nextBitsLength <= 63;
+		return nextBitsLength;
+	}
+	
+	
+	// Returns a stream of the bytes after the last consumed byte, without copying them.
+	public InputStream detach() {
+		if (buffer == null)
+			throw new IllegalStateException();
+		
+		ByteBuffer rest = buffer.duplicate();
+		rest.position(bufferIndex - nextBitsLength / 8);  // Note: Fractional bits are considered to be consumed
+		close();
+		return new ByteBufferInputStream(rest);
+	}
+	
+	
+	// Releases the reference to the buffer; a mapping is unmapped when it is garbage-collected.
+	public void close() {
+		if (buffer == null)
+			throw new IllegalStateException();
+		
+		buffer = null;
+		bufferIndex = -1;
+		nextBits = 0;
+		nextBitsLength = -1;
+	}
+	
+	
+	
+	/* Helper class */
+	
+	private static final class ByteBufferInputStream extends InputStream {
+		
+		private final ByteBuffer buffer;
+		
+		
+		public ByteBufferInputStream(ByteBuffer buf) {
+			buffer = buf;
+		}
+		
+		
+		public int read() {
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+		
+		
+		public int read(byte[] b, int off, int len) {
+			if (off < 0 || len < 0 || b.length - off < len)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+		
+		
+		public long skip(long n) {
+			if (n <= 0)
+				return 0;
+			int k = (int)Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + k);
+			return k;
+		}
+		
+		
+		public int available() {
+			return buffer.remaining();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,98 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+
+public class MappedBitInputStreamTest extends BitInputStreamTest {
+	
+	protected BitInputStream newInstance(InputStream in) {
+		try {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			while (true) {
+				int n = in.read(buf);
+				if (n == -1)
+					break;
+				bout.write(buf, 0, n);
+			}
+			byte[] b = bout.toByteArray();
+			
+			// Exercise heap and direct buffers, with a nonzero position
+			int off = rand.nextInt(8);
+			ByteBuffer bb = rand.nextBoolean() ? ByteBuffer.allocate(off + b.length + rand.nextInt(8)) : ByteBuffer.allocateDirect(off + b.length);
+			bb.position(off);
+			bb.put(b);
+			bb.flip();
+			bb.position(off);
+			return new MappedBitInputStream(bb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	
+	// Overrides the superclass test, because detach() returns a new stream instead of the original one.
+	@Test
+	public void testDetach() throws IOException {
+		for (int i = 0; i < 1000; i++) {
+			byte[] b = new byte[rand.nextInt(256)];
+			rand.nextBytes(b);
+			
+			BitInputStream in = newInstance(new ByteArrayInputStream(b));
+			int toConsume = rand.nextInt(b.length + 1) * 8;  // In bits
+			for (int off = 0; off <= toConsume - 8; ) {
+				int n = rand.nextInt(33);
+				if (off + n <= toConsume) {
+					in.readBits(n);
+					off += n;
+				}
+			}
+			
+			InputStream rest = in.detach();
+			for (int j = toConsume / 8; j < b.length; j++)
+				assertEquals(b[j] & 0xFF, rest.read());
+			assertEquals(-1, rest.read());
+		}
+	}
+	
+	
+	@Test
+	public void testMappedFile() throws IOException {
+		byte[] b = new byte[100000];
+		rand.nextBytes(b);
+		File file = File.createTempFile("MappedBitInputStreamTest", ".bin");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(b);
+			} finally {
+				out.close();
+			}
+			
+			BitInputStream in = new MappedBitInputStream(file);
+			for (int j = 0; j < b.length; j += 4) {
+				int expect = (b[j] & 0xFF) | (b[j + 1] & 0xFF) << 8 | (b[j + 2] & 0xFF) << 16 | b[j + 3] << 24;
+				assertEquals(expect, in.readBits(32));
+			}
+			in.close();
+		} finally {
+			file.delete();
+		}
+	}
+	
+}
@@ -11,6 +11,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 
 public final class MarkableFileInputStream extends InputStream {
@@ -42,6 +43,40 @@ public final class MarkableFileInputStream extends InputStream {
 	}
 	
 	
+	// Moves the file pointer forward directly instead of reading and discarding bytes.
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		long pos = raf.getFilePointer();
+		long newPos = Math.min(pos + n, raf.length());
+		raf.seek(newPos);
+		return newPos - pos;
+	}
+	
+	
+	// Returns the offset of the next byte to be read, measured from the start of the file.
+	public long getFilePointer() throws IOException {
+		return raf.getFilePointer();
+	}
+	
+	
+	// Sets the offset of the next byte to be read. The mark is unaffected.
+	public void seek(long pos) throws IOException {
+		raf.seek(pos);
+	}
+	
+	
+	// Returns the file's channel, whose position is the same as this stream's file pointer.
+	public FileChannel getChannel() {
+		return raf.getChannel();
+	}
+	
+	
+	public void close() throws IOException {
+		raf.close();
+	}
+	
+	
 	public boolean markSupported() {
 		return true;
 	}
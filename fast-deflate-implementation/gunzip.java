@@ -6,13 +6,22 @@
  * http://www.nayuki.io/page/simple-deflate-implementation
  */
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.DataFormatException;
 
 
@@ -29,92 +38,32 @@ public final class gunzip {
 	
 	private static String submain(String[] args) {
 		// Check arguments
+		boolean parallel = args.length == 3 && args[0].equals("-p");
+		if (parallel)
+			args = new String[]{args[1], args[2]};
 		if (args.length != 2)
-			return "Usage: java gunzip InputFile.gz OutputFile";
+			return "Usage: java gunzip [-p] InputFile.gz OutputFile";
 		
 		File inFile = new File(args[0]);
 		if (!inFile.exists())
 			return "Input file does not exist: " + inFile;
 		if (inFile.isDirectory())
 			return "Input file is a directory: " + inFile;
+		if (parallel)
+			return submainParallel(inFile, new File(args[1]));
 		
 		try {
 			// Start reading
-			InputStream in = new MarkableFileInputStream(inFile);
+			MarkableFileInputStream in = new MarkableFileInputStream(inFile);
 			Inflater inf;
 			int crc, size;
 			try {
 				// Header
-				int flags;
-				{
-					byte[] b = new byte[10];
-					readFully(in, b);
-					if (b[0] != 0x1F || b[1] != (byte)0x8B)
-						return "Invalid GZIP magic number";
-					if (b[2] != 8)
-						return "Unsupported compression method: " + (b[2] & 0xFF);
-					flags = b[3] & 0xFF;
-					
-					// Reserved flags
-					if ((flags & 0xE0) != 0)
-						return "Reserved flags are set";
-					
-					// Modification time
-					int mtime = (b[4] & 0xFF) | (b[5] & 0xFF) << 8 | (b[6] & 0xFF) << 16 | b[7] << 24;
-					if (mtime != 0)
-						System.err.println("Last modified: " + new Date(mtime * 1000L));
-					else
-						System.err.println("Last modified: N/A");
-					
-					// Extra flags
-					switch (b[8] & 0xFF) {
-						case 2:   System.err.println("Extra flags: Maximum compression");  break;
-						case 4:   System.err.println("Extra flags: Fastest compression");  break;
-						default:  System.err.println("Extra flags: Unknown (" + (b[8] & 0xFF) + ")");  break;
-					}
-					
-					// Operating system
-					String os;
-					switch (b[9] & 0xFF) {
-						case   0:  os = "FAT";             break;
-						case   1:  os = "Amiga";           break;
-						case   2:  os = "VMS";             break;
-						case   3:  os = "Unix";            break;
-						case   4:  os = "VM/CMS";          break;
-						case   5:  os = "Atari TOS";       break;
-						case   6:  os = "HPFS";            break;
-						case   7:  os = "Macintosh";       break;
-						case   8:  os = "Z-System";        break;
-						case   9:  os = "CP/M";            break;
-						case  10:  os = "TOPS-20";         break;
-						case  11:  os = "NTFS";            break;
-						case  12:  os = "QDOS";            break;
-						case  13:  os = "Acorn RISCOS";    break;
-						case 255:  os = "Unknown";         break;
-						default :  os = "Really unknown";  break;
-					}
-					System.err.println("Operating system: " + os);
-				}
-				
-				// Handle assorted flags
-				if ((flags & 0x01) != 0)
-					System.err.println("Flag: Text");
-				if ((flags & 0x04) != 0) {
-					System.err.println("Flag: Extra");
-					byte[] b = new byte[2];
-					readFully(in, b);
-					int len = (b[0] & 0xFF) | (b[1] & 0xFF) << 8;
-					readFully(in, new byte[len]);  // Skip extra data
-				}
-				if ((flags & 0x08) != 0)
-					System.err.println("File name: " + readNullTerminatedString(in));
-				if ((flags & 0x02) != 0) {
-					byte[] b = new byte[2];
-					readFully(in, b);
-					System.err.printf("Header CRC-16: %04X%n", (b[0] & 0xFF) | (b[1] & 0xFF) << 8);
+				try {
+					readHeader(in, true);
+				} catch (DataFormatException e) {
+					return e.getMessage();
 				}
-				if ((flags & 0x10) != 0)
-					System.err.println("Comment: " + readNullTerminatedString(in));
 				
 				// Decompress and write to output file
 				File outFile = new File(args[1]);
@@ -122,7 +71,10 @@ public final class gunzip {
 				long elapsedTime;
 				try {
 					long startTime = System.nanoTime();
-					inf = new Inflater(in, out);
+					if (inFile.isFile())  // Map the file instead of copying it through a buffer
+						inf = new Inflater(in.getChannel(), out);
+					else
+						inf = new Inflater(in, out);
 					elapsedTime = System.nanoTime() - startTime;
 				} catch (DataFormatException e) {
 					return "Invalid or corrupt compressed data: " + e.getMessage();
@@ -148,7 +100,11 @@ public final class gunzip {
 				return "Decompressed size mismatch";
 			if (crc != inf.getCrc32())
 				return "Decompression CRC-32 mismatch";
+			System.err.printf("Output CRC-32: %08X%n", crc);
+			System.err.printf("Huffman table cache: %d hits, %d misses%n", inf.getHuffmanCacheHits(), inf.getHuffmanCacheMisses());
 			
+		} catch (EOFException e) {
+			return "Unexpected end of file";
 		} catch (IOException e) {
 			return "I/O exception: " + e.getMessage();
 		}
@@ -157,6 +113,387 @@ public final class gunzip {
 	}
 	
 	
+	/* 
+	 * Reads and checks a member header, printing its fields to standard error if verbose is true.
+	 * Returns the total size of the member (header, data, and footer) if the header carries a BGZF
+	 * "BC" extra subfield, otherwise -1. Throws DataFormatException with a user-facing message
+	 * if the header is invalid or unsupported.
+	 */
+	static int readHeader(InputStream in, boolean verbose) throws IOException, DataFormatException {
+		int flags;
+		{
+			byte[] b = new byte[10];
+			readFully(in, b);
+			if (b[0] != 0x1F || b[1] != (byte)0x8B)
+				throw new DataFormatException("Invalid GZIP magic number");
+			if (b[2] != 8)
+				throw new DataFormatException("Unsupported compression method: " + (b[2] & 0xFF));
+			flags = b[3] & 0xFF;
+			
+			// Reserved flags
+			if ((flags & 0xE0) != 0)
+				throw new DataFormatException("Reserved flags are set");
+			
+			if (verbose) {
+				// Modification time
+				int mtime = (b[4] & 0xFF) | (b[5] & 0xFF) << 8 | (b[6] & 0xFF) << 16 | b[7] << 24;
+				if (mtime != 0)
+					System.err.println("Last modified: " + new Date(mtime * 1000L));
+				else
+					System.err.println("Last modified: N/A");
+				
+				// Extra flags
+				switch (b[8] & 0xFF) {
+					case 2:   System.err.println("Extra flags: Maximum compression");  break;
+					case 4:   System.err.println("Extra flags: Fastest compression");  break;
+					default:  System.err.println("Extra flags: Unknown (" + (b[8] & 0xFF) + ")");  break;
+				}
+				
+				// Operating system
+				String os;
+				switch (b[9] & 0xFF) {
+					case   0:  os = "FAT";             break;
+					case   1:  os = "Amiga";           break;
+					case   2:  os = "VMS";             break;
+					case   3:  os = "Unix";            break;
+					case   4:  os = "VM/CMS";          break;
+					case   5:  os = "Atari TOS";       break;
+					case   6:  os = "HPFS";            break;
+					case   7:  os = "Macintosh";       break;
+					case   8:  os = "Z-System";        break;
+					case   9:  os = "CP/M";            break;
+					case  10:  os = "TOPS-20";         break;
+					case  11:  os = "NTFS";            break;
+					case  12:  os = "QDOS";            break;
+					case  13:  os = "Acorn RISCOS";    break;
+					case 255:  os = "Unknown";         break;
+					default :  os = "Really unknown";  break;
+				}
+				System.err.println("Operating system: " + os);
+			}
+		}
+		
+		// Handle assorted flags
+		int blockSize = -1;
+		if ((flags & 0x01) != 0 && verbose)
+			System.err.println("Flag: Text");
+		if ((flags & 0x04) != 0) {
+			if (verbose)
+				System.err.println("Flag: Extra");
+			byte[] b = new byte[2];
+			readFully(in, b);
+			int len = (b[0] & 0xFF) | (b[1] & 0xFF) << 8;
+			b = new byte[len];
+			readFully(in, b);
+			
+			// Look for the BGZF block size subfield
+			for (int i = 0; i + 4 <= len; ) {
+				int sublen = (b[i + 2] & 0xFF) | (b[i + 3] & 0xFF) << 8;
+				if (b[i] == 'B' && b[i + 1] == 'C' && sublen == 2 && i + 6 <= len)
+					blockSize = ((b[i + 4] & 0xFF) | (b[i + 5] & 0xFF) << 8) + 1;
+				i += 4 + sublen;
+			}
+		}
+		if ((flags & 0x08) != 0) {
+			String name = readNullTerminatedString(in);
+			if (verbose)
+				System.err.println("File name: " + name);
+		}
+		if ((flags & 0x02) != 0) {
+			byte[] b = new byte[2];
+			readFully(in, b);
+			if (verbose)
+				System.err.printf("Header CRC-16: %04X%n", (b[0] & 0xFF) | (b[1] & 0xFF) << 8);
+		}
+		if ((flags & 0x10) != 0) {
+			String comment = readNullTerminatedString(in);
+			if (verbose)
+				System.err.println("Comment: " + comment);
+		}
+		return blockSize;
+	}
+	
+	
+	
+	/* Parallel decompression of multi-member files */
+	
+	// Compressed bytes scanned for member candidates per batch
+	private static final int BATCH_INPUT_SIZE = 16 * 1024 * 1024;
+	
+	// Candidate members decompressed ahead of the writer, per processor. Together with MAX_BUFFERED_MEMBER_SIZE
+	// this bounds the buffered output, because a member's data is released as soon as it has been written.
+	private static final int IN_FLIGHT_PER_THREAD = 2;
+	
+	// A speculatively decompressed member producing more than this is abandoned and redone by streaming
+	private static final int MAX_BUFFERED_MEMBER_SIZE = 64 * 1024 * 1024;
+	
+	
+	/* 
+	 * Decompresses a file of concatenated GZIP members (such as bgzip or pigz -i output) using all
+	 * processors. Each batch of input is divided into members, which are inflated independently on a
+	 * fork-join pool into memory, verified against their CRC-32 and size, and written out in order.
+	 * Only a sliding window of members is in flight at a time, so the memory used does not depend on the batch.
+	 * Member boundaries come from the BGZF block size field when present. Otherwise every offset that
+	 * looks like a member header is tried speculatively, and the chain of members that actually
+	 * follow each other is kept; an offset that failed to decompress on its own (e.g. a member that
+	 * is too large to buffer) is redone by streaming on the current thread.
+	 */
+	private static String submainParallel(File inFile, File outFile) {
+		ForkJoinPool pool = new ForkJoinPool();
+		InflaterPool inflaters = new InflaterPool(pool.getParallelism() + 1);  // Members are often small, so reuse the buffers
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), 64 * 1024);
+			long fileLen = inFile.length();
+			long numMembers = 0;
+			int crc = 0;  // Of all the output, merged from the members' CRCs
+			long startTime = System.nanoTime();
+			int maxInFlight = pool.getParallelism() * IN_FLIGHT_PER_THREAD;
+			try {
+				long pos = 0;
+				do {
+					long[] starts = findMemberCandidates(inFile, pos, fileLen);
+					
+					// Write the chain of members that follow each other, starting from pos, while keeping
+					// a bounded window of decompression tasks submitted for the candidates ahead
+					Queue<ForkJoinTask<MemberResult>> window = new ArrayDeque<ForkJoinTask<MemberResult>>();
+					int submitted = 0;
+					for (int i = 0; i < starts.length && starts[i] <= pos; i++) {
+						for (; submitted < starts.length && submitted - i < maxInFlight; submitted++)
+							window.add(pool.submit(new MemberTask(inFile, starts[submitted], inflaters)));
+						ForkJoinTask<MemberResult> task = window.remove();  // The task for starts[i]
+						if (starts[i] != pos) {  // False positive inside a member already written
+							task.cancel(false);
+							continue;
+						}
+						MemberResult result = task.join();
+						if (result.error != null)
+							break;
+						result.data.writeTo(out);
+						pos = result.end;
+						crc = Crc32.combine(crc, result.crc32, result.data.size());
+						numMembers++;
+					}
+					for (ForkJoinTask<MemberResult> task : window)
+						task.cancel(false);
+					
+					// Stream the next member directly if it could not be done in parallel
+					if (pos < fileLen && (starts.length == 0 || pos <= starts[starts.length - 1])) {
+						if (numMembers > 0 && !isMemberHeader(inFile, pos)) {
+							// Like gzip -d, ignore data after the last member that does not start like a member
+							System.err.println("Trailing garbage ignored: " + (fileLen - pos) + " bytes");
+							break;
+						}
+						long[] member;
+						try {
+							member = decompressMember(inFile, pos, out, inflaters);
+						} catch (DataFormatException e) {
+							return "Invalid or corrupt member at offset " + pos + ": " + e.getMessage();
+						}
+						pos = member[0];
+						crc = Crc32.combine(crc, (int)member[1], member[2]);
+						numMembers++;
+					}
+				} while (pos < fileLen);
+			} finally {
+				out.close();
+			}
+			
+			long elapsedTime = System.nanoTime() - startTime;
+			System.err.println("Members: " + numMembers);
+			System.err.printf("Output CRC-32: %08X%n", crc);
+			System.err.printf("Input  speed: %.2f MiB/s%n",  fileLen / 1048576.0 / elapsedTime * 1.0e9);
+			System.err.printf("Output speed: %.2f MiB/s%n", outFile.length() / 1048576.0 / elapsedTime * 1.0e9);
+			
+		} catch (EOFException e) {
+			return "Unexpected end of file";
+		} catch (IOException e) {
+			return "I/O exception: " + e.getMessage();
+		} finally {
+			pool.shutdown();
+		}
+		return null;
+	}
+	
+	
+	// Returns a sorted array of offsets in [pos, pos + BATCH_INPUT_SIZE) where a member could start,
+	// always including pos itself. If the members carry BGZF block sizes, the exact offsets are returned.
+	private static long[] findMemberCandidates(File file, long pos, long fileLen) throws IOException {
+		List<Long> result = new ArrayList<Long>();
+		long end = Math.min(pos + BATCH_INPUT_SIZE, fileLen);
+		MarkableFileInputStream in = new MarkableFileInputStream(file);
+		try {
+			// Follow the chain of BGZF block sizes
+			long p = pos;
+			while (p < end) {
+				in.seek(p);
+				int size;
+				try {
+					size = readHeader(in, false);
+				} catch (DataFormatException e) {
+					size = -1;
+				} catch (EOFException e) {
+					size = -1;
+				}
+				if (size == -1)
+					break;
+				result.add(p);
+				p += size;
+			}
+			if (p >= end && !result.isEmpty())
+				return toLongArray(result);
+			
+			// Otherwise scan for byte sequences that look like a member header
+			result.clear();
+			result.add(pos);
+			in.seek(pos + 1);
+			byte[] buf = new byte[64 * 1024];
+			long bufStart = pos + 1;
+			int prev2 = -1, prev1 = -1, prev0 = -1;  // Trailing bytes of the window, to catch headers across buffers
+			while (bufStart < end) {
+				int n = in.read(buf, 0, (int)Math.min(buf.length, end + 3 - bufStart));
+				if (n == -1)
+					break;
+				for (int i = 0; i < n; i++) {
+					int b = buf[i] & 0xFF;
+					if (prev2 == 0x1F && prev1 == 0x8B && prev0 == 8 && (b & 0xE0) == 0 && bufStart + i - 3 < end)
+						result.add(bufStart + i - 3);
+					prev2 = prev1;
+					prev1 = prev0;
+					prev0 = b;
+				}
+				bufStart += n;
+			}
+		} finally {
+			in.close();
+		}
+		return toLongArray(result);
+	}
+	
+	
+	// Returns whether readHeader() accepts the bytes at the given offset as a member header.
+	private static boolean isMemberHeader(File file, long offset) throws IOException {
+		MarkableFileInputStream in = new MarkableFileInputStream(file);
+		try {
+			in.seek(offset);
+			readHeader(in, false);
+			return true;
+		} catch (DataFormatException e) {
+			return false;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+	
+	
+	// Decompresses the member starting at the given offset, writing to the given stream and checking the footer.
+	// Returns {offset just past the member's footer, CRC-32 of the member's data, length of the member's data}.
+	private static long[] decompressMember(File file, long offset, OutputStream out, InflaterPool inflaters) throws IOException, DataFormatException {
+		MarkableFileInputStream in = new MarkableFileInputStream(file);
+		Inflater inf = inflaters.acquire();
+		try {
+			in.seek(offset);
+			readHeader(in, false);
+			inf.inflate(in.getChannel(), out);
+			byte[] b = new byte[8];
+			readFully(in, b);
+			int crc  = (b[0] & 0xFF) | (b[1] & 0xFF) << 8 | (b[2] & 0xFF) << 16 | b[3] << 24;
+			int size = (b[4] & 0xFF) | (b[5] & 0xFF) << 8 | (b[6] & 0xFF) << 16 | b[7] << 24;
+			if (size != (int)inf.getLength())
+				throw new DataFormatException("Decompressed size mismatch");
+			if (crc != inf.getCrc32())
+				throw new DataFormatException("Decompression CRC-32 mismatch");
+			return new long[]{in.getFilePointer(), crc, inf.getLength()};
+		} finally {
+			inflaters.release(inf);
+			in.close();
+		}
+	}
+	
+	
+	private static long[] toLongArray(List<Long> list) {
+		long[] result = new long[list.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
+	}
+	
+	
+	
+	/* Helper classes for parallel decompression */
+	
+	private static final class MemberTask implements Callable<MemberResult> {
+		
+		private final File file;
+		private final long offset;
+		private final InflaterPool inflaters;
+		
+		
+		public MemberTask(File file, long offset, InflaterPool inflaters) {
+			this.file = file;
+			this.offset = offset;
+			this.inflaters = inflaters;
+		}
+		
+		
+		public MemberResult call() {
+			BoundedByteArrayOutputStream out = new BoundedByteArrayOutputStream(MAX_BUFFERED_MEMBER_SIZE);
+			try {
+				long[] member = decompressMember(file, offset, out, inflaters);
+				return new MemberResult(out, member[0], (int)member[1], null);
+			} catch (IOException e) {
+				return new MemberResult(null, -1, 0, e);
+			} catch (DataFormatException e) {
+				return new MemberResult(null, -1, 0, e);
+			} catch (IllegalStateException e) {  // From BoundedByteArrayOutputStream
+				return new MemberResult(null, -1, 0, e);
+			}
+		}
+		
+	}
+	
+	
+	private static final class MemberResult {
+		
+		public final ByteArrayOutputStream data;  // Not null iff error is null
+		public final long end;
+		public final int crc32;
+		public final Exception error;
+		
+		
+		public MemberResult(ByteArrayOutputStream data, long end, int crc32, Exception error) {
+			this.data = data;
+			this.end = end;
+			this.crc32 = crc32;
+			this.error = error;
+		}
+		
+	}
+	
+	
+	private static final class BoundedByteArrayOutputStream extends ByteArrayOutputStream {
+		
+		private final int limit;
+		
+		
+		public BoundedByteArrayOutputStream(int limit) {
+			this.limit = limit;
+		}
+		
+		
+		public void write(byte[] b, int off, int len) {
+			if (count + len > limit)
+				throw new IllegalStateException("Member is too large to buffer");
+			super.write(b, off, len);
+		}
+		
+	}
+	
+	
+	
+	/* Utility methods */
+	
 	private static String readNullTerminatedString(InputStream in) throws IOException {
 		StringBuilder sb = new StringBuilder();
 		while (true) {
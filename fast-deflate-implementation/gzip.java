@@ -0,0 +1,89 @@
+/* 
+ * Fast DEFLATE implementation
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/simple-deflate-implementation
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+public final class gzip {
+	
+	public static void main(String[] args) {
+		String msg = submain(args);
+		if (msg != null) {
+			System.err.println(msg);
+			System.exit(1);
+		}
+	}
+	
+	
+	private static String submain(String[] args) {
+		// Check arguments
+		int level = Deflater.DEFAULT_LEVEL;
+		if (args.length == 3 && args[0].matches("-[0-9]")) {
+			level = args[0].charAt(1) - '0';
+			args = new String[]{args[1], args[2]};
+		}
+		if (args.length != 2)
+			return "Usage: java gzip [-0 ... -9] InputFile OutputFile.gz";
+		
+		File inFile = new File(args[0]);
+		if (!inFile.exists())
+			return "Input file does not exist: " + inFile;
+		if (inFile.isDirectory())
+			return "Input file is a directory: " + inFile;
+		
+		try {
+			File outFile = new File(args[1]);
+			InputStream in = new BufferedInputStream(new FileInputStream(inFile), 64 * 1024);
+			try {
+				OutputStream out = new FileOutputStream(outFile);
+				try {
+					// Header
+					int mtime = (int)(inFile.lastModified() / 1000);
+					out.write(new byte[]{
+						0x1F, (byte)0x8B,  // Magic number
+						8,  // Compression method: DEFLATE
+						0,  // Flags: none
+						(byte)(mtime >>> 0), (byte)(mtime >>> 8), (byte)(mtime >>> 16), (byte)(mtime >>> 24),
+						(byte)(level == 9 ? 2 : level == 1 ? 4 : 0),  // Extra flags: maximum or fastest compression
+						(byte)255,  // Operating system: unknown
+					});
+					
+					// Compress
+					long startTime = System.nanoTime();
+					Deflater def = new Deflater(in, out, level);
+					long elapsedTime = System.nanoTime() - startTime;
+					System.err.printf("Input  speed: %.2f MiB/s%n", def.getLength() / 1048576.0 / elapsedTime * 1.0e9);
+					System.err.printf("Output speed: %.2f MiB/s%n", def.getCompressedLength() / 1048576.0 / elapsedTime * 1.0e9);
+					
+					// Footer
+					int crc = def.getCrc32();
+					int size = (int)def.getLength();
+					out.write(new byte[]{
+						(byte)(crc  >>> 0), (byte)(crc  >>> 8), (byte)(crc  >>> 16), (byte)(crc  >>> 24),
+						(byte)(size >>> 0), (byte)(size >>> 8), (byte)(size >>> 16), (byte)(size >>> 24),
+					});
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return "I/O exception: " + e.getMessage();
+		}
+		
+		return null;
+	}
+	
+}
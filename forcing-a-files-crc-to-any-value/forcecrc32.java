@@ -10,6 +10,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class forcecrc32 {
@@ -100,24 +109,89 @@ public class forcecrc32 {
 	private static long POLYNOMIAL = 0x104C11DB7L;  // Generator polynomial. Do not modify, because there are many dependencies
 	
 	
+	// Returns the bit-reversed CRC-32 of the whole file. Large files are split into chunks that are checksummed
+	// on all processors, and the chunk CRCs are merged with polynomial arithmetic.
 	private static int getCrc32(RandomAccessFile raf) throws IOException {
-		raf.seek(0);
+		final FileChannel ch = raf.getChannel();
+		long length = raf.length();
+		int numChunks = (int)Math.max(Math.min(Runtime.getRuntime().availableProcessors(), length / MIN_CHUNK_SIZE), 1);
+		long chunkSize = (length + numChunks - 1) / numChunks;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(numChunks);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < numChunks; i++) {
+				final long start = i * chunkSize;
+				final long end = Math.min(start + chunkSize, length);
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						return getCrc32(ch, start, end);
+					}
+				}));
+			}
+			
+			// crc(A || B) = crc(A) * x^(8 * len(B)) + crc(B), because the initial value and final XOR cancel out
+			long crc = 0;
+			for (int i = 0; i < numChunks; i++) {
+				long chunkLen = Math.min(chunkSize, length - i * chunkSize);
+				crc = multiplyMod(crc, powMod(2, chunkLen * 8)) ^ (Integer.reverse(futures.get(i).get()) & 0xFFFFFFFFL);
+			}
+			return (int)crc;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	// Returns the standard (reflected) CRC-32 of the bytes in [start, end) of the file, using slicing-by-8.
+	// Uses positional reads, so multiple threads can share the channel.
+	private static int getCrc32(FileChannel ch, long start, long end) throws IOException {
+		int[] t = CRC_TABLE;
 		int crc = 0xFFFFFFFF;
-		byte[] buffer = new byte[32 * 1024];
-		while (true) {
-			int n = raf.read(buffer);
+		ByteBuffer bb = ByteBuffer.allocate(32 * 1024);
+		byte[] buffer = bb.array();
+		for (long pos = start; pos < end; ) {
+			bb.clear();
+			bb.limit((int)Math.min(buffer.length, end - pos));
+			int n = ch.read(bb, pos);
 			if (n == -1)
-				return ~crc;
-			for (int i = 0; i < n; i++) {
-				for (int j = 0; j < 8; j++) {
-					crc ^= (buffer[i] >>> j) << 31;
-					if ((crc & (1 << 31)) != 0)
-						crc = (crc << 1) ^ (int)POLYNOMIAL;
-					else
-						crc <<= 1;
-				}
+				throw new IOException("Unexpected end of file");
+			pos += n;
+			
+			int i = 0;
+			for (; n - i >= 8; i += 8) {
+				int x = crc ^ ((buffer[i] & 0xFF) | (buffer[i + 1] & 0xFF) << 8 | (buffer[i + 2] & 0xFF) << 16 | buffer[i + 3] << 24);
+				crc = t[7 * 256 + (x & 0xFF)] ^ t[6 * 256 + (x >>> 8 & 0xFF)] ^ t[5 * 256 + (x >>> 16 & 0xFF)] ^ t[4 * 256 + (x >>> 24)]
+				    ^ t[3 * 256 + (buffer[i + 4] & 0xFF)] ^ t[2 * 256 + (buffer[i + 5] & 0xFF)] ^ t[1 * 256 + (buffer[i + 6] & 0xFF)] ^ t[buffer[i + 7] & 0xFF];
 			}
+			for (; i < n; i++)
+				crc = (crc >>> 8) ^ t[(crc ^ buffer[i]) & 0xFF];
+		}
+		return ~crc;
+	}
+	
+	
+	private static final int MIN_CHUNK_SIZE = 4 * 1024 * 1024;  // Smaller files are not worth splitting
+	
+	// CRC_TABLE[k * 256 + i] is the reflected register after feeding byte i followed by k zero bytes
+	private static final int[] CRC_TABLE = new int[8 * 256];
+	
+	static {
+		int reflectedPoly = Integer.reverse((int)POLYNOMIAL);
+		for (int i = 0; i < 256; i++) {
+			int reg = i;
+			for (int j = 0; j < 8; j++)
+				reg = (reg >>> 1) ^ ((reg & 1) * reflectedPoly);
+			CRC_TABLE[i] = reg;
 		}
+		for (int i = 256; i < CRC_TABLE.length; i++)
+			CRC_TABLE[i] = (CRC_TABLE[i - 256] >>> 8) ^ CRC_TABLE[CRC_TABLE[i - 256] & 0xFF];
 	}
 	
 	
@@ -0,0 +1,347 @@
+/* 
+ * Library classes for GIF optimizer (Java)
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/gif-optimizer-java
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+
+// Reduces true-color RGB24 images to a palette of at most 256 colors. The palette is chosen by median cut
+// over a histogram with 5 bits per channel, and each pixel is mapped to its nearest palette color (by squared
+// Euclidean distance in RGB) with the help of a grid of candidate lists. Both the histogram and the mapping are
+// computed in parallel over bands of rows. An instance holds a palette and its lookup grid, and is immutable.
+final class ColorQuantizer {
+	
+	/*---- Palette construction ----*/
+	
+	// Returns a sorted palette of length [0, maxColors] chosen by median cut for the given RGB24 pixels,
+	// ignoring any pixel equal to excludeColor (which is -1 to ignore none).
+	public static int[] medianCut(int[] pixels, int excludeColor, int maxColors) {
+		if (maxColors <= 0)
+			throw new IllegalArgumentException("Invalid number of colors");
+		long[] hist = ForkJoinPool.commonPool().invoke(new HistogramTask(pixels, excludeColor, 0, pixels.length));
+		
+		// Gather the non-empty histogram cells
+		int[] cells = new int[HIST_SIZE];
+		int numCells = 0;
+		for (int i = 0; i < HIST_SIZE; i++) {
+			if (hist[i * 4] > 0) {
+				cells[numCells] = i;
+				numCells++;
+			}
+		}
+		
+		// Each box is a range of the cells array, boxStart[i] to boxStart[i + 1]. Repeatedly split the box with the
+		// largest product of pixel count and longest side at the weighted median, until there are enough boxes.
+		int[] boxStart = new int[maxColors + 1];
+		int numBoxes = numCells > 0 ? 1 : 0;
+		boxStart[numBoxes] = numCells;
+		while (numBoxes < maxColors) {
+			int bestBox = -1;
+			int bestAxis = -1;
+			double bestPriority = 0;
+			for (int i = 0; i < numBoxes; i++) {
+				int start = boxStart[i];
+				int end = boxStart[i + 1];
+				if (end - start < 2)
+					continue;
+				int[] min = {31, 31, 31};
+				int[] max = {0, 0, 0};
+				long count = 0;
+				for (int j = start; j < end; j++) {
+					for (int k = 0; k < 3; k++) {
+						int c = getCellComponent(cells[j], k);
+						min[k] = Math.min(c, min[k]);
+						max[k] = Math.max(c, max[k]);
+					}
+					count += hist[cells[j] * 4];
+				}
+				int axis = 0;
+				for (int k = 1; k < 3; k++) {
+					if (max[k] - min[k] > max[axis] - min[axis])
+						axis = k;
+				}
+				double priority = (double)count * (max[axis] - min[axis] + 1);
+				if (priority > bestPriority) {
+					bestBox = i;
+					bestAxis = axis;
+					bestPriority = priority;
+				}
+			}
+			if (bestBox == -1)
+				break;  // Every box has one cell
+			
+			// Sort the box's cells along the axis, then split after the cell where half the pixels are reached
+			int start = boxStart[bestBox];
+			int end = boxStart[bestBox + 1];
+			sortCells(cells, start, end, bestAxis);
+			long total = 0;
+			for (int j = start; j < end; j++)
+				total += hist[cells[j] * 4];
+			long sum = 0;
+			int split = start + 1;
+			for (int j = start; j < end - 1; j++) {
+				sum += hist[cells[j] * 4];
+				split = j + 1;
+				if (sum * 2 >= total)
+					break;
+			}
+			System.arraycopy(boxStart, bestBox + 1, boxStart, bestBox + 2, numBoxes - bestBox);
+			boxStart[bestBox + 1] = split;
+			numBoxes++;
+		}
+		
+		// Each palette color is the pixel-weighted mean of its box
+		int[] result = new int[numBoxes];
+		for (int i = 0; i < numBoxes; i++) {
+			long count = 0;
+			long[] sums = new long[3];
+			for (int j = boxStart[i]; j < boxStart[i + 1]; j++) {
+				int cell = cells[j];
+				count += hist[cell * 4];
+				for (int k = 0; k < 3; k++)
+					sums[k] += hist[cell * 4 + 1 + k];
+			}
+			int color = 0;
+			for (int k = 0; k < 3; k++)
+				color = color << 8 | (int)((sums[k] + count / 2) / count);
+			result[i] = color;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	
+	// Returns the given component (0 = red, 1 = green, 2 = blue) of a histogram cell index, in the range [0, 32).
+	private static int getCellComponent(int cell, int k) {
+		return cell >>> ((2 - k) * 5) & 31;
+	}
+	
+	
+	// Sorts cells[start : end] by the given component, using a counting sort.
+	private static void sortCells(int[] cells, int start, int end, int k) {
+		int[] offsets = new int[33];
+		for (int i = start; i < end; i++)
+			offsets[getCellComponent(cells[i], k) + 1]++;
+		for (int i = 1; i < offsets.length; i++)
+			offsets[i] += offsets[i - 1];
+		int[] temp = new int[end - start];
+		for (int i = start; i < end; i++) {
+			int c = getCellComponent(cells[i], k);
+			temp[offsets[c]] = cells[i];
+			offsets[c]++;
+		}
+		System.arraycopy(temp, 0, cells, start, temp.length);
+	}
+	
+	
+	private static final int HIST_SIZE = 1 << 15;  // 5 bits per channel
+	
+	
+	// Returns a histogram of pixels[lo : hi] excluding excludeColor, where for each cell i (an RGB555 value),
+	// element i*4 is the pixel count and elements i*4+1 to i*4+3 are the sums of the red, green, blue components.
+	private static final class HistogramTask extends RecursiveTask<long[]> {
+		
+		private static final long serialVersionUID = 0;
+		
+		private final int[] pixels;
+		private final int excludeColor;
+		private final int lo;
+		private final int hi;
+		
+		
+		public HistogramTask(int[] pixels, int excludeColor, int lo, int hi) {
+			this.pixels = pixels;
+			this.excludeColor = excludeColor;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		
+		protected long[] compute() {
+			if (hi - lo <= TASK_PIXELS * 4) {  // Larger than usual because each task allocates a histogram
+				long[] result = new long[HIST_SIZE * 4];
+				for (int i = lo; i < hi; i++) {
+					int pix = pixels[i] & 0xFFFFFF;
+					if (pix == excludeColor)
+						continue;
+					int r = pix >>> 16, g = pix >>> 8 & 0xFF, b = pix & 0xFF;
+					int j = ((r >>> 3) << 10 | (g >>> 3) << 5 | b >>> 3) * 4;
+					result[j + 0]++;
+					result[j + 1] += r;
+					result[j + 2] += g;
+					result[j + 3] += b;
+				}
+				return result;
+			} else {
+				int mid = (lo + hi) >>> 1;
+				HistogramTask left = new HistogramTask(pixels, excludeColor, lo, mid);
+				left.fork();
+				long[] result = new HistogramTask(pixels, excludeColor, mid, hi).compute();
+				long[] other = left.join();
+				for (int i = 0; i < result.length; i++)
+					result[i] += other[i];
+				return result;
+			}
+		}
+		
+	}
+	
+	
+	
+	/*---- Nearest color lookup ----*/
+	
+	private final int[] palette;
+	
+	// The RGB cube is divided into GRID_SIZE^3 cells. The palette indexes that can possibly be nearest to some color
+	// in cell i are candidates[candidateStart[i] : candidateStart[i + 1]], in ascending order.
+	private final int[] candidateStart;
+	private final int[] candidates;
+	
+	
+	// Builds the lookup grid for the given palette of RGB24 colors, which must have length [1, 256].
+	public ColorQuantizer(int[] palette) {
+		if (palette.length == 0 || palette.length > 256)
+			throw new IllegalArgumentException("Invalid palette");
+		this.palette = palette.clone();
+		for (int i = 0; i < palette.length; i++) {
+			if (palette[i] >>> 24 != 0)
+				throw new IllegalArgumentException("Invalid color");
+		}
+		
+		int numCells = GRID_SIZE * GRID_SIZE * GRID_SIZE;
+		candidateStart = new int[numCells + 1];
+		int[] temp = new int[numCells * 4];
+		int count = 0;
+		int[] minDist = new int[palette.length];
+		for (int i = 0; i < numCells; i++) {
+			// A color can be nearest only if its distance to the closest point of the cell is
+			// at most the smallest distance over all colors to the farthest point of the cell
+			int bound = Integer.MAX_VALUE;
+			for (int j = 0; j < palette.length; j++) {
+				int min = 0, max = 0;
+				for (int k = 0; k < 3; k++) {
+					int lo = (i >>> ((2 - k) * GRID_BITS) & (GRID_SIZE - 1)) * CELL_WIDTH;
+					int hi = lo + CELL_WIDTH - 1;
+					int c = palette[j] >>> ((2 - k) * 8) & 0xFF;
+					int near = c < lo ? lo - c : c > hi ? c - hi : 0;
+					int far = Math.max(c - lo, hi - c);
+					min += near * near;
+					max += far * far;
+				}
+				minDist[j] = min;
+				bound = Math.min(max, bound);
+			}
+			candidateStart[i] = count;
+			for (int j = 0; j < palette.length; j++) {
+				if (minDist[j] <= bound) {
+					if (count == temp.length)
+						temp = Arrays.copyOf(temp, temp.length * 2);
+					temp[count] = j;
+					count++;
+				}
+			}
+		}
+		candidateStart[numCells] = count;
+		candidates = Arrays.copyOf(temp, count);
+	}
+	
+	
+	// Returns the index of the palette color nearest to the given RGB24 color, preferring lower indexes on ties.
+	public int getNearest(int color) {
+		int r = color >>> 16 & 0xFF, g = color >>> 8 & 0xFF, b = color & 0xFF;
+		int cell = (r >>> CELL_BITS) << (GRID_BITS * 2) | (g >>> CELL_BITS) << GRID_BITS | b >>> CELL_BITS;
+		int bestIndex = -1;
+		int bestDist = Integer.MAX_VALUE;
+		for (int i = candidateStart[cell], end = candidateStart[cell + 1]; i < end; i++) {
+			int j = candidates[i];
+			int p = palette[j];
+			int dr = (p >>> 16 & 0xFF) - r;
+			int dg = (p >>> 8 & 0xFF) - g;
+			int db = (p & 0xFF) - b;
+			int dist = dr * dr + dg * dg + db * db;
+			if (dist < bestDist) {
+				bestIndex = j;
+				bestDist = dist;
+			}
+		}
+		return bestIndex;
+	}
+	
+	
+	// Maps each RGB24 pixel of the given image to its nearest palette index, except that pixels equal to
+	// excludeColor (if not -1) become excludeIndex. The rows are processed in parallel bands.
+	public byte[] convertToPaletted(int[] pixels, int width, int excludeColor, int excludeIndex) {
+		if (width <= 0 || pixels.length % width != 0)
+			throw new IllegalArgumentException();
+		byte[] result = new byte[pixels.length];
+		int rowsPerTask = Math.max(TASK_PIXELS / width, 1);
+		ForkJoinPool.commonPool().invoke(new MapTask(pixels, result, width, rowsPerTask, excludeColor, excludeIndex, 0, pixels.length / width));
+		return result;
+	}
+	
+	
+	private static final int GRID_BITS = 4;
+	private static final int GRID_SIZE = 1 << GRID_BITS;
+	private static final int CELL_BITS = 8 - GRID_BITS;
+	private static final int CELL_WIDTH = 1 << CELL_BITS;
+	
+	private static final int TASK_PIXELS = 1 << 16;  // Approximate work size below which tasks are not split
+	
+	
+	// Fills the rows [lo, hi) of the result image.
+	private final class MapTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 0;
+		
+		private final int[] pixels;
+		private final byte[] result;
+		private final int width;
+		private final int rowsPerTask;
+		private final int excludeColor;
+		private final int excludeIndex;
+		private final int lo;
+		private final int hi;
+		
+		
+		public MapTask(int[] pixels, byte[] result, int width, int rowsPerTask, int excludeColor, int excludeIndex, int lo, int hi) {
+			this.pixels = pixels;
+			this.result = result;
+			this.width = width;
+			this.rowsPerTask = rowsPerTask;
+			this.excludeColor = excludeColor;
+			this.excludeIndex = excludeIndex;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		
+		protected void compute() {
+			if (hi - lo <= rowsPerTask) {
+				// Runs of identical pixels are common, so remember the last lookup
+				int lastColor = -1;
+				int lastIndex = -1;
+				for (int i = lo * width, end = hi * width; i < end; i++) {
+					int pix = pixels[i] & 0xFFFFFF;
+					if (pix != lastColor) {
+						lastColor = pix;
+						lastIndex = pix == excludeColor ? excludeIndex : getNearest(pix);
+					}
+					result[i] = (byte)lastIndex;
+				}
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new MapTask(pixels, result, width, rowsPerTask, excludeColor, excludeIndex, lo, mid),
+				          new MapTask(pixels, result, width, rowsPerTask, excludeColor, excludeIndex, mid, hi));
+			}
+		}
+		
+	}
+	
+}
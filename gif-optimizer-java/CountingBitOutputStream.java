@@ -0,0 +1,26 @@
+/* 
+ * Library classes for GIF optimizer (Java)
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/gif-optimizer-java
+ */
+
+// A sink for counting the number of bits written, but discarding the data bits.
+final class CountingBitOutputStream extends BitOutputStream {
+	
+	public long length;  // Total number of bits written
+	
+	
+	
+	public CountingBitOutputStream() {
+		length = 0;
+	}
+	
+	
+	
+	public void writeBits(int value, int width) {
+		length += width;
+	}
+	
+}
@@ -0,0 +1,114 @@
+/* 
+ * GIF LZW dictionary benchmark
+ * 
+ * 
+ * Compares the array-based and node-based LZW dictionaries of GifLzwCompressor on the
+ * work done by the optimizing encoder: computing the encoded sizes from every block
+ * offset of a synthetic image to the end. Prints the time and bytes allocated per
+ * round for each dictionary, after checking that both give identical sizes.
+ * 
+ * Usage: java GifLzwBenchmark [Width Height [BlockSize]]
+ * (defaults: 512 512 4096)
+ * 
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/gif-optimizer-java
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public final class GifLzwBenchmark {
+	
+	public static void main(String[] args) {
+		if (args.length != 0 && args.length != 2 && args.length != 3) {
+			System.err.println("Usage: java GifLzwBenchmark [Width Height [BlockSize]]");
+			System.exit(1);
+		}
+		int width     = args.length >= 2 ? Integer.parseInt(args[0]) : 512;
+		int height    = args.length >= 2 ? Integer.parseInt(args[1]) : 512;
+		int blockSize = args.length >= 3 ? Integer.parseInt(args[2]) : 4096;
+		byte[] pixels = makeImage(width, height, new Random(0));
+		int codeBits = 8;
+		int numBlocks = (pixels.length + blockSize - 1) / blockSize;
+		System.out.printf("Image: %d x %d, block size: %d, offsets: %d%n", width, height, blockSize, numBlocks);
+		
+		// Check that both dictionaries agree, for both dictionary clearing modes
+		GifLzwCompressor.EncoderPool[] pools = {new GifLzwCompressor.EncoderPool(false), new GifLzwCompressor.EncoderPool(true)};
+		for (int dictClear : new int[]{-1, 4096}) {
+			for (int i = 0; i < numBlocks; i++) {
+				long[] a = GifLzwCompressor.getLzwEncodedSizes(pixels, i * blockSize, blockSize, codeBits, dictClear, pools[0]);
+				long[] b = GifLzwCompressor.getLzwEncodedSizes(pixels, i * blockSize, blockSize, codeBits, dictClear, pools[1]);
+				if (!Arrays.equals(a, b))
+					throw new AssertionError("Size mismatch at offset " + i * blockSize);
+			}
+		}
+		
+		// Time alternating rounds, after warm-up
+		String[] names = {"Array dictionary", "Node dictionary"};
+		long[] bestTime = {Long.MAX_VALUE, Long.MAX_VALUE};
+		long[] alloc = new long[2];
+		for (int round = 0; round < 12; round++) {
+			for (int k = 0; k < 2; k++) {
+				long allocBefore = getAllocatedBytes();
+				long start = System.nanoTime();
+				long checksum = 0;
+				for (int i = 0; i < numBlocks; i++) {
+					long[] sizes = GifLzwCompressor.getLzwEncodedSizes(pixels, i * blockSize, blockSize, codeBits, -1, pools[k]);
+					checksum += sizes[sizes.length - 1];
+				}
+				long time = System.nanoTime() - start;
+				alloc[k] = allocBefore != -1 ? getAllocatedBytes() - allocBefore : -1;
+				if (round >= 2)  // The first rounds are for JIT warm-up
+					bestTime[k] = Math.min(time, bestTime[k]);
+				if (checksum == 0)
+					throw new AssertionError();
+			}
+		}
+		
+		long bytesPerRound = 0;  // Each offset encodes from itself to the end of the image
+		for (int i = 0; i < numBlocks; i++)
+			bytesPerRound += pixels.length - i * blockSize;
+		for (int k = 0; k < 2; k++) {
+			System.out.printf("%-18s %8.1f ms/round %8.1f MB/s   %s%n", names[k], bestTime[k] / 1.0e6,
+				bytesPerRound / 1.0e6 / (bestTime[k] / 1.0e9),
+				alloc[k] >= 0 ? String.format("%.1f MB allocated/round", alloc[k] / 1.0e6) : "allocation N/A");
+		}
+	}
+	
+	
+	// Returns an 8-bit indexed image with flat regions, gradients, dithering-like noise, and repeated patterns.
+	private static byte[] makeImage(int width, int height, Random rand) {
+		byte[] result = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v;
+				if (y < height / 3)
+					v = (x / 16 + y / 16) % 8;
+				else if (y < height * 2 / 3)
+					v = 64 + x * 64 / width + (rand.nextInt(4) == 0 ? rand.nextInt(3) : 0);
+				else
+					v = rand.nextInt(5) == 0 ? rand.nextInt(256) : 128 + ((x ^ y) & 15);
+				result[y * width + x] = (byte)v;
+			}
+		}
+		return result;
+	}
+	
+	
+	// Returns the number of bytes allocated by the current thread so far, or -1 if unsupported.
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+			if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled())
+				return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+}
@@ -8,6 +8,10 @@
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 // Provides different methods for performing GIF's dialect of LZW compression.
@@ -21,39 +25,76 @@ class GifLzwCompressor {
 	public static void encodeUncompressed(byte[] data, int start, int end, int codeBits, BitOutputStream out) throws IOException {
 		if (start < 0 || end < start || end > data.length)
 			throw new ArrayIndexOutOfBoundsException();
-		if (codeBits < 2 || codeBits > 8)
-			throw new IllegalArgumentException();
+		UncompressedEncoder enc = new UncompressedEncoder(codeBits, out);
+		enc.write(data, start, end - start);
+		enc.finish();
+	}
+	
+	
+	// The streaming form of encodeUncompressed(), which takes the data in consecutive pieces (e.g. decoded rows)
+	// and produces the same output as encoding their concatenation at once.
+	public static final class UncompressedEncoder {
 		
-		final int alphabetSize = 1 << codeBits;
-		final int clearCode = alphabetSize;
-		final int stopCode = clearCode + 1;
-		codeBits++;  // To accommodate Clear and Stop codes
+		private final int alphabetSize;
+		private final int codeBits;  // Including the Clear and Stop codes
+		private BitOutputStream output;  // Null after finish()
+		private int sinceClear;  // Number of literals written since the last Clear code
 		
-		out.writeBits(clearCode, codeBits);
-		for (int i = start, j = 0; i < end; i++) {
-			int b = data[i] & 0xFF;
-			if (b >= alphabetSize)
-				throw new IllegalArgumentException("Byte value out of range");
-			out.writeBits(b, codeBits);  // Write every byte as a literal symbol
-			
-			// Clear the dictionary periodically to ensure that codeBits does not increase
-			j++;
-			if (j == alphabetSize - 2) {
-				out.writeBits(clearCode, codeBits);
-				j = 0;
+		
+		// Writes the initial Clear code.
+		public UncompressedEncoder(int codeBits, BitOutputStream out) throws IOException {
+			if (codeBits < 2 || codeBits > 8)
+				throw new IllegalArgumentException();
+			if (out == null)
+				throw new NullPointerException();
+			alphabetSize = 1 << codeBits;
+			this.codeBits = codeBits + 1;  // To accommodate Clear and Stop codes
+			output = out;
+			sinceClear = 0;
+			out.writeBits(alphabetSize, this.codeBits);
+		}
+		
+		
+		public void write(byte[] data, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || data.length - off < len)
+				throw new ArrayIndexOutOfBoundsException();
+			if (output == null)
+				throw new IllegalStateException();
+			final int clearCode = alphabetSize;
+			for (int i = off, end = off + len; i < end; i++) {
+				int b = data[i] & 0xFF;
+				if (b >= alphabetSize)
+					throw new IllegalArgumentException("Byte value out of range");
+				output.writeBits(b, codeBits);  // Write every byte as a literal symbol
+				
+				// Clear the dictionary periodically to ensure that codeBits does not increase
+				sinceClear++;
+				if (sinceClear == alphabetSize - 2) {
+					output.writeBits(clearCode, codeBits);
+					sinceClear = 0;
+				}
 			}
 		}
-		out.writeBits(stopCode, codeBits);
+		
+		
+		// Writes the Stop code. No more data can be written afterward.
+		public void finish() throws IOException {
+			if (output == null)
+				throw new IllegalStateException();
+			output.writeBits(alphabetSize + 1, codeBits);
+			output = null;
+		}
+		
 	}
 	
 	
-	private static void encodeLzwBlock(byte[] data, int rangeStart, int rangeEnd, int dataEnd, int codeBits, int dictClear, BitOutputStream out) throws IOException {
+	private static void encodeLzwBlock(byte[] data, int rangeStart, int rangeEnd, int dataEnd, int codeBits, int dictClear, EncoderPool pool, BitOutputStream out) throws IOException {
 		if (!(0 <= rangeStart && rangeStart <= rangeEnd && rangeEnd <= dataEnd && dataEnd <= data.length))
 			throw new ArrayIndexOutOfBoundsException();
 		if (codeBits < 2 || codeBits > 8)
 			throw new IllegalArgumentException();
 		
-		DictionaryEncoder enc = new DictionaryEncoder(codeBits, dictClear);
+		DictionaryEncoder enc = pool.acquire(codeBits, dictClear);
 		final int clearCode = 1 << codeBits;
 		final int stopCode = clearCode + 1;
 		int i = rangeStart;
@@ -62,6 +103,7 @@ class GifLzwCompressor {
 		if (i != rangeEnd)
 			throw new AssertionError();
 		out.writeBits(rangeEnd < dataEnd ? clearCode : stopCode, enc.codeBits);  // Terminate block with Clear or Stop code
+		pool.release(enc);
 	}
 	
 	
@@ -70,41 +112,73 @@ class GifLzwCompressor {
 	
 	// Based on splitting the data into blocks and applying encodeLzwBlock() to each.
 	public static void encodeOptimized(byte[] data, int start, int end, int codeBits, int blockSize, int dictClear, BitOutputStream out, boolean print) throws IOException {
+		encodeOptimized(planOptimized(data, start, end, codeBits, blockSize, dictClear, print), out, print);
+	}
+	
+	
+	// Does all the optimization work of encodeOptimized() and returns the chosen block boundaries with the exact
+	// encoded size, without producing the encoded data. The plan can then be written by encodeOptimized(OptimizedPlan, ...),
+	// or only its size used (e.g. to skip encoding a version that would not be kept).
+	public static OptimizedPlan planOptimized(byte[] data, int start, int end, int codeBits, int blockSize, int dictClear, boolean print) throws IOException {
 		if (start < 0 || end < start || end > data.length)
 			throw new ArrayIndexOutOfBoundsException();
 		if (codeBits < 2 || codeBits > 8 || blockSize <= 0)
 			throw new IllegalArgumentException();
 		
 		int numBlocks = (end - start + blockSize - 1) / blockSize;  // ceil(length / blockSize)
-		if (numBlocks == 0) {  // Requires special handling
-			out.writeBits((1 << codeBits) + 1, codeBits + 1);  // Stop code
-			return;
-		}
-		
-		// sizes[i][j] is the LZW compressed size (in bits) of encoding j*blockSize bytes starting at offset start+i*blockSize
-		long[][] sizes = new long[numBlocks][];
-		for (int i = 0, off = start; i < sizes.length; i++, off += blockSize) {
-			if (print) System.out.printf("\rOptimizing: %d of %d blocks", i, numBlocks);
-			sizes[i] = getLzwEncodedSizes(data, off, blockSize, codeBits, dictClear);
-		}
-		if (print) System.out.println();
-		
-		// bestSize[i] represents the minimum LZW compressed size (in bits) of encoding the byte range
-		// [start+i*blockSize, start+end) (i.e. the block start up to the end of the array range)
-		long[] bestSize = new long[numBlocks];
 		int[] bestNumBlocks = new int[numBlocks];
-		for (int i = numBlocks - 1; i >= 0; i--) {
-			bestSize[i] = sizes[i][numBlocks - i];
-			bestNumBlocks[i] = numBlocks - i;
-			for (int j = 1; j + i < numBlocks; j++) {  // Dynamic programming
-				long size = sizes[i][j] + bestSize[i + j];
-				if (size < bestSize[i]) {
-					bestSize[i] = size;
-					bestNumBlocks[i] = j;
+		EncoderPool pool = new EncoderPool(false);
+		if (numBlocks > 0) {
+			// sizes[i][j] is the LZW compressed size (in bits) of encoding j*blockSize bytes starting at offset start+i*blockSize.
+			// Each row is independent of the others, so they are computed in parallel.
+			long[][] sizes = new long[numBlocks][];
+			ForkJoinPool.commonPool().invoke(new SizesTask(data, start, blockSize, codeBits, dictClear, pool, sizes, 0, numBlocks, print ? new AtomicInteger() : null));
+			if (print) System.out.println();
+			
+			// bestSize[i] represents the minimum LZW compressed size (in bits) of encoding the byte range
+			// [start+i*blockSize, start+end) (i.e. the block start up to the end of the array range)
+			long[] bestSize = new long[numBlocks];
+			for (int i = numBlocks - 1; i >= 0; i--) {
+				bestSize[i] = sizes[i][numBlocks - i];
+				bestNumBlocks[i] = numBlocks - i;
+				for (int j = 1; j + i < numBlocks; j++) {  // Dynamic programming
+					long size = sizes[i][j] + bestSize[i + j];
+					if (size < bestSize[i]) {
+						bestSize[i] = size;
+						bestNumBlocks[i] = j;
+					}
 				}
 			}
 		}
 		
+		// The sizes table is approximate (the terminating codes are counted at the initial code width), so count exactly
+		OptimizedPlan result = new OptimizedPlan(data, start, end, codeBits, blockSize, dictClear, bestNumBlocks);
+		CountingBitOutputStream counter = new CountingBitOutputStream();
+		encodeOptimized(result, counter, false, pool);
+		result.bitLength = counter.length;
+		return result;
+	}
+	
+	
+	// Encodes and writes the LZW blocks chosen by planOptimized(). Writes exactly plan.getBitLength() bits.
+	public static void encodeOptimized(OptimizedPlan plan, BitOutputStream out, boolean print) throws IOException {
+		encodeOptimized(plan, out, print, new EncoderPool(false));
+	}
+	
+	
+	private static void encodeOptimized(OptimizedPlan plan, BitOutputStream out, boolean print, EncoderPool pool) throws IOException {
+		byte[] data = plan.data;
+		int start = plan.start;
+		int end = plan.end;
+		int codeBits = plan.codeBits;
+		int blockSize = plan.blockSize;
+		int[] bestNumBlocks = plan.bestNumBlocks;
+		int numBlocks = bestNumBlocks.length;
+		if (numBlocks == 0) {  // Requires special handling
+			out.writeBits((1 << codeBits) + 1, codeBits + 1);  // Stop code
+			return;
+		}
+		
 		// Encode and write the LZW blocks
 		if (print) System.out.print("Writing pixels - breakpoints: 0");
 		out.writeBits(1 << codeBits, codeBits + 1);  // Initial clear code
@@ -113,24 +187,57 @@ class GifLzwCompressor {
 			int n = bestNumBlocks[i];
 			int ed = Math.min(st + n * blockSize, end);
 			if (print) System.out.print(", " + ed);
-			encodeLzwBlock(data, st, ed, end, codeBits, dictClear, out);
+			encodeLzwBlock(data, st, ed, end, codeBits, plan.dictClear, pool, out);
 			i += n;
 		}
 		if (print) System.out.println();
 	}
 	
 	
+	// The result of planOptimized(). Refers to the original data array, which must not be changed before encoding.
+	public static final class OptimizedPlan {
+		
+		private final byte[] data;
+		private final int start;
+		private final int end;
+		private final int codeBits;
+		private final int blockSize;
+		private final int dictClear;
+		private final int[] bestNumBlocks;  // bestNumBlocks[i] is the number of blocks in the LZW block starting at block i
+		private long bitLength;
+		
+		
+		private OptimizedPlan(byte[] data, int start, int end, int codeBits, int blockSize, int dictClear, int[] bestNumBlocks) {
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.codeBits = codeBits;
+			this.blockSize = blockSize;
+			this.dictClear = dictClear;
+			this.bestNumBlocks = bestNumBlocks;
+		}
+		
+		
+		// Returns the exact number of bits that encodeOptimized() writes for this plan.
+		public long getBitLength() {
+			return bitLength;
+		}
+		
+	}
+	
+	
 	// Returns an array describing the number of bits to encode the byte sequences
 	// {data[off : off], data[off : off + blockSize], data[off : off + 2*blockSize], ...}
 	// until the last block (which may be a partial block that has [1, blockSize] bytes).
-	private static long[] getLzwEncodedSizes(byte[] data, int off, int blockSize, int codeBits, int dictClear) {
+	// The encoder comes from the given pool, which selects the dictionary implementation.
+	static long[] getLzwEncodedSizes(byte[] data, int off, int blockSize, int codeBits, int dictClear, EncoderPool pool) {
 		try {
 			// result[0] is the bit length of encoding 0 blocks of size 'blockSize' starting at off,
 			// result[1] is the bit length of encoding 1 blocks of size 'blockSize' starting at off, etc.
 			// result[result.length-1] is the length of encoding everything starting at off.
 			long[] result = new long[(data.length - off + blockSize - 1) / blockSize + 1];  // ceil((data.length - off) / blockSize) + 1
 			
-			DictionaryEncoder enc = new DictionaryEncoder(codeBits, dictClear);
+			DictionaryEncoder enc = pool.acquire(codeBits, dictClear);
 			CountingBitOutputStream counter = new CountingBitOutputStream();
 			counter.writeBits(0, enc.codeBits);  // Pre-count the trailing Clear or Stop code that ends any block
 			result[0] = counter.length;
@@ -147,6 +254,7 @@ class GifLzwCompressor {
 				}
 			}
 			result[result.length - 1] = counter.length;  // Handle last partial block
+			pool.release(enc);
 			return result;
 			
 		} catch (IOException e) {
@@ -156,18 +264,275 @@ class GifLzwCompressor {
 	
 	
 	
-	private static final class DictionaryEncoder {
+	// Fills sizes[lo : hi] using getLzwEncodedSizes(), splitting the range so that idle threads can steal work.
+	// Rows near the start of the data take the longest, because they extend to the end of the data.
+	private static final class SizesTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 0;
+		
+		private final byte[] data;
+		private final int start;
+		private final int blockSize;
+		private final int codeBits;
+		private final int dictClear;
+		private final EncoderPool pool;
+		private final long[][] sizes;
+		private final int lo;
+		private final int hi;
+		private final AtomicInteger done;  // Null if progress is not printed
+		
 		
-		private static final int MAX_DICT_SIZE = 4096;
+		public SizesTask(byte[] data, int start, int blockSize, int codeBits, int dictClear, EncoderPool pool, long[][] sizes, int lo, int hi, AtomicInteger done) {
+			this.data = data;
+			this.start = start;
+			this.blockSize = blockSize;
+			this.codeBits = codeBits;
+			this.dictClear = dictClear;
+			this.pool = pool;
+			this.sizes = sizes;
+			this.lo = lo;
+			this.hi = hi;
+			this.done = done;
+		}
+		
+		
+		protected void compute() {
+			if (hi - lo == 1) {
+				sizes[lo] = getLzwEncodedSizes(data, start + lo * blockSize, blockSize, codeBits, dictClear, pool);
+				if (done != null)
+					System.out.printf("\rOptimizing: %d of %d blocks", done.incrementAndGet(), sizes.length);
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new SizesTask(data, start, blockSize, codeBits, dictClear, pool, sizes, lo, mid, done),
+				          new SizesTask(data, start, blockSize, codeBits, dictClear, pool, sizes, mid, hi, done));
+			}
+		}
+		
+	}
+	
+	
+	
+	/*---- Fast heuristic encoder ----*/
+	
+	// A fast alternative to planOptimized() that gives near-optimal output in linear time, for when latency matters
+	// more than the last few bytes. It encodes the data in one pass, and at sampled block boundaries compares the
+	// cost of the next window of data with the current dictionary against a fresh one, clearing the dictionary where
+	// the fresh one is cheaper. Once the time budget runs out, the rest of the data is encoded without further clears.
+	// Returns a plan with the exact encoded size, like planOptimized().
+	public static OptimizedPlan planFast(byte[] data, int start, int end, int codeBits, int blockSize, int dictClear, long budgetNanos) throws IOException {
+		if (start < 0 || end < start || end > data.length)
+			throw new ArrayIndexOutOfBoundsException();
+		if (codeBits < 2 || codeBits > 8 || blockSize <= 0 || budgetNanos < 0)
+			throw new IllegalArgumentException();
+		long deadline = System.nanoTime() + budgetNanos;
+		
+		int numBlocks = (end - start + blockSize - 1) / blockSize;  // ceil(length / blockSize)
+		int[] bestNumBlocks = new int[numBlocks];
+		EncoderPool pool = new EncoderPool(false);
+		if (numBlocks > 0) {
+			long window = Math.max(blockSize, FAST_WINDOW_BYTES);
+			ArrayDictionaryEncoder cur = new ArrayDictionaryEncoder(codeBits, dictClear);
+			ArrayDictionaryEncoder fresh = new ArrayDictionaryEncoder(codeBits, dictClear);
+			CountingBitOutputStream curCounter = new CountingBitOutputStream();
+			CountingBitOutputStream freshCounter = new CountingBitOutputStream();
+			int lzwStart = 0;  // Index of the block where the current LZW block begins
+			int i = start;  // Position of the current dictionary's encoder
+			while (System.nanoTime() < deadline) {
+				// Candidate boundary is the first one at or after the encoder's position
+				int k = Math.max((int)(((long)i - start + blockSize - 1) / blockSize), lzwStart + 1);
+				if (k >= numBlocks)
+					break;
+				int b = start + k * blockSize;
+				while (i < b)
+					i += cur.encodeNext(data, i, end, curCounter);
+				int windowEnd = (int)Math.min(b + window, end);
+				
+				// Cost per byte of the window with the current dictionary (the encoder may have overshot b slightly)
+				int curStart = i;
+				long curBits = curCounter.length;
+				while (i < windowEnd)
+					i += cur.encodeNext(data, i, end, curCounter);
+				curBits = curCounter.length - curBits;
+				
+				// Cost per byte of the window with a fresh dictionary, plus the Clear code
+				fresh.reset(codeBits, dictClear);
+				freshCounter.length = cur.codeBits;
+				int j = b;
+				while (j < windowEnd)
+					j += fresh.encodeNext(data, j, end, freshCounter);
+				
+				if (i > curStart && (double)freshCounter.length / (j - b) < (double)curBits / (i - curStart)) {
+					// Clear at b, continuing with the fresh dictionary
+					bestNumBlocks[lzwStart] = k - lzwStart;
+					lzwStart = k;
+					ArrayDictionaryEncoder temp = cur;
+					cur = fresh;
+					fresh = temp;
+					i = j;
+				}
+			}
+			bestNumBlocks[lzwStart] = numBlocks - lzwStart;
+			pool.release(cur);
+			pool.release(fresh);
+		}
+		
+		OptimizedPlan result = new OptimizedPlan(data, start, end, codeBits, blockSize, dictClear, bestNumBlocks);
+		CountingBitOutputStream counter = new CountingBitOutputStream();
+		encodeOptimized(result, counter, false, pool);
+		result.bitLength = counter.length;
+		return result;
+	}
+	
+	
+	// Minimum length of the look-ahead window in planFast(), in bytes (it is at least one block). Longer windows give
+	// a fresh dictionary time to fill up before being judged, but react later to changes in the data.
+	private static final int FAST_WINDOW_BYTES = 16384;
+	
+	
+	
+	// Lends out dictionary encoders to the tasks of one optimization, from any thread. The array dictionary's table is
+	// expensive to allocate, so each released one is reset and reused by the next acquire(), and they all become garbage
+	// along with the pool when the optimization finishes. At most one encoder per concurrently running task is created.
+	static final class EncoderPool {
+		
+		private final boolean nodeDictionary;
+		private final ConcurrentLinkedQueue<ArrayDictionaryEncoder> free;
+		
+		
+		// The node-based dictionary gives identical results more slowly, and is only selectable for benchmarking.
+		public EncoderPool(boolean nodeDictionary) {
+			this.nodeDictionary = nodeDictionary;
+			free = new ConcurrentLinkedQueue<ArrayDictionaryEncoder>();
+		}
+		
+		
+		// Returns an encoder with an empty dictionary for the given parameters, for the caller's exclusive use until released.
+		public DictionaryEncoder acquire(int codeBits, int dictClear) {
+			if (nodeDictionary)
+				return new NodeDictionaryEncoder(codeBits, dictClear);
+			ArrayDictionaryEncoder result = free.poll();
+			if (result == null)
+				return new ArrayDictionaryEncoder(codeBits, dictClear);
+			result.reset(codeBits, dictClear);
+			return result;
+		}
+		
+		
+		// Makes the given encoder available to later acquire() calls. The caller must not use it afterward.
+		public void release(DictionaryEncoder enc) {
+			if (enc instanceof ArrayDictionaryEncoder)
+				free.add((ArrayDictionaryEncoder)enc);
+		}
+		
+	}
+	
+	
+	
+	// Encodes one symbol at a time by greedy longest match, adding dictionary entries like the decoder does.
+	private static abstract class DictionaryEncoder {
+		
+		protected static final int MAX_DICT_SIZE = 4096;
+		
+		public int codeBits;  // Equal to ceil(log2(size))
+		
+		
+		// Returns the number of bytes consumed.
+		public abstract int encodeNext(byte[] data, int start, int end, BitOutputStream out) throws IOException;
+		
+	}
+	
+	
+	
+	// A dictionary in a flat primitive array, which allocates nothing per entry and clears in constant time.
+	// table[prefix code << 8 | next byte] packs (generation << 12 | code of the extended string), and only
+	// elements stamped with the current generation are present, so clearing just increments the generation.
+	// The 4 MiB table is reused across the encodings of one optimization through an EncoderPool.
+	private static final class ArrayDictionaryEncoder extends DictionaryEncoder {
+		
+		private static final int MAX_GENERATION = (1 << 20) - 1;
+		
+		private int initCodeBits;
+		private int[] table;    // Length MAX_DICT_SIZE * 256
+		private int generation; // In the range [1, MAX_GENERATION]; 0 is the stamp of elements that were never written
+		private int size;       // Number of dictionary entries, max 4096
+		private int dictClear;  // -1 for deferred clear code, otherwise in the range [5, 4096]
+		
+		
+		public ArrayDictionaryEncoder(int codeBits, int dictClear) {
+			table = new int[MAX_DICT_SIZE * 256];
+			generation = 0;
+			reset(codeBits, dictClear);
+		}
+		
+		
+		public void reset(int codeBits, int dictClear) {
+			if (codeBits < 2 || codeBits > 8)
+				throw new IllegalArgumentException();
+			initCodeBits = codeBits;
+			this.dictClear = dictClear;
+			clearDictionary();
+		}
+		
+		
+		public int encodeNext(byte[] data, int start, int end, BitOutputStream out) throws IOException {
+			// Find longest match in dictionary, starting with the single-byte string
+			if (start >= end || (data[start] & 0xFF) >= (1 << initCodeBits))
+				throw new IllegalArgumentException("Byte value out of range");
+			int[] tab = table;
+			int gen = generation;
+			int code = data[start] & 0xFF;
+			int i;
+			for (i = start + 1; i < end; i++) {
+				int entry = tab[code << 8 | (data[i] & 0xFF)];
+				if (entry >>> 12 != gen)
+					break;
+				code = entry & 0xFFF;
+			}
+			
+			// Write encoded symbol
+			out.writeBits(code, codeBits);
+			
+			// Add new dictionary entry
+			if (size < MAX_DICT_SIZE) {
+				if (i < end)  // Only add a physical entry if next symbol is not Clear or Stop
+					tab[code << 8 | (data[i] & 0xFF)] = gen << 12 | size;
+				// But we must update the size and code bits for the decoder's sake
+				if ((size & (size - 1)) == 0)  // Is a power of 2
+					codeBits++;
+				size++;
+				if (dictClear != -1 && size >= dictClear) {
+					out.writeBits(1 << initCodeBits, codeBits);
+					clearDictionary();
+				}
+			}
+			return i - start;  // Length of match
+		}
+		
+		
+		private void clearDictionary() {
+			generation++;
+			if (generation > MAX_GENERATION) {  // Old stamps could look current after wrapping around
+				Arrays.fill(table, 0);
+				generation = 1;
+			}
+			size = (1 << initCodeBits) + 2;  // Reset size and add Clear and Stop codes
+			this.codeBits = initCodeBits + 1;
+		}
+		
+	}
+	
+	
+	
+	// The original dictionary as a trie of objects, with one allocation per entry. Kept for comparison in benchmarks.
+	private static final class NodeDictionaryEncoder extends DictionaryEncoder {
 		
 		private int initCodeBits;
 		private Node root;      // A trie structure
 		private int size;       // Number of dictionary entries, max 4096
-		public int codeBits;    // Equal to ceil(log2(size))
 		private int dictClear;  // -1 for deferred clear code, otherwise in the range [5, 4096]
 		
 		
-		public DictionaryEncoder(int codeBits, int dictClear) {
+		public NodeDictionaryEncoder(int codeBits, int dictClear) {
 			if (codeBits < 2 || codeBits > 8)
 				throw new IllegalArgumentException();
 			initCodeBits = codeBits;
@@ -23,6 +23,21 @@ class GifLzwDecompressor {
 	}
 	
 	
+	// Static method for streaming decompression with bounded memory. Passes the decoded pixels to the sink
+	// in rows of 'width' bytes as soon as each row is complete (the last row may be shorter), and returns
+	// the total number of pixels decoded. The whole frame is never held in memory.
+	public static long decode(BitInputStream in, int codeBits, int width, RowSink sink) throws IOException {
+		if (width <= 0)
+			throw new IllegalArgumentException();
+		if (sink == null)
+			throw new NullPointerException();
+		RowOutputStream out = new RowOutputStream(width, sink);
+		new GifLzwDecompressor(in, 1 << codeBits, out);
+		out.finish();
+		return out.length;
+	}
+	
+	
 	
 	/* Stateful decompressor object */
 	
@@ -106,4 +121,70 @@ class GifLzwDecompressor {
 		Arrays.fill(symbolStart, curDictSize + 1, symbolStart.length, -1);
 	}
 	
+	
+	
+	/* Row splitting for streaming decompression */
+	
+	private static final class RowOutputStream extends OutputStream {
+		
+		private final RowSink sink;
+		private final byte[] row;  // Reused for every row
+		private int rowLength;     // Number of pixels in the current partial row
+		private int rowIndex;
+		public long length;        // Total number of pixels written
+		
+		
+		public RowOutputStream(int width, RowSink sink) {
+			this.sink = sink;
+			row = new byte[width];
+			rowLength = 0;
+			rowIndex = 0;
+			length = 0;
+		}
+		
+		
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+		
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			length += len;
+			while (len > 0) {
+				int n = Math.min(row.length - rowLength, len);
+				System.arraycopy(b, off, row, rowLength, n);
+				rowLength += n;
+				off += n;
+				len -= n;
+				if (rowLength == row.length) {
+					sink.writeRow(row, rowLength, rowIndex);
+					rowIndex++;
+					rowLength = 0;
+				}
+			}
+		}
+		
+		
+		// Emits the final partial row, if any.
+		public void finish() throws IOException {
+			if (rowLength > 0) {
+				sink.writeRow(row, rowLength, rowIndex);
+				rowIndex++;
+				rowLength = 0;
+			}
+		}
+		
+	}
+	
+	
+	
+	// Receives decoded pixels from decode(BitInputStream, int, int, RowSink).
+	public interface RowSink {
+		
+		// Receives the pixels row[0 : len] of row number y (counting from 0). The array is reused for the next row,
+		// so the sink must copy any data it keeps after returning.
+		public void writeRow(byte[] row, int len, int y) throws IOException;
+		
+	}
+	
 }
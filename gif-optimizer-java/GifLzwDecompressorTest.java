@@ -0,0 +1,102 @@
+/* 
+ * Library classes for GIF optimizer (Java)
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/gif-optimizer-java
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+
+public final class GifLzwDecompressorTest {
+	
+	/* Test cases */
+	
+	@Test
+	public void testStreamingMatchesWhole() throws IOException {
+		Random rand = new Random(1);
+		for (int trial = 0; trial < 30; trial++) {
+			int codeBits = rand.nextInt(7) + 2;
+			byte[] pixels = makePixels(rand.nextInt(20000), codeBits, rand);
+			byte[] comp = encode(pixels, codeBits, rand.nextBoolean());
+			byte[] whole = GifLzwDecompressor.decode(new BitInputStream(new ByteArrayInputStream(comp)), codeBits);
+			assertArrayEquals(pixels, whole);
+			
+			for (int width : new int[]{1, 7, 100, rand.nextInt(300) + 1, pixels.length + 1}) {
+				final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+				final int w = width;
+				final int[] numRows = {0};
+				long length = GifLzwDecompressor.decode(new BitInputStream(new ByteArrayInputStream(comp)), codeBits, width, new GifLzwDecompressor.RowSink() {
+					public void writeRow(byte[] row, int len, int y) {
+						assertEquals(numRows[0], y);
+						assertEquals(w, row.length);
+						rows.write(row, 0, len);
+						numRows[0]++;
+					}
+				});
+				assertEquals(whole.length, length);
+				assertEquals((whole.length + width - 1) / width, numRows[0]);  // Only the last row may be partial
+				assertArrayEquals(whole, rows.toByteArray());
+			}
+		}
+	}
+	
+	
+	@Test
+	public void testUncompressedEncoderPieces() throws IOException {
+		Random rand = new Random(2);
+		for (int trial = 0; trial < 30; trial++) {
+			int codeBits = rand.nextInt(7) + 2;
+			byte[] pixels = makePixels(rand.nextInt(5000), codeBits, rand);
+			byte[] whole = encode(pixels, codeBits, false);
+			
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			ByteBitOutputStream bitOut = new ByteBitOutputStream(bout);
+			GifLzwCompressor.UncompressedEncoder enc = new GifLzwCompressor.UncompressedEncoder(codeBits, bitOut);
+			for (int i = 0; i < pixels.length; ) {
+				int n = Math.min(rand.nextInt(300), pixels.length - i);
+				enc.write(pixels, i, n);
+				i += n;
+			}
+			enc.finish();
+			bitOut.detach();
+			assertArrayEquals(whole, bout.toByteArray());
+		}
+	}
+	
+	
+	
+	/* Utility methods */
+	
+	// Returns pixels with runs and repeats, so that the LZW encoding uses long dictionary entries.
+	private static byte[] makePixels(int len, int codeBits, Random rand) {
+		byte[] result = new byte[len];
+		for (int i = 0; i < len; i++) {
+			if (i >= 10 && rand.nextDouble() < 0.7)
+				result[i] = result[i - 1 - rand.nextInt(Math.min(i, 50))];
+			else
+				result[i] = (byte)rand.nextInt(1 << codeBits);
+		}
+		return result;
+	}
+	
+	
+	private static byte[] encode(byte[] pixels, int codeBits, boolean optimized) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		ByteBitOutputStream bitOut = new ByteBitOutputStream(bout);
+		if (optimized)
+			GifLzwCompressor.encodeOptimized(pixels, 0, pixels.length, codeBits, 1024, -1, bitOut, false);
+		else
+			GifLzwCompressor.encodeUncompressed(pixels, 0, pixels.length, codeBits, bitOut);
+		bitOut.detach();
+		return bout.toByteArray();
+	}
+	
+}
@@ -17,7 +17,8 @@
  *       image will necessarily be encoded in one block without clearing the
  *       dictionary (unless dictclear is specified).
  *     If the value is 0, then uncompressed LZW encoding is used, which will
- *       produce rather large files.
+ *       produce rather large files. In this mode, each image's pixels are
+ *       decoded row by row as they are re-encoded, rather than held in memory.
  *   dictclear=int or "dcc"
  *     For example: dictclear=4096
  *     Valid range: [5, 4096]. Default is "dcc".
@@ -32,6 +33,26 @@
  *       The value 4096 should be sufficient to work around decoder bugs; otherwise
  *       try 4095 or 4094. There is no need to use lower values (which hurts
  *       compression further), but this encoder easily supports all possible values.
+ *   threads=int
+ *     For example: threads=4
+ *     Number of images (animation frames) that are recompressed concurrently.
+ *       Default is the number of processors. If the value is greater than 1,
+ *       a reader thread parses and decodes the images ahead while a pool of
+ *       worker threads recompresses them, and the results are written in the
+ *       original block order. If the value is 1, each image is decoded,
+ *       recompressed, and written before the next one is read, and the
+ *       encoder's progress is printed (workers run silently).
+ *     The output file is identical regardless of this value.
+ *   fast=int
+ *     For example: fast=50
+ *     Time budget in milliseconds for choosing the dictionary clear points of
+ *       each image. If specified, instead of searching all block boundaries for
+ *       the optimal ones, a one-pass heuristic compares the current dictionary
+ *       against a fresh one at sampled boundaries and clears where the fresh one
+ *       encodes the upcoming data more compactly. When the budget runs out, the
+ *       rest of the image is encoded without further clearing. This is much
+ *       faster but usually produces slightly larger output; as always, the
+ *       original LZW data is kept if it is smaller. Requires a nonzero blocksize.
  * 
  * Notes:
  * - All GIF files are supported, including animated ones, ones with multiple
@@ -52,6 +73,7 @@
  * http://www.nayuki.io/page/gif-optimizer-java
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -59,7 +81,17 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.DataFormatException;
 
 
@@ -95,6 +127,8 @@ public class OptimizeGif {
 		// Parse options
 		int blockSize = -1;
 		int dictClear = -2;
+		int threads = -1;
+		int fastMillis = -1;
 		for (int i = 0; i < args.length - 2; i++) {
 			String opt = args[i];
 			if (opt.startsWith("blocksize=")) {
@@ -114,6 +148,20 @@ public class OptimizeGif {
 						return "Invalid dictionary clear option value";
 				} else
 					return "Invalid dictionary clear option format";
+			} else if (opt.startsWith("threads=")) {
+				if (threads != -1)
+					return "Duplicate threads option";
+				if (!opt.matches("threads=[0-9]{1,4}"))
+					return "Invalid threads option format";
+				threads = Integer.parseInt(opt.substring(8));
+				if (threads == 0)
+					return "Invalid threads option value";
+			} else if (opt.startsWith("fast=")) {
+				if (fastMillis != -1)
+					return "Duplicate fast option";
+				if (!opt.matches("fast=[0-9]{1,9}"))
+					return "Invalid fast option format";
+				fastMillis = Integer.parseInt(opt.substring(5));
 			} else
 				return "Invalid option: " + opt;
 		}
@@ -122,87 +170,29 @@ public class OptimizeGif {
 			blockSize = 1024;
 		if (dictClear == -2)
 			dictClear = -1;
+		if (threads == -1)
+			threads = Runtime.getRuntime().availableProcessors();
+		if (fastMillis != -1 && blockSize == 0)
+			return "Fast option requires nonzero block size";
 		
 		// Run optimizer
-		optimizeGif(inFile, blockSize, dictClear, outFile);
+		optimizeGif(inFile, blockSize, dictClear, fastMillis, threads, outFile);
 		return null;
 	}
 	
 	
 	// Reads the given input file, optimizes just the LZW blocks according to the block size, and writes to the given output file.
+	// If fastMillis is not -1, the heuristic encoder is used with that time budget per image instead of the optimal one.
 	// The output file path *must* point to a different file than the input file, otherwise the data will be corrupted.
-	private static void optimizeGif(File inFile, int blockSize, int dictClear, File outFile) throws IOException, DataFormatException {
+	private static void optimizeGif(File inFile, int blockSize, int dictClear, int fastMillis, int threads, File outFile) throws IOException, DataFormatException {
 		MemoizingInputStream in = new MemoizingInputStream(new FileInputStream(inFile));
 		try {
 			OutputStream out = new FileOutputStream(outFile);
 			try {
-				// Header
-				int version;  // 0 = GIF87a, 1 = GIF89a
-				{
-					byte[] header = new byte[6];
-					readFully(in, header);
-					if (header[0] != 'G' || header[1] != 'I' || header[2] != 'F')
-						throw new DataFormatException("Invalid GIF header");
-					if (header[3] != '8' || header[5] != 'a')
-						throw new DataFormatException("Unrecognized GIF version");
-					
-					if (header[4] == '7')
-						version = 0;
-					else if (header[4] == '9')
-						version = 1;
-					else
-						throw new DataFormatException("Unrecognized GIF version");
-				}
-				
-				// Logical screen descriptor
-				{
-					byte[] screenDesc = new byte[7];
-					readFully(in, screenDesc);
-					if ((screenDesc[4] & 0x80) != 0) {
-						int gctSize = (screenDesc[4] & 0x7) + 1;
-						readFully(in, new byte[(1 << gctSize) * 3]);  // Skip global color table
-					}
-				}
-				
-				// Process top-level blocks
-				while (true) {
-					int b = in.read();
-					if (b == -1)
-						throw new EOFException();
-					else if (b == 0x3B)  // Trailer
-						break;
-					else if (b == 0x21) {  // Extension introducer
-						if (version == 0)
-							throw new DataFormatException("Extension block not supported in GIF87a");
-						b = in.read();  // Block label
-						if (b == -1)
-							throw new EOFException();
-						SubblockInputStream bin = new SubblockInputStream(in);
-						while (bin.read() != -1);  // Skip all data
-						
-					} else if (b == 0x2C) {
-						// Image descriptor
-						byte[] imageDesc = new byte[9];
-						readFully(in, imageDesc);
-						if ((imageDesc[8] & 0x80) != 0) {
-							int lctSize = (imageDesc[8] & 0x7) + 1;
-							readFully(in, new byte[(1 << lctSize) * 3]);  // Skip local color table
-						}
-						int codeBits = in.read();
-						if (b == -1)
-							throw new EOFException();
-						if (codeBits < 2 || codeBits > 8)
-							throw new DataFormatException("Invalid number of code bits");
-						out.write(in.getBuffer());
-						in.clearBuffer();
-						recompressData(in, blockSize, dictClear, codeBits, out);
-						
-					} else
-						throw new DataFormatException("Unrecognized data block");
-				}
-				
-				// Copy remainder of data that was read
-				out.write(in.getBuffer());
+				if (threads == 1)
+					processBlocks(in, new SequentialSink(out, blockSize, dictClear, fastMillis), blockSize > 0);
+				else
+					processBlocksPipelined(in, out, blockSize, dictClear, fastMillis, threads);
 				
 			} catch (DataFormatException e) {
 				out.close();
@@ -221,37 +211,331 @@ public class OptimizeGif {
 	}
 	
 	
-	// Read and decompress the LZW data fully, perform optimization and compression, and write out the new version.
-	private static void recompressData(MemoizingInputStream in, int blockSize, int dictClear, int codeBits, OutputStream out) throws IOException {
-		// Read and decompress
-		SubblockInputStream blockIn = new SubblockInputStream(in);
-		byte[] pixels = GifLzwDecompressor.decode(new BitInputStream(blockIn), codeBits);
-		while (blockIn.read() != -1);  // Discard rest of subblock data after the LZW Stop code
+	// Parses the whole GIF file, giving every byte read to the sink in order: the LZW data of each image
+	// as a decoded image, and everything else (header, color tables, extension blocks, etc.) verbatim.
+	// If decodePixels is false, images are given to the sink without pixels, to be decoded by streaming.
+	private static void processBlocks(MemoizingInputStream in, BlockSink sink, boolean decodePixels) throws IOException, DataFormatException {
+		// Header
+		int version;  // 0 = GIF87a, 1 = GIF89a
+		{
+			byte[] header = new byte[6];
+			readFully(in, header);
+			if (header[0] != 'G' || header[1] != 'I' || header[2] != 'F')
+				throw new DataFormatException("Invalid GIF header");
+			if (header[3] != '8' || header[5] != 'a')
+				throw new DataFormatException("Unrecognized GIF version");
+			
+			if (header[4] == '7')
+				version = 0;
+			else if (header[4] == '9')
+				version = 1;
+			else
+				throw new DataFormatException("Unrecognized GIF version");
+		}
+		
+		// Logical screen descriptor
+		{
+			byte[] screenDesc = new byte[7];
+			readFully(in, screenDesc);
+			if ((screenDesc[4] & 0x80) != 0) {
+				int gctSize = (screenDesc[4] & 0x7) + 1;
+				readFully(in, new byte[(1 << gctSize) * 3]);  // Skip global color table
+			}
+		}
 		
-		// Compress and hold
-		ByteArrayOutputStream bufOut = new ByteArrayOutputStream();
-		SubblockOutputStream blockOut = new SubblockOutputStream(bufOut);
-		ByteBitOutputStream bitOut = new ByteBitOutputStream(blockOut);
-		if (blockSize > 0)
-			GifLzwCompressor.encodeOptimized(pixels, 0, pixels.length, codeBits, blockSize, dictClear, bitOut, true);
-		else if (blockSize == 0)
-			GifLzwCompressor.encodeUncompressed(pixels, 0, pixels.length, codeBits, bitOut);
-		else
+		// Process top-level blocks
+		while (true) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			else if (b == 0x3B)  // Trailer
+				break;
+			else if (b == 0x21) {  // Extension introducer
+				if (version == 0)
+					throw new DataFormatException("Extension block not supported in GIF87a");
+				b = in.read();  // Block label
+				if (b == -1)
+					throw new EOFException();
+				SubblockInputStream bin = new SubblockInputStream(in);
+				while (bin.read() != -1);  // Skip all data
+				
+			} else if (b == 0x2C) {
+				// Image descriptor
+				byte[] imageDesc = new byte[9];
+				readFully(in, imageDesc);
+				if ((imageDesc[8] & 0x80) != 0) {
+					int lctSize = (imageDesc[8] & 0x7) + 1;
+					readFully(in, new byte[(1 << lctSize) * 3]);  // Skip local color table
+				}
+				int codeBits = in.read();
+				if (b == -1)
+					throw new EOFException();
+				if (codeBits < 2 || codeBits > 8)
+					throw new DataFormatException("Invalid number of code bits");
+				sink.write(in.getBuffer());
+				in.clearBuffer();
+				
+				// Read the LZW data, and decompress it fully unless it will be decoded by streaming
+				SubblockInputStream blockIn = new SubblockInputStream(in);
+				byte[] pixels = null;
+				if (decodePixels)
+					pixels = GifLzwDecompressor.decode(new BitInputStream(blockIn), codeBits);
+				while (blockIn.read() != -1);  // Discard rest of subblock data after the LZW Stop code
+				byte[] oldComp = in.getBuffer();
+				in.clearBuffer();
+				int width = (imageDesc[4] & 0xFF) | (imageDesc[5] & 0xFF) << 8;
+				sink.writeImage(pixels, width, codeBits, oldComp);
+				
+			} else
+				throw new DataFormatException("Unrecognized data block");
+		}
+		
+		// Copy remainder of data that was read
+		sink.write(in.getBuffer());
+		in.clearBuffer();
+	}
+	
+	
+	// Performs optimization and compression, and writes the new version of the LZW data if it is
+	// shorter than the old version (both in subblocks), otherwise the old version. The size of the new
+	// version is determined first without producing it, so it is never held in memory. If blockSize is 0,
+	// then pixels is not used (and may be null), because the image is decoded again from oldComp instead.
+	private static void recompressData(byte[] pixels, int width, int codeBits, byte[] oldComp, int blockSize, int dictClear, int fastMillis, boolean print, OutputStream out) throws IOException {
+		// Size-only pass
+		GifLzwCompressor.OptimizedPlan plan = null;
+		long newBits;
+		if (blockSize > 0) {
+			if (fastMillis != -1)
+				plan = GifLzwCompressor.planFast(pixels, 0, pixels.length, codeBits, blockSize, dictClear, fastMillis * 1000000L);
+			else
+				plan = GifLzwCompressor.planOptimized(pixels, 0, pixels.length, codeBits, blockSize, dictClear, print);
+			newBits = plan.getBitLength();
+		} else if (blockSize == 0) {
+			CountingBitOutputStream counter = new CountingBitOutputStream();
+			encodeUncompressedRows(oldComp, width, codeBits, counter);
+			newBits = counter.length;
+		} else
 			throw new AssertionError();
-		bitOut.detach();
-		blockOut.detach();
 		
 		// Choose which version to write
-		byte[] oldComp = in.getBuffer();
-		byte[] newComp = bufOut.toByteArray();
-		if (newComp.length < oldComp.length)
-			out.write(newComp);
-		else
+		if (getSubblockedLength(newBits) < oldComp.length) {
+			SubblockOutputStream blockOut = new SubblockOutputStream(out);
+			ByteBitOutputStream bitOut = new ByteBitOutputStream(blockOut);
+			if (plan != null)
+				GifLzwCompressor.encodeOptimized(plan, bitOut, print);
+			else
+				encodeUncompressedRows(oldComp, width, codeBits, bitOut);
+			bitOut.detach();
+			blockOut.detach();
+		} else
 			out.write(oldComp);
-		in.clearBuffer();
 	}
 	
 	
+	// Decodes the given LZW data (in subblocks) one row at a time, and encodes the pixels like encodeUncompressed().
+	private static void encodeUncompressedRows(byte[] comp, int width, int codeBits, BitOutputStream out) throws IOException {
+		final GifLzwCompressor.UncompressedEncoder enc = new GifLzwCompressor.UncompressedEncoder(codeBits, out);
+		BitInputStream in = new BitInputStream(new SubblockInputStream(new ByteArrayInputStream(comp)));
+		GifLzwDecompressor.decode(in, codeBits, Math.max(width, 1), new GifLzwDecompressor.RowSink() {
+			public void writeRow(byte[] row, int len, int y) throws IOException {
+				enc.write(row, 0, len);
+			}
+		});
+		enc.finish();
+	}
+	
+	
+	// Returns the number of bytes that SubblockOutputStream produces for the given number of data bits, including the terminator.
+	private static long getSubblockedLength(long bits) {
+		long bytes = (bits + 7) / 8;
+		return bytes + (bytes + 254) / 255 + 1;
+	}
+	
+	
+	
+	/*---- Pipelined processing ----*/
+	
+	// Runs processBlocks() on a reader thread and recompresses images on a pool of worker threads, while this
+	// thread acts as the sequencer that writes the results in the original order. The queue between the reader
+	// and the sequencer is bounded, which limits the number of decoded images held in memory.
+	static void processBlocksPipelined(final MemoizingInputStream in, OutputStream out, int blockSize, int dictClear, int fastMillis, int threads) throws IOException, DataFormatException {
+		ExecutorService reader = Executors.newSingleThreadExecutor(newDaemonThreadFactory("OptimizeGif reader"));
+		ExecutorService workers = Executors.newFixedThreadPool(threads, newDaemonThreadFactory("OptimizeGif worker"));
+		try {
+			final BlockingQueue<Future<byte[]>> queue = new ArrayBlockingQueue<Future<byte[]>>(threads * 2);
+			final PipelinedSink sink = new PipelinedSink(queue, workers, blockSize, dictClear, fastMillis);
+			Future<Void> readResult = reader.submit(new Callable<Void>() {
+				public Void call() throws IOException, DataFormatException, InterruptedException {
+					boolean success = false;
+					try {
+						processBlocks(in, sink, blockSize > 0);
+						success = true;
+					} finally {
+						// Even on failure, so that the sequencer stops waiting. The queued results are moot then, and
+						// the sequencer may have failed and stopped taking, so make room to ensure that put() returns
+						if (!success)
+							queue.clear();
+						queue.put(END_OF_BLOCKS);
+					}
+					return null;
+				}
+			});
+			
+			// Write results in order as they complete
+			while (true) {
+				Future<byte[]> item;
+				try {
+					item = queue.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				if (item == END_OF_BLOCKS)
+					break;
+				out.write(getResult(item));
+			}
+			getResult(readResult);  // Rethrow any parsing error
+			
+		} finally {
+			// Stops the reader and workers if this method is exiting abnormally
+			reader.shutdownNow();
+			workers.shutdownNow();
+		}
+	}
+	
+	
+	// Returns the result of the given finished or running task, rethrowing its exception if it failed.
+	private static <T> T getResult(Future<T> future) throws IOException, DataFormatException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			else if (cause instanceof DataFormatException)
+				throw (DataFormatException)cause;
+			else if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if (cause instanceof Error)
+				throw (Error)cause;
+			else
+				throw new RuntimeException(cause);
+		}
+	}
+	
+	
+	private static final Future<byte[]> END_OF_BLOCKS = CompletableFuture.completedFuture(null);
+	
+	
+	// Returns a factory of daemon threads with the given name, so that a thread still finishing a task
+	// after a failure (which is not waited for) cannot keep the program from exiting.
+	private static ThreadFactory newDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread result = new Thread(r, name);
+				result.setDaemon(true);
+				return result;
+			}
+		};
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	// Receives the parsed contents of a GIF file from processBlocks().
+	private interface BlockSink {
+		
+		// Receives bytes to be written to the output verbatim.
+		public void write(byte[] b) throws IOException;
+		
+		// Receives the decoded pixels of an image (or null if not decoded) with its width and its
+		// original LZW data (in subblocks), to be written to the output in optimized form.
+		public void writeImage(byte[] pixels, int width, int codeBits, byte[] oldComp) throws IOException;
+		
+	}
+	
+	
+	// Recompresses each image and writes everything immediately, on the caller's thread. The new version
+	// of each image's LZW data is streamed to the output rather than buffered.
+	private static final class SequentialSink implements BlockSink {
+		
+		private final OutputStream output;
+		private final int blockSize;
+		private final int dictClear;
+		private final int fastMillis;
+		
+		
+		public SequentialSink(OutputStream out, int blockSize, int dictClear, int fastMillis) {
+			output = out;
+			this.blockSize = blockSize;
+			this.dictClear = dictClear;
+			this.fastMillis = fastMillis;
+		}
+		
+		
+		public void write(byte[] b) throws IOException {
+			output.write(b);
+		}
+		
+		
+		public void writeImage(byte[] pixels, int width, int codeBits, byte[] oldComp) throws IOException {
+			recompressData(pixels, width, codeBits, oldComp, blockSize, dictClear, fastMillis, true, output);
+		}
+		
+	}
+	
+	
+	// Queues verbatim data as already-completed results and images as tasks on the worker pool, in input order.
+	// Blocks when the queue is full, i.e. when the reader is too far ahead of the sequencer.
+	private static final class PipelinedSink implements BlockSink {
+		
+		private final BlockingQueue<Future<byte[]>> queue;
+		private final ExecutorService workers;
+		private final int blockSize;
+		private final int dictClear;
+		private final int fastMillis;
+		
+		
+		public PipelinedSink(BlockingQueue<Future<byte[]>> queue, ExecutorService workers, int blockSize, int dictClear, int fastMillis) {
+			this.queue = queue;
+			this.workers = workers;
+			this.blockSize = blockSize;
+			this.dictClear = dictClear;
+			this.fastMillis = fastMillis;
+		}
+		
+		
+		public void write(byte[] b) throws IOException {
+			if (b.length > 0)
+				put(CompletableFuture.completedFuture(b));
+		}
+		
+		
+		public void writeImage(final byte[] pixels, final int width, final int codeBits, final byte[] oldComp) throws IOException {
+			put(workers.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					ByteArrayOutputStream bout = new ByteArrayOutputStream();
+					recompressData(pixels, width, codeBits, oldComp, blockSize, dictClear, fastMillis, false, bout);
+					return bout.toByteArray();
+				}
+			}));
+		}
+		
+		
+		private void put(Future<byte[]> item) throws IOException {
+			try {
+				queue.put(item);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		
+	}
+	
+	
+	
 	// Reads the entire buffer fully or throws EOFException.
 	private static void readFully(InputStream in, byte[] buf) throws IOException {
 		for (int off = 0; off < buf.length; ) {
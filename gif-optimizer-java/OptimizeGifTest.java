@@ -0,0 +1,104 @@
+/* 
+ * GIF image file optimizer
+ * 
+ * Copyright (c) 2015 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * http://www.nayuki.io/page/gif-optimizer-java
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import org.junit.Test;
+
+
+public final class OptimizeGifTest {
+	
+	/* Test cases */
+	
+	@Test
+	public void testPipelinedPreservesBlocks() throws IOException, DataFormatException {
+		byte[] gif = makeAnimation(20, 64, 48, new Random(1));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OptimizeGif.processBlocksPipelined(new MemoizingInputStream(new ByteArrayInputStream(gif)), out, 0, -1, -1, 3);
+		// The input was written with uncompressed LZW, which blocksize=0 reproduces exactly
+		assertArrayEquals(gif, out.toByteArray());
+	}
+	
+	
+	// The sequencer fails while the reader is blocked on the full queue. The reader must
+	// not stay blocked afterward, otherwise the program would never exit.
+	@Test(timeout=30000)
+	public void testPipelinedOutputFailure() throws IOException, DataFormatException, InterruptedException {
+		byte[] gif = makeAnimation(200, 64, 48, new Random(2));
+		OutputStream out = new OutputStream() {
+			private int count = 0;
+			public void write(int b) throws IOException {
+				write(new byte[]{(byte)b}, 0, 1);
+			}
+			public void write(byte[] b, int off, int len) throws IOException {
+				count += len;
+				if (count > 10000) {
+					try {
+						Thread.sleep(500);  // Let the reader fill the queue and block
+					} catch (InterruptedException e) {}
+					throw new IOException("No space left on device");
+				}
+			}
+		};
+		try {
+			OptimizeGif.processBlocksPipelined(new MemoizingInputStream(new ByteArrayInputStream(gif)), out, 0, -1, -1, 2);
+			fail();
+		} catch (IOException e) {
+			assertEquals("No space left on device", e.getMessage());
+		}
+		
+		// Wait for the reader and workers to end
+		while (true) {
+			boolean alive = false;
+			for (Thread th : Thread.getAllStackTraces().keySet()) {
+				if (th.getName().startsWith("OptimizeGif ")) {
+					assertTrue(th.isDaemon());
+					alive = true;
+				}
+			}
+			if (!alive)
+				break;
+			Thread.sleep(10);
+		}
+	}
+	
+	
+	
+	/* Utility method */
+	
+	// Returns a GIF89a file of the given number of frames with random pixels, encoded as uncompressed LZW.
+	private static byte[] makeAnimation(int frames, int width, int height, Random rand) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+		out.write(new byte[]{(byte)width, (byte)(width >>> 8), (byte)height, (byte)(height >>> 8), 0, 0, 0});
+		for (int i = 0; i < frames; i++) {
+			out.write(new byte[]{0x21, (byte)0xF9, 4, 0, 10, 0, 0, 0});  // Graphic control extension
+			out.write(0x2C);
+			out.write(new byte[]{0, 0, 0, 0, (byte)width, (byte)(width >>> 8), (byte)height, (byte)(height >>> 8), 0});
+			out.write(8);
+			byte[] pixels = new byte[width * height];
+			rand.nextBytes(pixels);
+			SubblockOutputStream blockOut = new SubblockOutputStream(out);
+			ByteBitOutputStream bitOut = new ByteBitOutputStream(blockOut);
+			GifLzwCompressor.encodeUncompressed(pixels, 0, pixels.length, 8, bitOut);
+			bitOut.detach();
+			blockOut.detach();
+		}
+		out.write(0x3B);
+		return out.toByteArray();
+	}
+	
+}
@@ -11,7 +11,10 @@
  * is cleared at advantageous points in the data stream.
  * 
  * Caveats:
- * - The input image must have 256 or fewer unique colors.
+ * - If the input image has more than 256 unique colors (or 255 with a
+ *   transparent color), it is quantized with median cut, with each pixel
+ *   mapped to the nearest palette color (no dithering). Otherwise the colors
+ *   are preserved exactly.
  * - The width and height must be less than 65536.
  * - PNGs with any partially transparent pixels are rejected.
  *   (Only fully opaque or transparent pixels are allowed.)
@@ -168,7 +171,7 @@ public final class WriteGif {
 			
 			if (transpColor != -1) {  // Transparent pixels found
 				// Find an unused color to use as new transparent color
-				boolean[] opaqueUsed = new boolean[256];
+				boolean[] opaqueUsed = new boolean[1 << 16];
 				for (int i = 0; i < inPixels.length; i++) {
 					int pix = inPixels[i];
 					if (pix >>> 24 == 0xFF) {  // Opaque
@@ -179,7 +182,7 @@ public final class WriteGif {
 				}
 				for (int i = 0; ; i++) {
 					if (i == opaqueUsed.length)
-						throw new IllegalArgumentException("Number of unique colors in image exceeds 256");
+						return "No unused color available for transparency";
 					else if (!opaqueUsed[i]) {
 						transpColor = (transpColor + i) & 0xFFFFFF;
 						break;
@@ -198,15 +201,32 @@ public final class WriteGif {
 		for (int i = 0; i < inPixels.length; i++)
 			inPixels[i] &= 0xFFFFFF;
 		
-		// Gather palette and losslessly quantize the image down to 8 bits per pixel
+		// Gather palette and losslessly quantize the image down to 8 bits per pixel if possible
 		int[] palette;
+		int transpIndex;
+		byte[] palettedImage;
 		try {
 			palette = listUniqueColors(inPixels, 256);
+			transpIndex = Math.max(Arrays.binarySearch(palette, transpColor), -1);  // Clamp the value to -1 if not found
+			palettedImage = convertToPaletted(inPixels, palette);
 		} catch (IllegalArgumentException e) {
-			return e.getMessage();
+			// Too many colors, so choose a palette for the opaque pixels and append the transparent color
+			boolean hasTransp = false;
+			for (int i = 0; i < inPixels.length && transpColor != -1 && !hasTransp; i++)
+				hasTransp = inPixels[i] == transpColor;
+			palette = ColorQuantizer.medianCut(inPixels, transpColor, hasTransp ? 255 : 256);
+			for (int i = 0; i < palette.length; i++) {
+				if (hasTransp && palette[i] == transpColor)
+					palette[i] ^= 1;  // Keep opaque pixels opaque, at the cost of an imperceptible change
+			}
+			ColorQuantizer quant = new ColorQuantizer(palette.length > 0 ? palette : new int[]{0});
+			transpIndex = hasTransp ? palette.length : -1;
+			if (hasTransp) {
+				palette = Arrays.copyOf(palette, palette.length + 1);
+				palette[transpIndex] = transpColor;
+			}
+			palettedImage = quant.convertToPaletted(inPixels, width, hasTransp ? transpColor : -1, transpIndex);
 		}
-		int transpIndex = Math.max(Arrays.binarySearch(palette, transpColor), -1);  // Clamp the value to -1 if not found
-		byte[] palettedImage = convertToPaletted(inPixels, palette);
 		
 		// Encode and write output GIF file
 		writeGif(palettedImage, width, height, palette, transpIndex, blockSize, dictClear, outFile);
@@ -0,0 +1,190 @@
+/* 
+ * Portable FloatMap reader/writer
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * http://www.nayuki.io/page/portable-floatmap-format-io-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Provides direct access to the pixels of a Portable FloatMap (PFM) file by memory-mapping it, instead of copying them onto the heap.
+ * The pixels are exposed as {@link FloatBuffer} views in the file's byte order, one row at a time (or the whole raster if it is small enough).
+ * There is no limit on the total number of pixels, because the raster is mapped in several pieces if needed.
+ * <p>Rows are numbered in file order, from bottom to top, with the same layout as {@link PortableFloatMap#pixels}.
+ * In writable mode, changes to the buffers are written to the file by the operating system, or explicitly by {@link #force()}.
+ * The mapping remains valid until this object is garbage-collected, even though the file is closed by the constructor.</p>
+ */
+public final class MappedPortableFloatMap {
+	
+	/** The width of the image, which is positive. */
+	public final int width;
+	
+	/** The height of the image, which is positive. */
+	public final int height;
+	
+	/** The mode of the image, color/grayscale, which is not {@code null}. */
+	public final PortableFloatMap.Mode mode;
+	
+	/** Indicates whether the image is in big endian. */
+	public final boolean bigEndian;
+	
+	private final ByteOrder order;
+	private final int rowBytes;
+	private final int rowsPerBuffer;
+	private final MappedByteBuffer[] buffers;  // Each maps rowsPerBuffer rows, except the last which may map fewer
+	
+	
+	
+	/**
+	 * Maps the raster of the specified existing PFM file.
+	 * @param file the file to map
+	 * @param writable whether to map the file for writing as well as reading
+	 * @throws NullPointerException if the file is {@code null}
+	 * @throws IllegalArgumentException if the file data does not represent a valid PFM header, the file is shorter than the header implies,
+	 * or a row would exceed {@code Integer.MAX_VALUE} bytes
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public MappedPortableFloatMap(File file, boolean writable) throws IOException {
+		if (file == null)
+			throw new NullPointerException();
+		RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			PortableFloatMap header = new PortableFloatMap();
+			header.readHeader(Channels.newInputStream(channel));  // Reads byte by byte, so the position is exactly after the header
+			width = header.width;
+			height = header.height;
+			mode = header.mode;
+			bigEndian = header.bigEndian;
+			order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			if (width > Integer.MAX_VALUE / 4 / PortableFloatMap.getChannels(mode))
+				throw new IllegalArgumentException("Row is too long");
+			rowBytes = width * PortableFloatMap.getChannels(mode) * 4;
+			rowsPerBuffer = Integer.MAX_VALUE / rowBytes;
+			
+			long offset = channel.position();
+			if (channel.size() - offset < (long)rowBytes * height)
+				throw new IllegalArgumentException("File is truncated");
+			buffers = new MappedByteBuffer[(int)(((long)height + rowsPerBuffer - 1) / rowsPerBuffer)];
+			for (int i = 0; i < buffers.length; i++) {
+				int rows = Math.min(height - i * rowsPerBuffer, rowsPerBuffer);
+				buffers[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+					offset + (long)i * rowsPerBuffer * rowBytes, (long)rows * rowBytes);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+	
+	
+	/**
+	 * Creates (or overwrites) the specified file as a PFM image with the specified properties and all pixels zero, and maps it for writing.
+	 * @param file the file to create
+	 * @param width the width of the image, which must be positive
+	 * @param height the height of the image, which must be positive
+	 * @param mode the mode of the image, color/grayscale
+	 * @param bigEndian whether to write the image in big endian
+	 * @return a writable mapping of the new file
+	 * @throws NullPointerException if the file or mode is {@code null}
+	 * @throws IllegalArgumentException if the width or height is zero/negative, or a row would exceed {@code Integer.MAX_VALUE} bytes
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public static MappedPortableFloatMap create(File file, int width, int height, PortableFloatMap.Mode mode, boolean bigEndian) throws IOException {
+		if (file == null || mode == null)
+			throw new NullPointerException();
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Width and height must be positive");
+		if (width > Integer.MAX_VALUE / 4 / PortableFloatMap.getChannels(mode))
+			throw new IllegalArgumentException("Row is too long");
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		PortableFloatMap.writeHeader(header, width, height, mode, bigEndian);
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.write(header.toByteArray());
+			raf.setLength(header.size() + (long)width * PortableFloatMap.getChannels(mode) * 4 * height);
+		} finally {
+			raf.close();
+		}
+		return new MappedPortableFloatMap(file, true);
+	}
+	
+	
+	
+	/**
+	 * Returns the number of floats in each row, which is the width times the number of channels.
+	 * @return the row length
+	 */
+	public int getRowLength() {
+		return rowBytes / 4;
+	}
+	
+	
+	/**
+	 * Returns a view of the specified row, which has position 0 and capacity {@link #getRowLength()}.
+	 * The view is independent of other views, so it is safe for different threads to use different views concurrently.
+	 * @param y the row index, from 0 (bottom) to height - 1
+	 * @return a view of the row's floats
+	 * @throws IndexOutOfBoundsException if the row index is out of range
+	 */
+	public FloatBuffer getRow(int y) {
+		if (y < 0 || y >= height)
+			throw new IndexOutOfBoundsException();
+		ByteBuffer b = buffers[y / rowsPerBuffer].duplicate();
+		int off = y % rowsPerBuffer * rowBytes;
+		b.limit(off + rowBytes).position(off);
+		return b.slice().order(order).asFloatBuffer();
+	}
+	
+	
+	/**
+	 * Returns a view of the entire raster, which has position 0 and capacity equal to the length of {@link PortableFloatMap#pixels}.
+	 * This is only possible if the raster is at most {@code Integer.MAX_VALUE} bytes long; otherwise use {@link #getRow(int)}.
+	 * @return a view of all the floats
+	 * @throws IllegalStateException if the raster is too large for a single buffer
+	 */
+	public FloatBuffer asFloatBuffer() {
+		if (buffers.length != 1)
+			throw new IllegalStateException("Raster is too large for a single buffer");
+		return buffers[0].duplicate().order(order).asFloatBuffer();
+	}
+	
+	
+	/**
+	 * Writes any changes made through the views to the file (if it was mapped for writing).
+	 */
+	public void force() {
+		for (MappedByteBuffer b : buffers)
+			b.force();
+	}
+	
+}
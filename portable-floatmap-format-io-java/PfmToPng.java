@@ -22,107 +22,270 @@
  *   Software.
  */
 
-import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 
 /* 
  * Converts a Portable FloatMap (PFM) image file to a PNG file.
- * Applies a tone curve and sRGB gamma correction. (Can be customized by editing the code.)
+ * Applies a tone curve and sRGB gamma correction, which can be chosen by options.
  * 
- * Usage: java PfmToPng Input.pfm Output.png
+ * Usage: java PfmToPng [Options] Input.pfm Output.png
+ * 
+ * Options:
+ *   tonemap=exposure|reinhard|clamp
+ *     The tone curve applied to each linear sample (see ToneMapper.Operator).
+ *     Default is exposure, a film-like curve that maps 0 to 0, 1 to 1/2, 2 to 3/4, etc.
+ *   exposure=float
+ *     For example: exposure=-1.5
+ *     Multiplies every sample by 2^exposure before the tone curve. Default is 0.
+ *   gamma=srgb|float
+ *     For example: gamma=2.2
+ *     The transfer function applied after the tone curve. Default is srgb.
+ * 
+ * The input file is memory-mapped rather than read onto the heap, and bands of rows
+ * are tone-mapped in parallel and streamed to the PNG encoder in order, so memory usage
+ * does not grow with the image size.
  */
 public class PfmToPng {
 	
 	public static void main(String[] args) throws IOException {
 		// Handle arguments
-		if (args.length != 2) {
-			System.err.println("Usage: java PfmToPng Input.pfm Output.png");
+		if (args.length < 2) {
+			System.err.println("Usage: java PfmToPng [Options] Input.pfm Output.png");
 			System.exit(1);
 			return;
 		}
-		File infile = new File(args[0]);
-		File outfile = new File(args[1]);
+		File infile = new File(args[args.length - 2]);
+		File outfile = new File(args[args.length - 1]);
 		if (!infile.isFile()) {
 			System.err.println("Error: Input file does not exist");
 			System.exit(1);
 			return;
 		}
 		
-		// Read input image file
-		PortableFloatMap pfm = new PortableFloatMap(infile);
-		int width = pfm.width;
-		int height = pfm.height;
-		float[] inpix = pfm.pixels;
-		
-		// Convert pixels from float32 to uint8 and do packing
-		int[] outpix = new int[width * height];
-		if (pfm.mode == PortableFloatMap.Mode.COLOR) {
-			for (int y = height - 1, i = 0; y >= 0; y--) {
-				for (int x = 0; x < width; x++, i += 3) {
-					outpix[y * width + x] = floatToByte(inpix[i]) << 16 | floatToByte(inpix[i + 1]) << 8 | floatToByte(inpix[i + 2]);
-				}
+		// Parse options
+		ToneMapper.Operator operator = ToneMapper.Operator.EXPOSURE;
+		double exposure = 0;
+		double gamma = ToneMapper.SRGB;
+		try {
+			for (int i = 0; i < args.length - 2; i++) {
+				String opt = args[i];
+				if (opt.matches("tonemap=(exposure|reinhard|clamp)"))
+					operator = ToneMapper.Operator.valueOf(opt.substring(8).toUpperCase());
+				else if (opt.startsWith("exposure="))
+					exposure = parseNumber(opt, 9);
+				else if (opt.equals("gamma=srgb"))
+					gamma = ToneMapper.SRGB;
+				else if (opt.startsWith("gamma="))
+					gamma = parseNumber(opt, 6);
+				else
+					throw new IllegalArgumentException("Invalid option: " + opt);
 			}
-		} else if (pfm.mode == PortableFloatMap.Mode.GRAYSCALE) {
-			for (int y = height - 1, i = 0; y >= 0; y--) {
-				for (int x = 0; x < width; x++, i++)
-					outpix[y * width + x] = floatToByte(inpix[i]) * 0x010101;
+			ToneMapper mapper = new ToneMapper(operator, exposure, gamma);
+			
+			// Convert image
+			MappedPortableFloatMap pfm = new MappedPortableFloatMap(infile, false);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(outfile));
+			try {
+				convert(pfm, mapper, out);
+			} finally {
+				out.close();
 			}
-		} else
-			throw new AssertionError();
-		
-		// Write output image file
-		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		img.setRGB(0, 0, width, height, outpix, 0, width);
-		ImageIO.write(img, "png", outfile);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		}
 	}
 	
 	
-	@SuppressWarnings("unused")  // To persuade Eclipse to show fewer squiggly underlines for sketchy coding practices
-	private static int floatToByte(float x) {
-		final int MODE = 3;  // Try me!
-		
-		if (MODE == 0)  // Simple mapping of [0.0, 1.0] to [0, 255]
-			return mapTo8Bits(x);
-		
-		else if (MODE == 1)  // Mapping [0.0, 1.0] to [0, 255] with standard gamma correction of 2.2
-			return mapTo8Bits(gammaCorrection(x, 2.2));
-		
-		else if (MODE == 2)  // Mapping [0.0, 1.0] to [0, 255] with sRGB gamma correction
-			return mapTo8Bits(gammaCorrection(x, 2.2));
-		
-		else if (MODE == 3) {  // Film-like exposure curve output as sRGB
-			final double GAIN = Math.log(2);  // By default, GAIN=log(2) maps 0 to 0, 1 to 1/2, 2 to 3/4, 3 to 7/8, etc.
-			return mapTo8Bits(srgbCorrection(1 - Math.exp(-x * GAIN)));
-			
-		} else
-			throw new AssertionError();
+	private static double parseNumber(String opt, int start) {
+		try {
+			return Double.parseDouble(opt.substring(start));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number in option: " + opt);
+		}
 	}
 	
 	
-	/* Utility functions */
-	
-	private static int mapTo8Bits(double val) {
-		if (val > 1)
-			val = 1;
-		else if (val < 0)
-			val = 0;
-		return (int)(val * 255 + 0.5);
+	// Tone-maps the given image on a pool of worker threads, one band of rows per task,
+	// and writes the result to the given output stream as a PNG file.
+	private static void convert(final MappedPortableFloatMap pfm, final ToneMapper mapper, OutputStream out) throws IOException {
+		final int width = pfm.width;
+		final int height = pfm.height;
+		final int channels = pfm.getRowLength() / width;
+		PngRowWriter png = new PngRowWriter(out, width, height);
+		int threads = Runtime.getRuntime().availableProcessors();
+		int rowsPerBand = Math.max((1 << 18) / width, 1);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			Queue<Future<int[][]>> pending = new ArrayDeque<Future<int[][]>>();
+			for (int y = 0; y < height || !pending.isEmpty(); ) {
+				if (y < height && pending.size() < threads * 2) {
+					final int start = y;
+					final int end = Math.min(y + rowsPerBand, height);
+					pending.add(workers.submit(new Callable<int[][]>() {
+						public int[][] call() {
+							int[][] rows = new int[end - start][width];
+							for (int i = 0; i < rows.length; i++)  // PFM rows are stored from bottom to top
+								mapper.mapRow(pfm.getRow(height - 1 - (start + i)), channels, rows[i]);
+							return rows;
+						}
+					}));
+					y = end;
+				} else {
+					for (int[] row : getResult(pending.remove()))
+						png.writeRow(row);
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		png.finish();
 	}
 	
 	
-	private static double gammaCorrection(double val, double gamma) {
-		return Math.pow(val, 1 / gamma);
+	// Returns the result of the given task, rethrowing its exception if it failed.
+	private static <T> T getResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if (cause instanceof Error)
+				throw (Error)cause;
+			else
+				throw new IOException(cause);
+		}
 	}
 	
 	
-	private static double srgbCorrection(double val) {
-		if (val <= 0.0031308)
-			return val * 12.92;
-		else
-			return Math.pow(val, 1 / 2.4) * 1.055 - 0.055;
+	
+	/* 
+	 * Writes an RGB24 PNG file one row at a time, from top to bottom. Each row uses the Paeth filter,
+	 * and the compressed data is split into IDAT chunks of at most 64 KiB.
+	 */
+	private static final class PngRowWriter extends OutputStream {
+		
+		private final OutputStream output;
+		private final Deflater deflater;  // Ended by finish()
+		private final DeflaterOutputStream deflaterOut;  // Writes into this object's IDAT buffer
+		private final byte[] chunk = new byte[65536];
+		private int chunkLength = 0;
+		private byte[] prevRow;
+		private byte[] curRow;
+		private final byte[] filtered;
+		
+		
+		public PngRowWriter(OutputStream out, int width, int height) throws IOException {
+			if (width > (Integer.MAX_VALUE - 1) / 3)
+				throw new IllegalArgumentException("Width too large");
+			output = out;
+			out.write(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+			byte[] ihdr = {
+				(byte)(width >>> 24), (byte)(width >>> 16), (byte)(width >>> 8), (byte)width,
+				(byte)(height >>> 24), (byte)(height >>> 16), (byte)(height >>> 8), (byte)height,
+				8, 2, 0, 0, 0,  // 8 bits per sample, RGB, DEFLATE, adaptive filtering, no interlace
+			};
+			writeChunk("IHDR", ihdr, ihdr.length);
+			deflater = new Deflater();
+			deflaterOut = new DeflaterOutputStream(this, deflater);
+			prevRow = new byte[width * 3];  // All zeros above the top row
+			curRow = new byte[width * 3];
+			filtered = new byte[width * 3 + 1];
+			filtered[0] = 4;  // Filter type: Paeth
+		}
+		
+		
+		public void writeRow(int[] row) throws IOException {
+			for (int x = 0; x < row.length; x++) {
+				curRow[x * 3 + 0] = (byte)(row[x] >>> 16);
+				curRow[x * 3 + 1] = (byte)(row[x] >>>  8);
+				curRow[x * 3 + 2] = (byte)(row[x] >>>  0);
+			}
+			for (int i = 0; i < curRow.length; i++) {
+				int a = i >= 3 ? curRow[i - 3] & 0xFF : 0;  // Left
+				int b = prevRow[i] & 0xFF;  // Up
+				int c = i >= 3 ? prevRow[i - 3] & 0xFF : 0;  // Up-left
+				int p = a + b - c;
+				int pa = Math.abs(p - a);
+				int pb = Math.abs(p - b);
+				int pc = Math.abs(p - c);
+				filtered[i + 1] = (byte)(curRow[i] - (pa <= pb && pa <= pc ? a : pb <= pc ? b : c));
+			}
+			deflaterOut.write(filtered);
+			byte[] temp = prevRow;
+			prevRow = curRow;
+			curRow = temp;
+		}
+		
+		
+		// Finishes the zlib stream, writes the last IDAT chunk and the IEND chunk, and releases the deflater.
+		public void finish() throws IOException {
+			try {
+				deflaterOut.finish();
+				writeChunk("IDAT", chunk, chunkLength);
+				writeChunk("IEND", chunk, 0);
+			} finally {
+				deflater.end();
+			}
+		}
+		
+		
+		// Receives compressed data from the deflater.
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+		
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (chunkLength == chunk.length) {
+					writeChunk("IDAT", chunk, chunkLength);
+					chunkLength = 0;
+				}
+				int n = Math.min(chunk.length - chunkLength, len);
+				System.arraycopy(b, off, chunk, chunkLength, n);
+				chunkLength += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		
+		private void writeChunk(String type, byte[] data, int len) throws IOException {
+			byte[] typeBytes = type.getBytes("US-ASCII");
+			CRC32 c = new CRC32();
+			c.update(typeBytes);
+			c.update(data, 0, len);
+			writeInt32(len);
+			output.write(typeBytes);
+			output.write(data, 0, len);
+			writeInt32((int)c.getValue());
+		}
+		
+		
+		private void writeInt32(int x) throws IOException {
+			output.write(new byte[]{(byte)(x >>> 24), (byte)(x >>> 16), (byte)(x >>> 8), (byte)x});
+		}
+		
 	}
 	
 }
@@ -37,11 +37,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 /**
  * Represents a {@code float}-based RGB/grayscale raster image, and provides methods for reading/writing Portable FloatMap (PFM) files.
  * <p>Based on the file format specification at: http://www.pauldebevec.com/Research/HDR/PFM/</p>
+ * <p>For images that are too large to hold on the heap, see {@link RowReader}, {@link RowWriter}, and {@link MappedPortableFloatMap}.</p>
  */
 public final class PortableFloatMap {
 	
@@ -114,6 +117,24 @@ public final class PortableFloatMap {
 	
 	
 	private void read(InputStream in) throws IOException {
+		readHeader(in);
+		
+		// Read float32 image pixel data
+		DataInput din = new DataInputStream(in);
+		pixels = new float[calcPixelArrayLength()];
+		if (bigEndian) {
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = din.readFloat();
+		} else {
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = Float.intBitsToFloat(Integer.reverseBytes(din.readInt()));
+		}
+	}
+	
+	
+	// Reads the three header lines and sets the width, height, mode, and endianness fields.
+	// Exactly the header's bytes are read from the stream, leaving it positioned at the start of the pixel data.
+	void readHeader(InputStream in) throws IOException {
 		// Parse file magic header line
 		String format = readLine(in);
 		if (format.equals("PF"))
@@ -140,17 +161,6 @@ public final class PortableFloatMap {
 			bigEndian = false;
 		else
 			throw new IllegalArgumentException("Unrecognized format: " + format);
-		
-		// Read float32 image pixel data
-		DataInput din = new DataInputStream(in);
-		pixels = new float[calcPixelArrayLength()];
-		if (bigEndian) {
-			for (int i = 0; i < pixels.length; i++)
-				pixels[i] = din.readFloat();
-		} else {
-			for (int i = 0; i < pixels.length; i++)
-				pixels[i] = Float.intBitsToFloat(Integer.reverseBytes(din.readInt()));
-		}
 	}
 	
 	
@@ -188,7 +198,22 @@ public final class PortableFloatMap {
 		if (out == null)
 			throw new NullPointerException();
 		checkData();
+		writeHeader(out, width, height, mode, bigEndian);
 		
+		// Write float32 image pixel data
+		DataOutput dout = new DataOutputStream(out);
+		if (bigEndian) {
+			for (float x : pixels)
+				dout.writeFloat(x);
+		} else {
+			for (float x : pixels)
+				dout.writeInt(Integer.reverseBytes(Float.floatToIntBits(x)));
+		}
+	}
+	
+	
+	// Writes the three header lines for an image with the given properties.
+	static void writeHeader(OutputStream out, int width, int height, Mode mode, boolean bigEndian) throws IOException {
 		// Write header text data. Must use Unix newlines, not universal style
 		PrintWriter pout = new PrintWriter(new OutputStreamWriter(out, "US-ASCII"));
 		switch (mode) {
@@ -204,16 +229,6 @@ public final class PortableFloatMap {
 		pout.print(width + " " + height + "\n");
 		pout.print((bigEndian ? "1.0" : "-1.0") + "\n");
 		pout.flush();
-		
-		// Write float32 image pixel data
-		DataOutput dout = new DataOutputStream(out);
-		if (bigEndian) {
-			for (float x : pixels)
-				dout.writeFloat(x);
-		} else {
-			for (float x : pixels)
-				dout.writeInt(Integer.reverseBytes(Float.floatToIntBits(x)));
-		}
 	}
 	
 	
@@ -232,22 +247,24 @@ public final class PortableFloatMap {
 	
 	
 	private int calcPixelArrayLength() {
-		int channels;
+		int channels = getChannels(mode);
+		int result = width * height * channels;
+		if (result / width / height / channels != 1)  // Check arithmetic overflow
+			throw new IllegalArgumentException("Dimensions are too large to make a pixel array");  // Due to Java's maximum array length of Integer.MAX_VALUE
+		return result;
+	}
+	
+	
+	// Returns the number of floats per pixel in the given mode.
+	static int getChannels(Mode mode) {
 		switch (mode) {
 			case COLOR:
-				channels = 3;
-				break;
+				return 3;
 			case GRAYSCALE:
-				channels = 1;
-				break;
+				return 1;
 			default:
 				throw new AssertionError();
 		}
-		
-		int result = width * height * channels;
-		if (result / width / height / channels != 1)  // Check arithmetic overflow
-			throw new IllegalArgumentException("Dimensions are too large to make a pixel array");  // Due to Java's maximum array length of Integer.MAX_VALUE
-		return result;
 	}
 	
 	
@@ -267,6 +284,157 @@ public final class PortableFloatMap {
 	
 	
 	
+	/**
+	 * Reads a PFM image from an input stream one row at a time, so that only one row needs to be held in memory.
+	 * Rows are read in file order, from bottom to top. There is no limit on the total number of pixels.
+	 * <p>The stream is not closed by this class. After all rows are read, no extra bytes have been read past the end of the image.</p>
+	 */
+	public static final class RowReader {
+		
+		/** The width of the image, which is positive. */
+		public final int width;
+		
+		/** The height of the image, which is positive. */
+		public final int height;
+		
+		/** The mode of the image, color/grayscale, which is not {@code null}. */
+		public final Mode mode;
+		
+		/** Indicates whether the image is in big endian. */
+		public final boolean bigEndian;
+		
+		private final DataInputStream input;
+		private final byte[] buffer;  // One row of raw bytes
+		private final ByteOrder order;
+		private int rowsRead;
+		
+		
+		/**
+		 * Reads the header of a PFM image from the specified input stream, and prepares to read the rows.
+		 * @param in the input stream to read from
+		 * @throws NullPointerException if the stream is {@code null}
+		 * @throws IllegalArgumentException if the stream data does not represent a valid PFM header, or a row would exceed {@code Integer.MAX_VALUE} bytes
+		 * @throws IOException if an I/O exception occurred
+		 */
+		public RowReader(InputStream in) throws IOException {
+			if (in == null)
+				throw new NullPointerException();
+			PortableFloatMap header = new PortableFloatMap();
+			header.readHeader(in);
+			width = header.width;
+			height = header.height;
+			mode = header.mode;
+			bigEndian = header.bigEndian;
+			if (width > Integer.MAX_VALUE / 4 / getChannels(mode))
+				throw new IllegalArgumentException("Row is too long");
+			input = new DataInputStream(in);
+			buffer = new byte[width * getChannels(mode) * 4];
+			order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			rowsRead = 0;
+		}
+		
+		
+		/**
+		 * Returns the number of floats in each row, which is the width times the number of channels.
+		 * @return the row length
+		 */
+		public int getRowLength() {
+			return buffer.length / 4;
+		}
+		
+		
+		/**
+		 * Tests whether there are rows remaining to be read.
+		 * @return whether {@link #readRow(float[])} can be called
+		 */
+		public boolean hasNextRow() {
+			return rowsRead < height;
+		}
+		
+		
+		/**
+		 * Reads the next row into the specified array, in the same layout as {@link PortableFloatMap#pixels}.
+		 * @param row the array to fill, whose length must equal {@link #getRowLength()}
+		 * @throws IllegalArgumentException if the array has the wrong length
+		 * @throws IllegalStateException if all rows have already been read
+		 * @throws IOException if an I/O exception occurred
+		 */
+		public void readRow(float[] row) throws IOException {
+			if (row.length != getRowLength())
+				throw new IllegalArgumentException("Row array length does not match width");
+			if (!hasNextRow())
+				throw new IllegalStateException("No more rows");
+			input.readFully(buffer);
+			ByteBuffer.wrap(buffer).order(order).asFloatBuffer().get(row);
+			rowsRead++;
+		}
+		
+	}
+	
+	
+	
+	/**
+	 * Writes a PFM image to an output stream one row at a time, so that only one row needs to be held in memory.
+	 * Rows are written in file order, from bottom to top. There is no limit on the total number of pixels.
+	 * <p>The stream is not closed by this class. It is the caller's responsibility to write exactly {@code height} rows.</p>
+	 */
+	public static final class RowWriter {
+		
+		private final OutputStream output;
+		private final int height;
+		private final byte[] buffer;  // One row of raw bytes
+		private final ByteOrder order;
+		private int rowsWritten;
+		
+		
+		/**
+		 * Writes the header of a PFM image with the specified properties to the specified output stream, and prepares to write the rows.
+		 * @param out the output stream to write to
+		 * @param width the width of the image, which must be positive
+		 * @param height the height of the image, which must be positive
+		 * @param mode the mode of the image, color/grayscale
+		 * @param bigEndian whether to write the image in big endian
+		 * @throws NullPointerException if the stream or mode is {@code null}
+		 * @throws IllegalArgumentException if the width or height is zero/negative, or a row would exceed {@code Integer.MAX_VALUE} bytes
+		 * @throws IOException if an I/O exception occurred
+		 */
+		public RowWriter(OutputStream out, int width, int height, Mode mode, boolean bigEndian) throws IOException {
+			if (out == null || mode == null)
+				throw new NullPointerException();
+			if (width <= 0 || height <= 0)
+				throw new IllegalArgumentException("Width and height must be positive");
+			if (width > Integer.MAX_VALUE / 4 / getChannels(mode))
+				throw new IllegalArgumentException("Row is too long");
+			writeHeader(out, width, height, mode, bigEndian);
+			output = out;
+			this.height = height;
+			buffer = new byte[width * getChannels(mode) * 4];
+			order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			rowsWritten = 0;
+		}
+		
+		
+		/**
+		 * Writes the next row from the specified array, in the same layout as {@link PortableFloatMap#pixels}.
+		 * @param row the row to write, whose length must equal the width times the number of channels
+		 * @throws IllegalArgumentException if the array has the wrong length
+		 * @throws IllegalStateException if all rows have already been written
+		 * @throws IOException if an I/O exception occurred
+		 */
+		public void writeRow(float[] row) throws IOException {
+			if (row.length != buffer.length / 4)
+				throw new IllegalArgumentException("Row array length does not match width");
+			if (rowsWritten == height)
+				throw new IllegalStateException("All rows already written");
+			ByteBuffer.wrap(buffer).order(order).asFloatBuffer().put(row);
+			output.write(buffer);
+			rowsWritten++;
+		}
+		
+	}
+	
+	
+	
 	public enum Mode {
 		
 		COLOR, GRAYSCALE
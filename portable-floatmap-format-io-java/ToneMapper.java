@@ -0,0 +1,211 @@
+/* 
+ * Portable FloatMap to PNG
+ * 
+ * Copyright (c) 2014 Project Nayuki
+ * http://www.nayuki.io/page/portable-floatmap-format-io-java
+ * 
+ * (MIT License)
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.nio.FloatBuffer;
+
+
+/**
+ * Converts linear floating-point samples to 8-bit output values by a tone curve followed by a transfer function (sRGB or gamma).
+ * Instead of evaluating the curve per sample, the constructor finds the smallest input that maps to each of the 256 output values
+ * (every supported curve is monotonic), and a lookup table over the input range narrows each sample down to usually one candidate.
+ * The result is exactly the same as evaluating the curve in {@code double} precision, but much faster. Instances are immutable and thread-safe.
+ */
+public final class ToneMapper {
+	
+	/** Transfer function value that selects the sRGB curve instead of a pure power-law gamma. */
+	public static final double SRGB = 0;
+	
+	
+	private final Operator operator;
+	private final double scale;  // Linear multiplier from the exposure in stops
+	private final double gamma;  // SRGB or a positive number
+	
+	// thresholds[k] is the smallest float input that maps to an output of at least k, or NaN if no input does.
+	// Elements 0 and 256 are unused. NaN inputs and inputs below thresholds[1] map to 0.
+	private final float[] thresholds;
+	
+	// lut[i] is the output for the input i / lutScale, which is a close starting point for inputs that round to index i.
+	private final byte[] lut;
+	private final float lutScale;
+	
+	
+	
+	/**
+	 * Constructs a tone mapper with the specified parameters.
+	 * @param operator the tone curve applied to each linear sample
+	 * @param exposure the exposure adjustment in stops, where each sample is multiplied by 2<sup>exposure</sup> before the tone curve
+	 * @param gamma {@link #SRGB} for the sRGB transfer function, or a positive number for a power-law gamma (1 means linear)
+	 * @throws NullPointerException if the operator is {@code null}
+	 * @throws IllegalArgumentException if the exposure is not finite or the gamma is invalid
+	 */
+	public ToneMapper(Operator operator, double exposure, double gamma) {
+		if (operator == null)
+			throw new NullPointerException();
+		if (Double.isInfinite(exposure) || Double.isNaN(exposure))
+			throw new IllegalArgumentException("Invalid exposure");
+		if (!(gamma == SRGB || gamma > 0 && !Double.isInfinite(gamma)))
+			throw new IllegalArgumentException("Invalid gamma");
+		this.operator = operator;
+		scale = Math.pow(2, exposure);
+		this.gamma = gamma;
+		
+		// Bisect over the bit patterns of non-negative floats, which are ordered like the floats themselves
+		thresholds = new float[257];
+		thresholds[256] = Float.NaN;
+		float maxThreshold = 0;
+		for (int k = 1; k <= 255; k++) {
+			int lo = 0;  // Invariant: evaluate(lo) < k (for lo > 0)
+			int hi = Float.floatToIntBits(Float.POSITIVE_INFINITY);  // Invariant: evaluate(hi) >= k, if any input reaches k
+			if (evaluate(Float.POSITIVE_INFINITY) < k) {
+				thresholds[k] = Float.NaN;
+				continue;
+			}
+			if (evaluate(0) >= k)
+				hi = 0;
+			while (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				if (evaluate(Float.intBitsToFloat(mid)) >= k)
+					hi = mid;
+				else
+					lo = mid;
+			}
+			thresholds[k] = Float.intBitsToFloat(hi);
+			if (!Float.isInfinite(thresholds[k]))
+				maxThreshold = Math.max(thresholds[k], maxThreshold);
+		}
+		
+		lut = new byte[LUT_SIZE];
+		lutScale = maxThreshold > 0 ? (LUT_SIZE - 1) / maxThreshold : 0;
+		for (int i = 0; i < LUT_SIZE; i++) {
+			float x = lutScale > 0 ? i / lutScale : 0;
+			int k = 0;
+			while (x >= thresholds[k + 1])  // Stops at the NaN sentinel
+				k++;
+			lut[i] = (byte)k;
+		}
+	}
+	
+	
+	
+	/**
+	 * Returns the 8-bit output value for the specified linear sample. Negative and NaN samples map to 0.
+	 * @param x the sample
+	 * @return the output value, in the range [0, 255]
+	 */
+	public int toByte(float x) {
+		if (!(x >= thresholds[1]))
+			return 0;
+		float i = x * lutScale;
+		int k = lut[i < LUT_SIZE - 1 ? (int)i : LUT_SIZE - 1] & 0xFF;
+		while (x >= thresholds[k + 1])
+			k++;
+		while (!(x >= thresholds[k]))  // In case the index was rounded up; stops at k = 1
+			k--;
+		return k;
+	}
+	
+	
+	/**
+	 * Converts the specified row of samples (with 1 or 3 channels per pixel) to packed RGB24 pixels,
+	 * where a grayscale sample is replicated into all three channels.
+	 * @param src the samples, from the buffer's position to its limit, which is not modified
+	 * @param channels the number of samples per pixel, 1 or 3
+	 * @param dest the array to write the pixels to, whose length must be the number of pixels
+	 * @throws IllegalArgumentException if the number of channels is invalid or the lengths do not match
+	 */
+	public void mapRow(FloatBuffer src, int channels, int[] dest) {
+		if (channels != 1 && channels != 3)
+			throw new IllegalArgumentException("Invalid number of channels");
+		if (src.remaining() != dest.length * channels)
+			throw new IllegalArgumentException("Length mismatch");
+		int off = src.position();
+		if (channels == 3) {
+			for (int x = 0; x < dest.length; x++, off += 3)
+				dest[x] = toByte(src.get(off)) << 16 | toByte(src.get(off + 1)) << 8 | toByte(src.get(off + 2));
+		} else {
+			for (int x = 0; x < dest.length; x++, off++)
+				dest[x] = toByte(src.get(off)) * 0x010101;
+		}
+	}
+	
+	
+	// Computes the output value directly, in double precision.
+	private int evaluate(float x) {
+		double val = operator.apply(Math.max(x, 0) * scale);
+		if (gamma == SRGB) {
+			if (val <= 0.0031308)
+				val *= 12.92;
+			else
+				val = Math.pow(val, 1 / 2.4) * 1.055 - 0.055;
+		} else
+			val = Math.pow(val, 1 / gamma);
+		return mapTo8Bits(val);
+	}
+	
+	
+	private static int mapTo8Bits(double val) {
+		if (val > 1)
+			val = 1;
+		else if (val < 0)
+			val = 0;
+		return (int)(val * 255 + 0.5);
+	}
+	
+	
+	private static final int LUT_SIZE = 4096;
+	
+	
+	
+	/**
+	 * A monotonic curve that maps a non-negative linear sample to the range [0, 1] (with values above 1 being clipped).
+	 */
+	public enum Operator {
+		
+		/** Maps [0, 1] to itself and clips brighter values. */
+		CLAMP {
+			double apply(double x) {
+				return x;
+			}
+		},
+		
+		/** Reinhard's operator x / (1 + x), which compresses all brightnesses smoothly. */
+		REINHARD {
+			double apply(double x) {
+				return Double.isInfinite(x) ? 1 : x / (1 + x);
+			}
+		},
+		
+		/** Film-like exposure curve 1 - 2<sup>-x</sup>, which maps 0 to 0, 1 to 1/2, 2 to 3/4, 3 to 7/8, etc. */
+		EXPOSURE {
+			double apply(double x) {
+				return 1 - Math.exp(-x * Math.log(2));
+			}
+		};
+		
+		
+		abstract double apply(double x);
+		
+	}
+	
+}